@@ -0,0 +1,255 @@
+package com.sample.ble.library;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+
+/**
+ * Runs many logical channels over one characteristic pair, e.g.
+ * {@link com.sample.ble.library.common.Constants#SBM_WRITE_CHARACTERISTIC_UUID} and
+ * {@link com.sample.ble.library.common.Constants#SBM_READ_CHARACTERISTIC_UUID}.
+ * <p>
+ * The channel id goes in the CHANNEL byte of the {@link CustomPacket} header. Messages are cut
+ * into frames no larger than one write, so the scheduler can interleave channels frame by frame:
+ * every fragment but the last is sent as {@link CustomPacket#HEAD_MSG_FRAGMENT}, the last one as
+ * a plain frame, and the receiving multiplexer glues them back together per channel.
+ * <p>
+ * Sending: {@link #offer} queues a message, {@link #poll()} returns the next frame to write.
+ * Priority classes are served strictly in order ({@link #PRIORITY_CONTROL} first), channels of
+ * the same class share the link by weight using deficit round robin over bytes. A bulk upload
+ * therefore never delays a control message by more than the frame being written.
+ * <p>
+ * Receiving: feed frames to {@link #onFrame}, typically from a {@link CustomPacketDecoder}.
+ */
+public class ChannelMultiplexer implements CustomPacketDecoder.Listener {
+    public static final int PRIORITY_CONTROL = 0;
+    public static final int PRIORITY_INTERACTIVE = 1;
+    public static final int PRIORITY_BULK = 2;
+    private static final int PRIORITY_CLASSES = 3;
+    private static final int QUANTUM_BYTES = 256;
+    private static final int DEFAULT_MAX_MESSAGE_LENGTH = 1024 * 1024;
+
+    public interface Listener {
+        /**
+         * A complete message arrived on {@code channel}. {@code buffer} is reused after the call.
+         */
+        void onMessage(int channel, byte[] buffer, int offset, int length);
+    }
+
+    private static class Channel {
+        final int id;
+        final int quantum;
+        final PriorityClass priorityClass;
+        final SequenceAllocator sequence = new SequenceAllocator();
+        final Queue<byte[]> frames = new ArrayDeque<>();
+        int deficit;
+        byte[] inbound = new byte[64];
+        int inboundLength;
+
+        Channel(int id, PriorityClass priorityClass, int weight) {
+            this.id = id;
+            this.priorityClass = priorityClass;
+            this.quantum = weight * QUANTUM_BYTES;
+        }
+    }
+
+    private static class PriorityClass {
+        final List<Channel> channels = new ArrayList<>();
+        int index;
+        boolean visited;
+        int pendingFrames;
+    }
+
+    private final Channel[] channels = new Channel[256];
+    private final PriorityClass[] classes = new PriorityClass[PRIORITY_CLASSES];
+    private final Listener listener;
+    private final int maxMessageLength;
+    private int maxFrameLength;
+
+    /**
+     * @param maxFrameLength largest frame sent, usually the ATT MTU minus 3.
+     * @param listener       receives inbound messages, may be null for a send only multiplexer.
+     */
+    public ChannelMultiplexer(int maxFrameLength, Listener listener) {
+        this(maxFrameLength, listener, DEFAULT_MAX_MESSAGE_LENGTH);
+    }
+
+    public ChannelMultiplexer(int maxFrameLength, Listener listener, int maxMessageLength) {
+        for (int i = 0; i < PRIORITY_CLASSES; i++) {
+            classes[i] = new PriorityClass();
+        }
+        this.listener = listener;
+        this.maxMessageLength = maxMessageLength;
+        setMaxFrameLength(maxFrameLength);
+    }
+
+    /**
+     * Declare a channel. Both ends must register the same ids.
+     *
+     * @param priorityClass one of {@link #PRIORITY_CONTROL}, {@link #PRIORITY_INTERACTIVE},
+     *                      {@link #PRIORITY_BULK}.
+     * @param weight        relative share of the link among channels of the same class.
+     */
+    public synchronized void registerChannel(int channel, int priorityClass, int weight) {
+        if (channel < 0 || channel > 0xFF || channels[channel] != null) {
+            throw new IllegalArgumentException("Bad or duplicate channel: " + channel);
+        }
+        if (priorityClass < 0 || priorityClass >= PRIORITY_CLASSES || weight < 1) {
+            throw new IllegalArgumentException("Bad priority " + priorityClass + " / weight " + weight);
+        }
+        Channel c = new Channel(channel, classes[priorityClass], weight);
+        channels[channel] = c;
+        c.priorityClass.channels.add(c);
+    }
+
+    /**
+     * The registered channel ids, in ascending order.
+     */
+    public synchronized int[] getChannels() {
+        int[] ids = new int[channels.length];
+        int n = 0;
+        for (Channel c : channels) {
+            if (c != null) {
+                ids[n++] = c.id;
+            }
+        }
+        return Arrays.copyOf(ids, n);
+    }
+
+    /**
+     * Applies to messages offered from now on, e.g. after an MTU update.
+     */
+    public synchronized void setMaxFrameLength(int maxFrameLength) {
+        if (maxFrameLength <= CustomPacketEncoder.HEAD_LENGTH) {
+            throw new IllegalArgumentException("Bad max frame length: " + maxFrameLength);
+        }
+        this.maxFrameLength = Math.min(maxFrameLength,
+                CustomPacketEncoder.encodedLength(CustomPacketEncoder.MAX_PAYLOAD_LENGTH));
+    }
+
+    /**
+     * Queue {@code message} on {@code channel}.
+     */
+    public synchronized void offer(int channel, byte[] message) {
+        Channel c = channel(channel);
+        int chunk = maxFrameLength - CustomPacketEncoder.HEAD_LENGTH;
+        int offset = 0;
+        do {
+            int n = Math.min(chunk, message.length - offset);
+            boolean last = offset + n == message.length;
+            byte[] frame = new byte[CustomPacketEncoder.encodedLength(n)];
+            CustomPacketEncoder.encode((byte) channel,
+                    (byte) (last ? CustomPacket.HEAD_MSG_NUMBER : CustomPacket.HEAD_MSG_FRAGMENT),
+                    c.sequence.next(), message, offset, n, frame, 0);
+            c.frames.add(frame);
+            c.priorityClass.pendingFrames++;
+            offset += n;
+        } while (offset < message.length);
+    }
+
+    /**
+     * Return the next frame to write, or null if every channel is idle.
+     */
+    public synchronized byte[] poll() {
+        for (PriorityClass pc : classes) {
+            if (pc.pendingFrames > 0) {
+                return poll(pc);
+            }
+        }
+        return null;
+    }
+
+    public synchronized boolean hasPending() {
+        for (PriorityClass pc : classes) {
+            if (pc.pendingFrames > 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Frames waiting on {@code channel}.
+     */
+    public synchronized int pending(int channel) {
+        return channel(channel).frames.size();
+    }
+
+    /**
+     * Drop every queued frame and partial inbound message, e.g. after a disconnect.
+     */
+    public synchronized void clear() {
+        for (PriorityClass pc : classes) {
+            for (Channel c : pc.channels) {
+                c.frames.clear();
+                c.deficit = 0;
+                c.inboundLength = 0;
+            }
+            pc.pendingFrames = 0;
+        }
+    }
+
+    @Override
+    public synchronized void onFrame(byte[] frame, int offset, int length) {
+        Channel c = channels[frame[offset] & 0xFF];
+        byte msgNumber = frame[offset + 1];
+        if (c == null || listener == null
+                || (msgNumber != (byte) CustomPacket.HEAD_MSG_NUMBER
+                && msgNumber != (byte) CustomPacket.HEAD_MSG_FRAGMENT)) {
+            return;
+        }
+        int n = length - CustomPacketEncoder.HEAD_LENGTH;
+        if (c.inboundLength + n > maxMessageLength) {
+            // Oversized or lost its last fragment, drop it and start over.
+            c.inboundLength = 0;
+            return;
+        }
+        if (c.inboundLength + n > c.inbound.length) {
+            c.inbound = Arrays.copyOf(c.inbound, Math.max(c.inbound.length * 2, c.inboundLength + n));
+        }
+        System.arraycopy(frame, offset + CustomPacketEncoder.HEAD_LENGTH, c.inbound, c.inboundLength, n);
+        c.inboundLength += n;
+        if (msgNumber == (byte) CustomPacket.HEAD_MSG_NUMBER) {
+            int messageLength = c.inboundLength;
+            c.inboundLength = 0;
+            listener.onMessage(c.id, c.inbound, 0, messageLength);
+        }
+    }
+
+    private byte[] poll(PriorityClass pc) {
+        while (true) {
+            Channel c = pc.channels.get(pc.index);
+            if (c.frames.isEmpty()) {
+                c.deficit = 0;
+                next(pc);
+                continue;
+            }
+            if (!pc.visited) {
+                c.deficit += c.quantum;
+                pc.visited = true;
+            }
+            int length = c.frames.peek().length;
+            if (c.deficit >= length) {
+                c.deficit -= length;
+                pc.pendingFrames--;
+                return c.frames.poll();
+            }
+            next(pc);
+        }
+    }
+
+    private static void next(PriorityClass pc) {
+        pc.index = (pc.index + 1) % pc.channels.size();
+        pc.visited = false;
+    }
+
+    private Channel channel(int channel) {
+        Channel c = channel >= 0 && channel <= 0xFF ? channels[channel] : null;
+        if (c == null) {
+            throw new IllegalArgumentException("Unknown channel: " + channel);
+        }
+        return c;
+    }
+}
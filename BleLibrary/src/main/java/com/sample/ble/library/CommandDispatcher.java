@@ -0,0 +1,154 @@
+package com.sample.ble.library;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Routes raw command notifications, {@code | COMMAND (uint8) | ARGUMENTS ... |}, to the
+ * {@link CommandHandler} registered for their first byte.
+ * <p>
+ * Handlers live in a 256 entry array indexed by the command, so a lookup is one array load and
+ * new commands are added with {@link #register} without touching the dispatch path. The array is
+ * copied on registration, dispatching never locks.
+ * <p>
+ * {@link #dispatch} copies the value into a pooled buffer, the caller's array, usually the shared
+ * BluetoothGattCharacteristic value, may change right after it returns, and hands it to the
+ * executor. With a single thread executor the handlers run in arrival order off the GATT
+ * callback thread; a direct executor runs them on the caller's thread.
+ */
+public class CommandDispatcher {
+    public static final int MAX_COMMAND = 0xFF;
+    /**
+     * Pooled buffers are this large, longer values get a buffer of their own.
+     */
+    public static final int DEFAULT_BUFFER_LENGTH = 20;
+    private static final int MAX_POOLED_TASKS = 16;
+
+    public interface CommandHandler {
+        /**
+         * {@code value[0]} is the command and {@code length} is at least 1. {@code value} is only
+         * valid during the call.
+         */
+        void onCommand(int command, byte[] value, int length);
+    }
+
+    private final int bufferLength;
+    private volatile Executor executor;
+    private volatile CommandHandler[] handlers = new CommandHandler[MAX_COMMAND + 1];
+    private final Queue<Task> pool = new ArrayDeque<>(MAX_POOLED_TASKS);
+
+    public CommandDispatcher(Executor executor) {
+        this(executor, DEFAULT_BUFFER_LENGTH);
+    }
+
+    /**
+     * @param bufferLength pooled buffer size, usually the largest command, up to the ATT MTU minus 3.
+     */
+    public CommandDispatcher(Executor executor, int bufferLength) {
+        if (bufferLength <= 0) {
+            throw new IllegalArgumentException("Bad buffer length: " + bufferLength);
+        }
+        this.executor = executor;
+        this.bufferLength = bufferLength;
+    }
+
+    /**
+     * Where the handlers run from now on, commands already dispatched stay on the old one.
+     */
+    public void setExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Handle {@code command} with {@code handler}, replacing the previous one. null unregisters.
+     */
+    public synchronized void register(int command, CommandHandler handler) {
+        if (command < 0 || command > MAX_COMMAND) {
+            throw new IllegalArgumentException("Bad command: " + command);
+        }
+        CommandHandler[] copy = handlers.clone();
+        copy[command] = handler;
+        handlers = copy;
+    }
+
+    public CommandHandler getHandler(int command) {
+        if (command < 0 || command > MAX_COMMAND) {
+            return null;
+        }
+        return handlers[command];
+    }
+
+    /**
+     * Dispatch one value.
+     *
+     * @return false if it is empty, has no handler or the executor rejected it.
+     */
+    public boolean dispatch(byte[] value) {
+        if (value == null || value.length == 0) {
+            return false;
+        }
+        int command = value[0] & 0xFF;
+        CommandHandler handler = handlers[command];
+        if (handler == null) {
+            return false;
+        }
+        Task task = obtain(value.length);
+        System.arraycopy(value, 0, task.buffer, 0, value.length);
+        task.handler = handler;
+        task.command = command;
+        task.length = value.length;
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            recycle(task);
+            return false;
+        }
+        return true;
+    }
+
+    private Task obtain(int length) {
+        if (length <= bufferLength) {
+            synchronized (pool) {
+                Task task = pool.poll();
+                if (task != null) {
+                    return task;
+                }
+            }
+        }
+        return new Task(new byte[Math.max(length, bufferLength)]);
+    }
+
+    private void recycle(Task task) {
+        task.handler = null;
+        if (task.buffer.length != bufferLength) {
+            return;
+        }
+        synchronized (pool) {
+            if (pool.size() < MAX_POOLED_TASKS) {
+                pool.add(task);
+            }
+        }
+    }
+
+    private final class Task implements Runnable {
+        final byte[] buffer;
+        CommandHandler handler;
+        int command;
+        int length;
+
+        Task(byte[] buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public void run() {
+            try {
+                handler.onCommand(command, buffer, length);
+            } finally {
+                recycle(this);
+            }
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package com.sample.ble.library;
+
+import java.util.zip.DataFormatException;
+
+/**
+ * Optional compression between the application payload and {@link CustomPacket} framing, one
+ * instance per connection.
+ * <p>
+ * Each end lists the codecs it supports by preference; after both exchanged
+ * {@link #supportedIds()} the sender calls {@link #negotiate(byte[])} to pick the first codec the
+ * peer knows too. Compressed frames use {@link CustomPacket#HEAD_MSG_COMPRESSED} as message number
+ * and carry {@code | CODEC_ID (1) | COMPRESSED ... |} as payload. A payload that would not shrink
+ * is sent as a plain frame, so the receiver always checks the message number.
+ */
+public class CompressionStage {
+    private final PayloadCompressor[] compressors;
+    private PayloadCompressor active;
+
+    /**
+     * @param compressors supported codecs, most preferred first.
+     */
+    public CompressionStage(PayloadCompressor... compressors) {
+        this.compressors = compressors;
+    }
+
+    public byte[] supportedIds() {
+        byte[] ids = new byte[compressors.length];
+        for (int i = 0; i < compressors.length; i++) {
+            ids[i] = (byte) compressors[i].id();
+        }
+        return ids;
+    }
+
+    /**
+     * Select the first local codec also found in {@code peerIds}.
+     *
+     * @return false if there is none, payloads are then sent uncompressed.
+     */
+    public synchronized boolean negotiate(byte[] peerIds) {
+        active = null;
+        for (PayloadCompressor compressor : compressors) {
+            for (byte peerId : peerIds) {
+                if ((peerId & 0xFF) == compressor.id()) {
+                    active = compressor;
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Id of the negotiated codec, or -1.
+     */
+    public synchronized int activeId() {
+        return active != null ? active.id() : -1;
+    }
+
+    /**
+     * Write {@code | CODEC_ID | COMPRESSED |} into {@code dst} if that is shorter than
+     * {@code length}.
+     *
+     * @return the number of bytes written, or -1 if nothing was negotiated or the payload does
+     * not shrink; {@code dst} needs {@code length} bytes of room.
+     */
+    public synchronized int compress(byte[] src, int offset, int length, byte[] dst, int dstOffset) {
+        if (active == null || length < 2) {
+            return -1;
+        }
+        int n = active.compress(src, offset, length, dst, dstOffset + 1, length - 2);
+        if (n < 0) {
+            return -1;
+        }
+        dst[dstOffset] = (byte) active.id();
+        return n + 1;
+    }
+
+    /**
+     * Restore the payload of {@code frame} into {@code dst}: inflated for a compressed frame,
+     * copied as is otherwise.
+     *
+     * @return the payload length.
+     * @throws DataFormatException if the codec is unknown or the data is corrupt.
+     */
+    public synchronized int decode(CustomPacketView frame, byte[] dst, int dstOffset)
+            throws DataFormatException {
+        if (frame.msgNumber() != CustomPacket.HEAD_MSG_COMPRESSED) {
+            return frame.copyPayload(dst, dstOffset);
+        }
+        if (!frame.hasArray() || frame.payloadLength() < 1) {
+            throw new DataFormatException("Bad compressed frame");
+        }
+        int codecId = frame.payloadByte(0) & 0xFF;
+        for (PayloadCompressor compressor : compressors) {
+            if (compressor.id() == codecId) {
+                return compressor.decompress(frame.array(), frame.payloadOffset() + 1,
+                        frame.payloadLength() - 1, dst, dstOffset, dst.length - dstOffset);
+            }
+        }
+        throw new DataFormatException("Unknown codec " + codecId);
+    }
+}
@@ -6,14 +6,29 @@ import com.sample.ble.library.utils.DigestEncodingUtils;
 
 import java.awt.font.TextAttribute;
 import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
 
 public class CustomPacket {
-    private static int HEAD_MSG_NUMBER = 0xA1;
-    private static int HEAD_CHANNEL_WATCH_TO_SBM = 0x30;
-    private static int HEAD_CHANNEL_SBM_TO_WATCH = 0x31;
-    private static int MAX_SEQ_NUMBER = 65535;
-    private static int seqNumber = 0;
+    static final int HEAD_MSG_NUMBER = 0xA1;
+    /**
+     * Acknowledgement of {@link ReliableSender} data frames.
+     */
+    static final int HEAD_MSG_ACK = 0xA2;
+    /**
+     * Container of several small messages, see {@link FrameBatcher}.
+     */
+    static final int HEAD_MSG_BATCH = 0xA3;
+    /**
+     * Payload compressed by the {@link CompressionStage}.
+     */
+    static final int HEAD_MSG_COMPRESSED = 0xA4;
+    /**
+     * Non final piece of a message split by the {@link ChannelMultiplexer}.
+     */
+    static final int HEAD_MSG_FRAGMENT = 0xA5;
+    public static final int HEAD_CHANNEL_WATCH_TO_SBM = 0x30;
+    public static final int HEAD_CHANNEL_SBM_TO_WATCH = 0x31;
+    public static final int MAX_SEQ_NUMBER = 65535;
+    private static final SequenceAllocator sDefaultSequence = new SequenceAllocator();
 
     private byte[] packet;
 
@@ -28,16 +43,43 @@ public class CustomPacket {
     public static Builder newPacket(byte[] data) {
         Builder builder = new Builder();
         builder.data = data;
+        builder.sequence = sDefaultSequence;
         return builder;
     }
 
+    /**
+     * Encode {@code length} bytes of {@code data} as a watch to SBM frame into {@code dst} at
+     * {@code dstOffset}. Nothing is allocated, see {@link CustomPacketEncoder}.
+     *
+     * @return the number of bytes written.
+     */
+    public static int encode(byte[] data, int offset, int length, byte[] dst, int dstOffset) {
+        return CustomPacketEncoder.encode((byte) HEAD_CHANNEL_WATCH_TO_SBM, (byte) HEAD_MSG_NUMBER,
+                nextSeqNumber(), data, offset, length, dst, dstOffset);
+    }
+
+    /**
+     * Encode {@code length} bytes of {@code data} as a watch to SBM frame at the current position
+     * of {@code dst}.
+     *
+     * @return the number of bytes written.
+     */
+    public static int encode(byte[] data, int offset, int length, ByteBuffer dst) {
+        return CustomPacketEncoder.encode((byte) HEAD_CHANNEL_WATCH_TO_SBM, (byte) HEAD_MSG_NUMBER,
+                nextSeqNumber(), data, offset, length, dst);
+    }
+
+    static boolean isKnownMsgNumber(byte msgNumber) {
+        return msgNumber == (byte) HEAD_MSG_NUMBER || msgNumber == (byte) HEAD_MSG_ACK
+                || msgNumber == (byte) HEAD_MSG_BATCH || msgNumber == (byte) HEAD_MSG_COMPRESSED
+                || msgNumber == (byte) HEAD_MSG_FRAGMENT;
+    }
+
     public static byte[] parseData(byte[] packet) {
         if (packet[0] == (byte) HEAD_CHANNEL_SBM_TO_WATCH) {
-            //TODO Length is uint16 type,which means it use packet[2] and packet[3], currently we only
-            // read packet[3] for Convenient
-            int dataLen = packet[3];
+            int dataLen = ((packet[2] & 0xFF) << 8) | (packet[3] & 0xFF);
             byte[] data = new byte[dataLen];
-            System.arraycopy(packet, 6, data, 0, dataLen);
+            System.arraycopy(packet, CustomPacketEncoder.HEAD_LENGTH, data, 0, dataLen);
             //System.out.println(DigestEncodingUtils.encodeWithHex(data));
             return data;
         } else {
@@ -47,41 +89,53 @@ public class CustomPacket {
     }
 
     public static class Builder {
-        byte[] head; // ID, SEQ_NUM(0xA1), MSG_LENGTH, MSG_ORDER
         byte[] data;
+        SequenceAllocator sequence;
+
+        /**
+         * Take the sequence number from {@code sequence} instead of the process wide counter,
+         * e.g. one allocator per connection.
+         */
+        public Builder sequence(SequenceAllocator sequence) {
+            this.sequence = sequence;
+            return this;
+        }
 
         public CustomPacket build() {
-            head = calculateHead();
-            StringBuilder stringBuilder = new StringBuilder();
-            stringBuilder.append(DigestEncodingUtils.encodeWithHex(head));
-            stringBuilder.append(DigestEncodingUtils.encodeWithHex(data));
-            return new CustomPacket(DigestEncodingUtils.fromHexString(stringBuilder.toString()));
+            byte[] packet = new byte[CustomPacketEncoder.encodedLength(data.length)];
+            writeTo(packet, 0);
+            return new CustomPacket(packet);
+        }
+
+        /**
+         * Write the header and payload of this packet into {@code dst} starting at {@code offset},
+         * without any intermediate copy.
+         *
+         * @return the number of bytes written.
+         */
+        public int writeTo(byte[] dst, int offset) {
+            return CustomPacketEncoder.encode((byte) HEAD_CHANNEL_WATCH_TO_SBM, (byte) HEAD_MSG_NUMBER,
+                    sequence.next(), data, 0, data.length, dst, offset);
         }
 
-        private byte[] calculateHead() {
-            ByteBuffer packet = ByteBuffer.allocate(6).order(ByteOrder.LITTLE_ENDIAN);
-            packet.put((byte) HEAD_CHANNEL_WATCH_TO_SBM);
-            packet.put((byte) HEAD_MSG_NUMBER);
-            int len = computeLength(data);
-            packet.put((byte) (len >> 8));
-            packet.put((byte) len);
-            packet.put((byte) (seqNumber >> 8));
-            packet.put((byte) seqNumber);
-            if (++seqNumber > MAX_SEQ_NUMBER) {
-                seqNumber = 0;
-            }
-            return packet.array();
+        /**
+         * Write the header and payload of this packet at the current position of {@code dst}.
+         *
+         * @return the number of bytes written.
+         */
+        public int writeTo(ByteBuffer dst) {
+            return CustomPacketEncoder.encode((byte) HEAD_CHANNEL_WATCH_TO_SBM, (byte) HEAD_MSG_NUMBER,
+                    sequence.next(), data, 0, data.length, dst);
         }
 
         private byte[] intToBytes(int intValue) {
             return new byte[]{(byte) (intValue >> 24), (byte) (intValue >> 16),
                     (byte) (intValue >> 8), (byte) (intValue & 0xff)};
         }
+    }
 
-        private int computeLength(byte[] data) {
-            String s = DigestEncodingUtils.encodeWithHex(data);
-            return s.length() / 2;
-        }
+    static int nextSeqNumber() {
+        return sDefaultSequence.next();
     }
 
     @Override
@@ -0,0 +1,235 @@
+package com.sample.ble.library;
+
+import com.sample.ble.library.utils.Crc32c;
+
+import java.util.Arrays;
+import java.util.zip.Checksum;
+
+/**
+ * Reassembles {@link CustomPacket} frames from a stream of notification chunks.
+ * <p>
+ * Chunks may split a frame anywhere, including in the middle of the header, and one chunk may
+ * carry several frames. Received bytes are kept in a fixed ring buffer and every complete frame
+ * is handed to the {@link Listener} from a reusable linear buffer, so steady-state decoding does
+ * not allocate.
+ * <p>
+ * When CRC trailers are enabled every frame must be followed by the CRC-32C written by
+ * {@link CustomPacketEncoder#appendTrailer}; frames that fail the check are dropped before they
+ * reach the listener and decoding resyncs on the next byte.
+ * <p>
+ * A header is only accepted with a known MSG_NUMBER on one of the decoder's channels, the two
+ * {@link CustomPacket} directions by default, see {@link #addChannel}. Resync thus does not lock
+ * onto payload bytes that merely look like a message number.
+ * <p>
+ * Not thread safe, feed it from a single callback thread.
+ */
+public class CustomPacketDecoder {
+    public static final int DEFAULT_MAX_FRAME_LENGTH = 512;
+    /**
+     * The largest frame {@link PacketSegmenter} produces, a {@link CustomPacketEncoder#MAX_PAYLOAD_LENGTH}
+     * payload and its header.
+     */
+    public static final int MAX_FRAME_LENGTH = CustomPacketEncoder.HEAD_LENGTH + CustomPacketEncoder.MAX_PAYLOAD_LENGTH;
+
+    public interface Listener {
+        /**
+         * Called for every complete frame. {@code frame} is only valid during the call and must be
+         * copied if it is kept.
+         */
+        void onFrame(byte[] frame, int offset, int length);
+    }
+
+    private final Listener listener;
+    private final int maxFrameLength;
+    private final boolean crcTrailer;
+    private final Checksum crc;
+    private final byte[] ring;
+    private final int mask;
+    private final byte[] frame;
+    // Copied on write, indexed by the CHANNEL byte.
+    private volatile boolean[] channels = new boolean[256];
+    private int readIndex;
+    private int size;
+    private int droppedBytes;
+    private int corruptFrames;
+
+    public CustomPacketDecoder(Listener listener) {
+        this(listener, DEFAULT_MAX_FRAME_LENGTH);
+    }
+
+    /**
+     * @param maxFrameLength largest frame (header included) that will be accepted. Headers that
+     *                       announce a longer frame are treated as garbage and skipped.
+     */
+    public CustomPacketDecoder(Listener listener, int maxFrameLength) {
+        this(listener, maxFrameLength, false);
+    }
+
+    /**
+     * @param crcTrailer expect and verify a CRC-32C trailer after every frame.
+     */
+    public CustomPacketDecoder(Listener listener, int maxFrameLength, boolean crcTrailer) {
+        if (maxFrameLength < CustomPacketEncoder.HEAD_LENGTH
+                || maxFrameLength > CustomPacketEncoder.encodedLength(CustomPacketEncoder.MAX_PAYLOAD_LENGTH)) {
+            throw new IllegalArgumentException("Bad max frame length: " + maxFrameLength);
+        }
+        this.listener = listener;
+        this.maxFrameLength = maxFrameLength;
+        this.crcTrailer = crcTrailer;
+        this.crc = crcTrailer ? Crc32c.create() : null;
+        int bufferLength = maxFrameLength + (crcTrailer ? CustomPacketEncoder.TRAILER_LENGTH : 0);
+        int capacity = Integer.highestOneBit(bufferLength - 1) << 1;
+        this.ring = new byte[capacity];
+        this.mask = capacity - 1;
+        this.frame = new byte[bufferLength];
+        channels[CustomPacket.HEAD_CHANNEL_WATCH_TO_SBM] = true;
+        channels[CustomPacket.HEAD_CHANNEL_SBM_TO_WATCH] = true;
+    }
+
+    /**
+     * Also accept frames on {@code channel}, e.g. the channels of a {@link ChannelMultiplexer}.
+     * May be called from any thread.
+     */
+    public synchronized void addChannel(int channel) {
+        if (channel < 0 || channel > 0xFF) {
+            throw new IllegalArgumentException("Bad channel: " + channel);
+        }
+        boolean[] copy = Arrays.copyOf(channels, channels.length);
+        copy[channel] = true;
+        channels = copy;
+    }
+
+    public boolean isChannel(int channel) {
+        return channels[channel & 0xFF];
+    }
+
+    /**
+     * Whether a notification belongs to the frame stream rather than to some other protocol on
+     * the same characteristic: it starts with a valid header, or it continues the buffered frame.
+     * A continuation fills a whole segment unless it ends the frame, so a shorter notification
+     * arriving mid-frame is not part of it.
+     *
+     * @param maxSegmentLength the sender's segment size, see {@link PacketSegmenter#getMaxSegmentLength}.
+     */
+    public boolean accepts(byte[] value, int offset, int length, int maxSegmentLength) {
+        int remaining = remaining();
+        if (remaining > 0 && length >= Math.min(remaining, maxSegmentLength)) {
+            return true;
+        }
+        return length >= 2 && isHeader(value[offset], value[offset + 1]);
+    }
+
+    public void feed(byte[] chunk) {
+        feed(chunk, 0, chunk.length);
+    }
+
+    /**
+     * Append a chunk of received bytes and emit every frame it completes.
+     */
+    public void feed(byte[] chunk, int offset, int length) {
+        while (length > 0) {
+            int n = Math.min(length, ring.length - size);
+            int writeIndex = (readIndex + size) & mask;
+            int first = Math.min(n, ring.length - writeIndex);
+            System.arraycopy(chunk, offset, ring, writeIndex, first);
+            System.arraycopy(chunk, offset + first, ring, 0, n - first);
+            size += n;
+            offset += n;
+            length -= n;
+            drain();
+        }
+    }
+
+    /**
+     * Number of bytes waiting for the rest of their frame.
+     */
+    public int pending() {
+        return size;
+    }
+
+    /**
+     * Number of bytes still missing from the buffered frame, at least the rest of the header
+     * while that is incomplete, 0 if nothing is buffered.
+     */
+    public int remaining() {
+        if (size == 0) {
+            return 0;
+        }
+        if (size < CustomPacketEncoder.HEAD_LENGTH) {
+            return CustomPacketEncoder.HEAD_LENGTH - size;
+        }
+        int totalLength = CustomPacketEncoder.HEAD_LENGTH + (((peek(2) & 0xFF) << 8) | (peek(3) & 0xFF))
+                + (crcTrailer ? CustomPacketEncoder.TRAILER_LENGTH : 0);
+        return Math.max(0, totalLength - size);
+    }
+
+    /**
+     * Number of bytes skipped while looking for a valid header.
+     */
+    public int droppedBytes() {
+        return droppedBytes;
+    }
+
+    /**
+     * Number of frames rejected by the CRC check.
+     */
+    public int corruptFrames() {
+        return corruptFrames;
+    }
+
+    /**
+     * Drop any partial frame, e.g. after a disconnect.
+     */
+    public void reset() {
+        readIndex = 0;
+        size = 0;
+    }
+
+    private void drain() {
+        while (size >= CustomPacketEncoder.HEAD_LENGTH) {
+            if (!isHeader(peek(0), peek(1))) {
+                skip(1);
+                continue;
+            }
+            int frameLength = CustomPacketEncoder.HEAD_LENGTH
+                    + (((peek(2) & 0xFF) << 8) | (peek(3) & 0xFF));
+            if (frameLength > maxFrameLength) {
+                skip(1);
+                continue;
+            }
+            int totalLength = frameLength + (crcTrailer ? CustomPacketEncoder.TRAILER_LENGTH : 0);
+            if (size < totalLength) {
+                return;
+            }
+            int first = Math.min(totalLength, ring.length - readIndex);
+            System.arraycopy(ring, readIndex, frame, 0, first);
+            System.arraycopy(ring, 0, frame, first, totalLength - first);
+            if (crcTrailer) {
+                crc.reset();
+                crc.update(frame, 0, frameLength);
+                if (crc.getValue() != CustomPacketEncoder.readTrailer(frame, frameLength)) {
+                    corruptFrames++;
+                    skip(1);
+                    continue;
+                }
+            }
+            readIndex = (readIndex + totalLength) & mask;
+            size -= totalLength;
+            listener.onFrame(frame, 0, frameLength);
+        }
+    }
+
+    private boolean isHeader(byte channel, byte msgNumber) {
+        return channels[channel & 0xFF] && CustomPacket.isKnownMsgNumber(msgNumber);
+    }
+
+    private byte peek(int index) {
+        return ring[(readIndex + index) & mask];
+    }
+
+    private void skip(int n) {
+        readIndex = (readIndex + n) & mask;
+        size -= n;
+        droppedBytes += n;
+    }
+}
@@ -0,0 +1,126 @@
+package com.sample.ble.library;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.zip.Checksum;
+
+/**
+ * Writes {@link CustomPacket} frames straight into a caller supplied buffer.
+ * <p>
+ * A frame is a 6 bytes header followed by the payload:
+ * <pre>
+ * | CHANNEL (1) | MSG_NUMBER (1) | LENGTH (uint16, BE) | SEQ_NUM (uint16, BE) | PAYLOAD ... |
+ * </pre>
+ * Optionally a frame is followed by a {@link #TRAILER_LENGTH} bytes CRC-32C of header and payload
+ * (big endian), not counted in LENGTH. Whether trailers are used is agreed on by both ends.
+ * <p>
+ * None of the methods allocate, so a sender can keep one buffer per connection and encode every
+ * outbound frame into it.
+ */
+public final class CustomPacketEncoder {
+    public static final int HEAD_LENGTH = 6;
+    public static final int MAX_PAYLOAD_LENGTH = 0xFFFF;
+    public static final int TRAILER_LENGTH = 4;
+
+    private CustomPacketEncoder() {
+    }
+
+    /**
+     * Return the size of the frame carrying {@code payloadLength} bytes of payload.
+     */
+    public static int encodedLength(int payloadLength) {
+        checkPayloadLength(payloadLength);
+        return HEAD_LENGTH + payloadLength;
+    }
+
+    /**
+     * Encode one frame into {@code dst} starting at {@code dstOffset}.
+     *
+     * @return the number of bytes written.
+     */
+    public static int encode(byte channel, byte msgNumber, int seq,
+                             byte[] payload, int payloadOffset, int payloadLength,
+                             byte[] dst, int dstOffset) {
+        int frameLength = encodedLength(payloadLength);
+        if (dstOffset < 0 || dst.length - dstOffset < frameLength) {
+            throw new IllegalArgumentException("Buffer too small: need " + frameLength
+                    + " bytes at offset " + dstOffset + ", capacity " + dst.length);
+        }
+        writeHead(channel, msgNumber, payloadLength, seq, dst, dstOffset);
+        System.arraycopy(payload, payloadOffset, dst, dstOffset + HEAD_LENGTH, payloadLength);
+        return frameLength;
+    }
+
+    /**
+     * Encode one frame at the current position of {@code dst} and advance the position past it.
+     *
+     * @return the number of bytes written.
+     */
+    public static int encode(byte channel, byte msgNumber, int seq,
+                             byte[] payload, int payloadOffset, int payloadLength,
+                             ByteBuffer dst) {
+        int frameLength = encodedLength(payloadLength);
+        if (dst.remaining() < frameLength) {
+            throw new BufferOverflowException();
+        }
+        if (dst.hasArray()) {
+            int start = dst.arrayOffset() + dst.position();
+            encode(channel, msgNumber, seq, payload, payloadOffset, payloadLength, dst.array(), start);
+            dst.position(dst.position() + frameLength);
+        } else {
+            // Direct buffer: the header as one short and one int, the payload in one bulk copy.
+            ByteOrder order = dst.order();
+            dst.order(ByteOrder.BIG_ENDIAN);
+            dst.putShort((short) ((channel & 0xFF) << 8 | (msgNumber & 0xFF)));
+            dst.putInt(payloadLength << 16 | (seq & 0xFFFF));
+            dst.order(order);
+            dst.put(payload, payloadOffset, payloadLength);
+        }
+        return frameLength;
+    }
+
+    static void writeHead(byte channel, byte msgNumber, int payloadLength, int seq,
+                          byte[] dst, int offset) {
+        dst[offset] = channel;
+        dst[offset + 1] = msgNumber;
+        dst[offset + 2] = (byte) (payloadLength >> 8);
+        dst[offset + 3] = (byte) payloadLength;
+        dst[offset + 4] = (byte) (seq >> 8);
+        dst[offset + 5] = (byte) seq;
+    }
+
+    /**
+     * Append the CRC-32C trailer to the {@code frameLength} bytes frame at {@code offset}, using
+     * {@code crc} (see {@link com.sample.ble.library.utils.Crc32c#create()}) as scratch state.
+     *
+     * @return {@link #TRAILER_LENGTH}.
+     */
+    public static int appendTrailer(byte[] frame, int offset, int frameLength, Checksum crc) {
+        if (frame.length - offset - frameLength < TRAILER_LENGTH) {
+            throw new IllegalArgumentException("No room for trailer at " + (offset + frameLength));
+        }
+        crc.reset();
+        crc.update(frame, offset, frameLength);
+        writeTrailer(crc.getValue(), frame, offset + frameLength);
+        return TRAILER_LENGTH;
+    }
+
+    static void writeTrailer(long crc, byte[] dst, int offset) {
+        dst[offset] = (byte) (crc >> 24);
+        dst[offset + 1] = (byte) (crc >> 16);
+        dst[offset + 2] = (byte) (crc >> 8);
+        dst[offset + 3] = (byte) crc;
+    }
+
+    static long readTrailer(byte[] src, int offset) {
+        return ((src[offset] & 0xFFL) << 24) | ((src[offset + 1] & 0xFF) << 16)
+                | ((src[offset + 2] & 0xFF) << 8) | (src[offset + 3] & 0xFF);
+    }
+
+    private static void checkPayloadLength(int payloadLength) {
+        if (payloadLength < 0 || payloadLength > MAX_PAYLOAD_LENGTH) {
+            throw new IllegalArgumentException("Bad payload length: " + payloadLength);
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package com.sample.ble.library;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Reusable, read-only view of one {@link CustomPacket} frame living in a {@code byte[]} or a
+ * {@link ByteBuffer}.
+ * <p>
+ * Wrapping a frame copies nothing, the header fields are read on demand and the payload is
+ * exposed in place. Keep one instance per receive path and re-wrap it for every frame; the view
+ * is only valid as long as the underlying bytes are.
+ */
+public final class CustomPacketView {
+    private byte[] array;
+    private ByteBuffer buffer;
+    private int offset;
+    private int length;
+
+    /**
+     * Point the view at the frame stored in {@code array[offset, offset + length)}.
+     *
+     * @throws IllegalArgumentException if the range is shorter than the header or than the
+     *                                  payload length the header declares.
+     */
+    public CustomPacketView wrap(byte[] array, int offset, int length) {
+        this.array = array;
+        this.buffer = null;
+        this.offset = offset;
+        this.length = length;
+        checkLength();
+        return this;
+    }
+
+    /**
+     * Point the view at the frame between the position and the limit of {@code buffer}. The
+     * buffer position is left untouched.
+     */
+    public CustomPacketView wrap(ByteBuffer buffer) {
+        if (buffer.hasArray()) {
+            return wrap(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+        }
+        this.array = null;
+        this.buffer = buffer;
+        this.offset = buffer.position();
+        this.length = buffer.remaining();
+        checkLength();
+        return this;
+    }
+
+    public int channel() {
+        return get(0) & 0xFF;
+    }
+
+    public int msgNumber() {
+        return get(1) & 0xFF;
+    }
+
+    /**
+     * Payload length as declared by the header.
+     */
+    public int payloadLength() {
+        return ((get(2) & 0xFF) << 8) | (get(3) & 0xFF);
+    }
+
+    public int sequence() {
+        return ((get(4) & 0xFF) << 8) | (get(5) & 0xFF);
+    }
+
+    /**
+     * Length of the whole frame, header included.
+     */
+    public int frameLength() {
+        return CustomPacketEncoder.HEAD_LENGTH + payloadLength();
+    }
+
+    public byte payloadByte(int index) {
+        if (index < 0 || index >= payloadLength()) {
+            throw new IndexOutOfBoundsException("Bad payload index: " + index);
+        }
+        return get(CustomPacketEncoder.HEAD_LENGTH + index);
+    }
+
+    /**
+     * Whether the frame lives in a byte[], so that {@link #array()} and {@link #payloadOffset()}
+     * can be used to read the payload in place.
+     */
+    public boolean hasArray() {
+        return array != null;
+    }
+
+    public byte[] array() {
+        return array;
+    }
+
+    /**
+     * Index of the first payload byte in {@link #array()}.
+     */
+    public int payloadOffset() {
+        return offset + CustomPacketEncoder.HEAD_LENGTH;
+    }
+
+    /**
+     * Copy the payload into {@code dst} at {@code dstOffset}.
+     *
+     * @return the number of bytes copied.
+     */
+    public int copyPayload(byte[] dst, int dstOffset) {
+        int n = payloadLength();
+        if (array != null) {
+            System.arraycopy(array, payloadOffset(), dst, dstOffset, n);
+        } else {
+            payloadSlice().get(dst, dstOffset, n);
+        }
+        return n;
+    }
+
+    /**
+     * Put the payload at the current position of {@code dst}.
+     */
+    public void copyPayload(ByteBuffer dst) {
+        int n = payloadLength();
+        if (array != null) {
+            dst.put(array, payloadOffset(), n);
+        } else {
+            dst.put(payloadSlice());
+        }
+    }
+
+    // The payload of a ByteBuffer backed view, for bulk copies.
+    private ByteBuffer payloadSlice() {
+        ByteBuffer src = buffer.duplicate();
+        src.limit(payloadOffset() + payloadLength()).position(payloadOffset());
+        return src;
+    }
+
+    private byte get(int index) {
+        return array != null ? array[offset + index] : buffer.get(offset + index);
+    }
+
+    private void checkLength() {
+        if (length < CustomPacketEncoder.HEAD_LENGTH || length < frameLength()) {
+            int bad = length;
+            array = null;
+            buffer = null;
+            this.length = 0;
+            throw new IllegalArgumentException("Truncated frame: " + bad + " bytes");
+        }
+    }
+
+    @Override
+    public String toString() {
+        if (array == null && buffer == null) {
+            return "CustomPacketView{}";
+        }
+        return "CustomPacketView{channel=" + channel() + ", msgNumber=" + msgNumber()
+                + ", seq=" + sequence() + ", length=" + payloadLength() + '}';
+    }
+}
@@ -0,0 +1,77 @@
+package com.sample.ble.library;
+
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * LZ77 based {@link PayloadCompressor} on top of raw deflate, optionally primed with a preset
+ * dictionary.
+ * <p>
+ * A dictionary made of typical telemetry frames lets even short, repetitive payloads shrink,
+ * since back references can point into it from the first byte on. Both ends must use the same
+ * dictionary under the same {@link #id()}.
+ * <p>
+ * Deflater and Inflater are kept and reset between calls; instances are not thread safe.
+ */
+public class DeflateCompressor implements PayloadCompressor {
+    public static final int ID_DEFLATE = 1;
+
+    private final int id;
+    private final byte[] dictionary;
+    private final Deflater deflater;
+    private final Inflater inflater = new Inflater(true);
+
+    public DeflateCompressor() {
+        this(ID_DEFLATE, null);
+    }
+
+    /**
+     * @param id         identifier of this codec and dictionary pair.
+     * @param dictionary preset dictionary, or null.
+     */
+    public DeflateCompressor(int id, byte[] dictionary) {
+        this(id, dictionary, Deflater.BEST_SPEED);
+    }
+
+    public DeflateCompressor(int id, byte[] dictionary, int level) {
+        if (id < 0 || id > 0xFF) {
+            throw new IllegalArgumentException("Bad codec id: " + id);
+        }
+        this.id = id;
+        this.dictionary = dictionary;
+        this.deflater = new Deflater(level, true);
+    }
+
+    @Override
+    public int id() {
+        return id;
+    }
+
+    @Override
+    public int compress(byte[] src, int srcOffset, int srcLength, byte[] dst, int dstOffset, int dstCapacity) {
+        deflater.reset();
+        if (dictionary != null) {
+            deflater.setDictionary(dictionary);
+        }
+        deflater.setInput(src, srcOffset, srcLength);
+        deflater.finish();
+        int n = deflater.deflate(dst, dstOffset, dstCapacity);
+        return deflater.finished() ? n : -1;
+    }
+
+    @Override
+    public int decompress(byte[] src, int srcOffset, int srcLength, byte[] dst, int dstOffset, int dstCapacity)
+            throws DataFormatException {
+        inflater.reset();
+        if (dictionary != null) {
+            inflater.setDictionary(dictionary);
+        }
+        inflater.setInput(src, srcOffset, srcLength);
+        int n = inflater.inflate(dst, dstOffset, dstCapacity);
+        if (!inflater.finished()) {
+            throw new DataFormatException("Truncated or oversized payload");
+        }
+        return n;
+    }
+}
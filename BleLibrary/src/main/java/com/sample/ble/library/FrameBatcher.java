@@ -0,0 +1,144 @@
+package com.sample.ble.library;
+
+/**
+ * Coalesces small messages into one {@link CustomPacket} container frame, Nagle style.
+ * <p>
+ * Messages offered while a batch is open are appended to it. The batch goes out as soon as the
+ * next message would not fit in {@code maxFrameLength} (usually the ATT MTU minus 3) or when the
+ * owner calls {@link #flush()}, typically from a timer armed when {@link #offer} reports that it
+ * opened a new batch. A batch holding one message is sent as a plain frame.
+ * <p>
+ * A container frame uses {@link CustomPacket#HEAD_MSG_BATCH} and its payload is a list of
+ * {@code | LENGTH (uint8) | MESSAGE ... |} entries, see {@link #unpack}.
+ */
+public class FrameBatcher {
+    /**
+     * Longest message that can be batched, longer ones are sent on their own.
+     */
+    public static final int MAX_MESSAGE_LENGTH = 0xFF;
+
+    public interface Listener {
+        /**
+         * {@code buffer} is only valid during the call.
+         */
+        void onMessage(byte[] buffer, int offset, int length);
+    }
+
+    private final FrameSink sink;
+    private final int channel;
+    private final SequenceAllocator sequence;
+
+    private byte[] frame;
+    private int fill;
+    private int count;
+    private int firstLength;
+
+    public FrameBatcher(FrameSink sink, int channel, SequenceAllocator sequence, int maxFrameLength) {
+        this.sink = sink;
+        this.channel = channel;
+        this.sequence = sequence;
+        setMaxFrameLength(maxFrameLength);
+    }
+
+    /**
+     * Change the frame size limit, e.g. after an MTU update. Flushes the open batch.
+     */
+    public synchronized void setMaxFrameLength(int maxFrameLength) {
+        if (maxFrameLength < CustomPacketEncoder.HEAD_LENGTH + 2) {
+            throw new IllegalArgumentException("Bad max frame length: " + maxFrameLength);
+        }
+        if (frame != null && frame.length == maxFrameLength) {
+            return;
+        }
+        flush();
+        frame = new byte[maxFrameLength];
+    }
+
+    /**
+     * Queue one message.
+     *
+     * @return true if it opened a new batch, i.e. the caller should schedule a {@link #flush()}.
+     */
+    public synchronized boolean offer(byte[] message) {
+        int length = message.length;
+        if (length > MAX_MESSAGE_LENGTH || CustomPacketEncoder.HEAD_LENGTH + 1 + length > frame.length) {
+            flush();
+            sendPlain(message, 0, length);
+            return false;
+        }
+        if (count > 0 && fill + 1 + length > frame.length) {
+            flush();
+        }
+        if (count == 0) {
+            fill = CustomPacketEncoder.HEAD_LENGTH;
+            firstLength = length;
+        }
+        frame[fill++] = (byte) length;
+        System.arraycopy(message, 0, frame, fill, length);
+        fill += length;
+        count++;
+        return count == 1;
+    }
+
+    /**
+     * Send the open batch, if any.
+     */
+    public synchronized void flush() {
+        if (count == 0) {
+            return;
+        }
+        if (count == 1) {
+            sendPlain(frame, CustomPacketEncoder.HEAD_LENGTH + 1, firstLength);
+        } else {
+            int payloadLength = fill - CustomPacketEncoder.HEAD_LENGTH;
+            CustomPacketEncoder.writeHead((byte) channel, (byte) CustomPacket.HEAD_MSG_BATCH,
+                    payloadLength, sequence.next(), frame, 0);
+            sink.send(frame, 0, fill);
+        }
+        count = 0;
+        fill = 0;
+    }
+
+    /**
+     * Number of messages in the open batch.
+     */
+    public synchronized int size() {
+        return count;
+    }
+
+    private void sendPlain(byte[] message, int offset, int length) {
+        byte[] plain = new byte[CustomPacketEncoder.encodedLength(length)];
+        CustomPacketEncoder.encode((byte) channel, (byte) CustomPacket.HEAD_MSG_NUMBER, sequence.next(),
+                message, offset, length, plain, 0);
+        sink.send(plain, 0, plain.length);
+    }
+
+    /**
+     * Hand every message carried by {@code frame} to {@code listener}: the payload of a plain frame,
+     * or each entry of a container frame. Malformed containers are cut at the first bad entry.
+     *
+     * @return the number of messages delivered.
+     */
+    public static int unpack(byte[] frame, int offset, int length, Listener listener) {
+        if (length < CustomPacketEncoder.HEAD_LENGTH) {
+            return 0;
+        }
+        int end = offset + length;
+        int p = offset + CustomPacketEncoder.HEAD_LENGTH;
+        if (frame[offset + 1] != (byte) CustomPacket.HEAD_MSG_BATCH) {
+            listener.onMessage(frame, p, end - p);
+            return 1;
+        }
+        int messages = 0;
+        while (p < end) {
+            int messageLength = frame[p++] & 0xFF;
+            if (p + messageLength > end) {
+                break;
+            }
+            listener.onMessage(frame, p, messageLength);
+            p += messageLength;
+            messages++;
+        }
+        return messages;
+    }
+}
@@ -0,0 +1,13 @@
+package com.sample.ble.library;
+
+/**
+ * Lower layer a transport pushes encoded {@link CustomPacket} frames into, typically one
+ * write-without-response or notification per call.
+ */
+public interface FrameSink {
+    /**
+     * {@code frame} may be reused once the call returns, copy it if it is kept. Implementations
+     * must not call back into the sending transport from within this method.
+     */
+    void send(byte[] frame, int offset, int length);
+}
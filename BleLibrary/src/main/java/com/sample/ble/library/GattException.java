@@ -0,0 +1,23 @@
+package com.sample.ble.library;
+
+import java.io.IOException;
+
+/**
+ * A GATT operation failed with {@link #getStatus()}, the status of the BluetoothGattCallback
+ * method, or {@link #STATUS_REJECTED} when BluetoothGatt refused to start it.
+ */
+public class GattException extends IOException {
+    public static final int STATUS_REJECTED = -1;
+    private static final long serialVersionUID = 1L;
+
+    private final int status;
+
+    public GattException(String message, int status) {
+        super(message + ", status " + status);
+        this.status = status;
+    }
+
+    public int getStatus() {
+        return status;
+    }
+}
@@ -0,0 +1,202 @@
+package com.sample.ble.library;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Serializes the operations of one GATT connection. Android accepts a single outstanding
+ * operation per BluetoothGatt and silently rejects the others, so every write, read, descriptor
+ * write, discovery, MTU and PHY request goes through this queue.
+ * <p>
+ * {@link #enqueue} returns a future completed when the matching BluetoothGattCallback method
+ * reports {@link #onComplete}. The next operation is started from that callback directly, right
+ * after the finished one's future is completed, no sleep nor thread hop in between. An operation
+ * that gets no callback within its timeout fails with a {@link TimeoutException}, one whose
+ * {@link Operation#start()} returns false or throws fails with {@link GattException#STATUS_REJECTED},
+ * and either way the queue moves on.
+ */
+public class GattOperationQueue {
+    public static final int OP_WRITE_CHARACTERISTIC = 1;
+    public static final int OP_READ_CHARACTERISTIC = 2;
+    public static final int OP_WRITE_DESCRIPTOR = 3;
+    public static final int OP_DISCOVER_SERVICES = 4;
+    public static final int OP_REQUEST_MTU = 5;
+    public static final int OP_SET_PHY = 6;
+    public static final long DEFAULT_TIMEOUT_MS = 5000;
+
+    /**
+     * One GATT call. {@link #start()} issues it, e.g. sets the value and calls
+     * BluetoothGatt.writeCharacteristic, and returns false if the stack refused it.
+     */
+    public abstract static class Operation<T> {
+        final int type;
+        final long timeoutMs;
+        final CompletableFuture<T> future = new CompletableFuture<>();
+        ScheduledFuture<?> timeout;
+        RuntimeException startError;
+
+        protected Operation(int type) {
+            this(type, DEFAULT_TIMEOUT_MS);
+        }
+
+        protected Operation(int type, long timeoutMs) {
+            if (timeoutMs <= 0) {
+                throw new IllegalArgumentException("Bad timeout: " + timeoutMs);
+            }
+            this.type = type;
+            this.timeoutMs = timeoutMs;
+        }
+
+        protected abstract boolean start();
+    }
+
+    private final ScheduledExecutorService timer;
+    private final Queue<Operation<?>> pending = new ArrayDeque<>();
+    private Operation<?> current;
+
+    /**
+     * @param timer runs the timeouts, may be shared between queues.
+     */
+    public GattOperationQueue(ScheduledExecutorService timer) {
+        this.timer = timer;
+    }
+
+    public <T> CompletableFuture<T> enqueue(Operation<T> operation) {
+        List<Operation<?>> rejected;
+        synchronized (this) {
+            pending.add(operation);
+            rejected = startNextLocked();
+        }
+        fail(rejected);
+        return operation.future;
+    }
+
+    /**
+     * Called from the BluetoothGattCallback method answering an operation of {@code type}.
+     * {@code result} completes its future when {@code status} is GATT_SUCCESS (0), otherwise it
+     * fails with a {@link GattException}. Callbacks for another type, e.g. a spurious
+     * onCharacteristicWrite, are ignored.
+     *
+     * @return true if it matched the outstanding operation.
+     */
+    @SuppressWarnings("unchecked")
+    public boolean onComplete(int type, int status, Object result) {
+        Operation<Object> operation;
+        synchronized (this) {
+            if (current == null || current.type != type) {
+                return false;
+            }
+            operation = (Operation<Object>) current;
+            operation.timeout.cancel(false);
+            current = null;
+        }
+        if (status == 0) {
+            operation.future.complete(result);
+        } else {
+            operation.future.completeExceptionally(new GattException("GATT operation " + type + " failed", status));
+        }
+        startNext();
+        return true;
+    }
+
+    /**
+     * Fail the outstanding and pending operations, e.g. after a disconnect.
+     */
+    public void clear(Throwable cause) {
+        List<Operation<?>> dropped = new ArrayList<>();
+        synchronized (this) {
+            if (current != null) {
+                current.timeout.cancel(false);
+                dropped.add(current);
+                current = null;
+            }
+            dropped.addAll(pending);
+            pending.clear();
+        }
+        for (Operation<?> operation : dropped) {
+            operation.future.completeExceptionally(cause);
+        }
+    }
+
+    /**
+     * Operations not completed yet, including the outstanding one.
+     */
+    public synchronized int size() {
+        return pending.size() + (current != null ? 1 : 0);
+    }
+
+    private void startNext() {
+        List<Operation<?>> rejected;
+        synchronized (this) {
+            rejected = startNextLocked();
+        }
+        fail(rejected);
+    }
+
+    private List<Operation<?>> startNextLocked() {
+        List<Operation<?>> rejected = null;
+        while (current == null && !pending.isEmpty()) {
+            final Operation<?> operation = pending.poll();
+            if (operation.future.isDone()) {
+                // Cancelled by the caller while waiting.
+                continue;
+            }
+            boolean started;
+            try {
+                started = operation.start();
+            } catch (RuntimeException e) {
+                // E.g. a null descriptor or a closed gatt, must not strand the rest of the queue.
+                operation.startError = e;
+                started = false;
+            }
+            if (!started) {
+                if (rejected == null) {
+                    rejected = new ArrayList<>();
+                }
+                rejected.add(operation);
+                continue;
+            }
+            current = operation;
+            operation.timeout = timer.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    onTimeout(operation);
+                }
+            }, operation.timeoutMs, TimeUnit.MILLISECONDS);
+        }
+        return rejected;
+    }
+
+    private void onTimeout(Operation<?> operation) {
+        synchronized (this) {
+            if (current != operation) {
+                return;
+            }
+            current = null;
+        }
+        operation.future.completeExceptionally(new TimeoutException(
+                "GATT operation " + operation.type + " timed out after " + operation.timeoutMs + " ms"));
+        startNext();
+    }
+
+    private static void fail(List<Operation<?>> rejected) {
+        if (rejected == null) {
+            return;
+        }
+        for (Operation<?> operation : rejected) {
+            GattException e = new GattException("GATT operation " + operation.type + " rejected",
+                    GattException.STATUS_REJECTED);
+            if (operation.startError != null) {
+                e.initCause(operation.startError);
+            }
+            operation.future.completeExceptionally(e);
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package com.sample.ble.library;
+
+/**
+ * The interfaces of java.util.concurrent.Flow, which is only available from API 30, for
+ * streams with backpressure such as {@link NotificationPublisher}.
+ */
+public final class NotificationFlow {
+
+    private NotificationFlow() {
+    }
+
+    public interface Publisher<T> {
+        void subscribe(Subscriber<? super T> subscriber);
+    }
+
+    public interface Subscriber<T> {
+        void onSubscribe(Subscription subscription);
+
+        void onNext(T item);
+
+        void onError(Throwable error);
+
+        void onComplete();
+    }
+
+    public interface Subscription {
+        /**
+         * Ask for {@code n} more items, a non positive {@code n} fails the subscription.
+         */
+        void request(long n);
+
+        void cancel();
+    }
+}
@@ -0,0 +1,277 @@
+package com.sample.ble.library;
+
+import java.util.Arrays;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Characteristic notifications as a stream with backpressure: subscribers ask for values with
+ * {@link NotificationFlow.Subscription#request} and only get that many.
+ * <p>
+ * Each subscription owns a bounded buffer and a {@link Strategy} for when it is full, and
+ * delivers on its own executor, e.g. the main thread, with at most one drain task queued there at
+ * a time. A slow consumer thus loses values, or slows the notifying thread with
+ * {@link Strategy#BLOCK}, instead of growing a Runnable queue on its looper.
+ * <p>
+ * {@link #publish} copies the value once and hands the same array to every subscriber, which
+ * must not modify it.
+ */
+public class NotificationPublisher implements NotificationFlow.Publisher<byte[]> {
+    public static final int DEFAULT_BUFFER_SIZE = 16;
+
+    public enum Strategy {
+        /**
+         * Drop the oldest buffered value to make room, the subscriber sees the most recent ones.
+         */
+        DROP_OLDEST,
+        /**
+         * Keep only the newest value, for state like a sensor reading where older ones are stale.
+         */
+        LATEST_ONLY,
+        /**
+         * Make {@link #publish} wait for room, nothing is lost but the notifying thread stalls.
+         */
+        BLOCK
+    }
+
+    private final Executor defaultExecutor;
+    private final CopyOnWriteArrayList<BufferedSubscription> subscriptions = new CopyOnWriteArrayList<>();
+    private final AtomicLong dropped = new AtomicLong();
+    private volatile boolean terminated;
+
+    /**
+     * @param defaultExecutor where {@link #subscribe(NotificationFlow.Subscriber)} delivers.
+     */
+    public NotificationPublisher(Executor defaultExecutor) {
+        this.defaultExecutor = defaultExecutor;
+    }
+
+    /**
+     * Subscribe with {@link Strategy#DROP_OLDEST} and {@link #DEFAULT_BUFFER_SIZE}.
+     */
+    @Override
+    public void subscribe(NotificationFlow.Subscriber<? super byte[]> subscriber) {
+        subscribe(subscriber, Strategy.DROP_OLDEST, DEFAULT_BUFFER_SIZE, defaultExecutor);
+    }
+
+    /**
+     * @param bufferSize values held for the subscriber at most, 1 with {@link Strategy#LATEST_ONLY}.
+     * @param executor   runs the subscriber's callbacks, one at a time.
+     */
+    public void subscribe(NotificationFlow.Subscriber<? super byte[]> subscriber, Strategy strategy, int bufferSize,
+                          Executor executor) {
+        if (bufferSize <= 0) {
+            throw new IllegalArgumentException("Bad buffer size: " + bufferSize);
+        }
+        BufferedSubscription subscription = new BufferedSubscription(subscriber, strategy,
+                strategy == Strategy.LATEST_ONLY ? 1 : bufferSize, executor);
+        subscriptions.add(subscription);
+        subscription.start();
+        if (terminated) {
+            subscription.terminate(null);
+            subscriptions.remove(subscription);
+        }
+    }
+
+    /**
+     * Values discarded by {@link Strategy#DROP_OLDEST} and {@link Strategy#LATEST_ONLY} subscribers.
+     */
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    public boolean hasSubscribers() {
+        return !subscriptions.isEmpty();
+    }
+
+    /**
+     * Offer a notification value to every subscriber, see {@link Strategy} for full buffers.
+     */
+    public void publish(byte[] value) {
+        if (subscriptions.isEmpty()) {
+            return;
+        }
+        byte[] item = Arrays.copyOf(value, value.length);
+        for (BufferedSubscription subscription : subscriptions) {
+            subscription.offer(item);
+        }
+    }
+
+    /**
+     * End every subscription after its buffered values, later subscribers complete at once.
+     */
+    public void complete() {
+        terminate(null);
+    }
+
+    public void error(Throwable error) {
+        terminate(error);
+    }
+
+    private void terminate(Throwable error) {
+        terminated = true;
+        for (BufferedSubscription subscription : subscriptions) {
+            subscription.terminate(error);
+        }
+        subscriptions.clear();
+    }
+
+    private final class BufferedSubscription implements NotificationFlow.Subscription, Runnable {
+        private final NotificationFlow.Subscriber<? super byte[]> subscriber;
+        private final Strategy strategy;
+        private final byte[][] buffer;
+        private final Executor executor;
+        private int head;
+        private int count;
+        private long demand;
+        private boolean cancelled;
+        private boolean started;
+        private boolean done;
+        private boolean terminated;
+        private Throwable error;
+        private boolean draining;
+
+        BufferedSubscription(NotificationFlow.Subscriber<? super byte[]> subscriber, Strategy strategy, int bufferSize,
+                             Executor executor) {
+            this.subscriber = subscriber;
+            this.strategy = strategy;
+            this.buffer = new byte[bufferSize][];
+            this.executor = executor;
+        }
+
+        void start() {
+            schedule();
+        }
+
+        void offer(byte[] item) {
+            synchronized (this) {
+                if (cancelled || terminated) {
+                    return;
+                }
+                if (count == buffer.length) {
+                    if (strategy == Strategy.BLOCK) {
+                        while (count == buffer.length && !cancelled && !terminated) {
+                            try {
+                                wait();
+                            } catch (InterruptedException e) {
+                                Thread.currentThread().interrupt();
+                                return;
+                            }
+                        }
+                        if (cancelled || terminated) {
+                            return;
+                        }
+                    } else {
+                        buffer[head] = null;
+                        head = (head + 1) % buffer.length;
+                        count--;
+                        dropped.incrementAndGet();
+                    }
+                }
+                buffer[(head + count) % buffer.length] = item;
+                count++;
+            }
+            schedule();
+        }
+
+        void terminate(Throwable cause) {
+            synchronized (this) {
+                if (terminated) {
+                    return;
+                }
+                terminated = true;
+                error = cause;
+            }
+            schedule();
+        }
+
+        @Override
+        public void request(long n) {
+            synchronized (this) {
+                if (n <= 0) {
+                    terminated = true;
+                    error = new IllegalArgumentException("Bad request: " + n);
+                    head = 0;
+                    count = 0;
+                    Arrays.fill(buffer, null);
+                    notifyAll();
+                } else {
+                    demand = demand + n < 0 ? Long.MAX_VALUE : demand + n;
+                }
+            }
+            schedule();
+        }
+
+        @Override
+        public void cancel() {
+            synchronized (this) {
+                cancelled = true;
+                count = 0;
+                Arrays.fill(buffer, null);
+                notifyAll();
+            }
+            subscriptions.remove(this);
+        }
+
+        // At most one drain task queued on the executor.
+        private void schedule() {
+            synchronized (this) {
+                if (draining || cancelled || done) {
+                    return;
+                }
+                draining = true;
+            }
+            executor.execute(this);
+        }
+
+        @Override
+        public void run() {
+            boolean subscribe;
+            synchronized (this) {
+                subscribe = !started;
+                started = true;
+            }
+            if (subscribe) {
+                subscriber.onSubscribe(this);
+            }
+            while (true) {
+                byte[] item = null;
+                boolean complete = false;
+                Throwable failure = null;
+                synchronized (this) {
+                    if (cancelled || done) {
+                        draining = false;
+                        return;
+                    }
+                    if (count > 0 && demand > 0) {
+                        item = buffer[head];
+                        buffer[head] = null;
+                        head = (head + 1) % buffer.length;
+                        count--;
+                        demand--;
+                        notifyAll();
+                    } else if (count == 0 && terminated) {
+                        done = true;
+                        complete = error == null;
+                        failure = error;
+                    } else {
+                        draining = false;
+                        return;
+                    }
+                }
+                if (item != null) {
+                    subscriber.onNext(item);
+                } else if (complete) {
+                    subscriptions.remove(this);
+                    subscriber.onComplete();
+                    return;
+                } else {
+                    subscriptions.remove(this);
+                    subscriber.onError(failure);
+                    return;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package com.sample.ble.library;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Single-producer, single-consumer ring of raw notification records: a timestamp, the
+ * characteristic's id in a {@link UuidRegistry} and the value bytes. Every slot is preallocated in
+ * one byte slab, so {@link #offer} on the GATT binder thread allocates nothing and a consumer
+ * such as the main thread drains at its own pace, e.g. once per frame.
+ * <p>
+ * When the ring is full the new record is dropped and counted, the producer never overwrites a
+ * slot the consumer may be reading. Values longer than the slot size are truncated, the default
+ * slot fits the largest ATT value.
+ */
+public class NotificationRing {
+    public static final int DEFAULT_CAPACITY = 128;
+    /**
+     * The largest attribute value, see the Core specification, Vol 3, Part F, 3.2.9.
+     */
+    public static final int MAX_VALUE_LENGTH = 512;
+
+    public interface Reader {
+        /**
+         * One record, {@code data} is the ring's slab and is only valid during the call.
+         */
+        void onRecord(long timestampNanos, int characteristicId, byte[] data, int offset, int length);
+    }
+
+    private final int mask;
+    private final int slotSize;
+    private final long[] timestamps;
+    private final int[] ids;
+    private final int[] lengths;
+    private final byte[] slab;
+    // Next record to read, written by the consumer only.
+    private final AtomicLong head = new AtomicLong();
+    // Next record to write, written by the producer only.
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+
+    public NotificationRing() {
+        this(DEFAULT_CAPACITY, MAX_VALUE_LENGTH);
+    }
+
+    /**
+     * @param capacity records held at most, a power of two.
+     * @param slotSize bytes kept per record.
+     */
+    public NotificationRing(int capacity, int slotSize) {
+        if (capacity <= 0 || (capacity & (capacity - 1)) != 0) {
+            throw new IllegalArgumentException("Capacity must be a power of two: " + capacity);
+        }
+        if (slotSize <= 0) {
+            throw new IllegalArgumentException("Bad slot size: " + slotSize);
+        }
+        this.mask = capacity - 1;
+        this.slotSize = slotSize;
+        this.timestamps = new long[capacity];
+        this.ids = new int[capacity];
+        this.lengths = new int[capacity];
+        this.slab = new byte[capacity * slotSize];
+    }
+
+    /**
+     * Append a record, from the producer thread only.
+     *
+     * @return false if the ring was full and the record was dropped.
+     */
+    public boolean offer(long timestampNanos, int characteristicId, byte[] value) {
+        long t = tail.get();
+        if (t - head.get() > mask) {
+            dropped.incrementAndGet();
+            return false;
+        }
+        int slot = (int) t & mask;
+        int length = value == null ? 0 : Math.min(value.length, slotSize);
+        if (length > 0) {
+            System.arraycopy(value, 0, slab, slot * slotSize, length);
+        }
+        timestamps[slot] = timestampNanos;
+        ids[slot] = characteristicId;
+        lengths[slot] = length;
+        // Publishes the slot to the consumer.
+        tail.lazySet(t + 1);
+        return true;
+    }
+
+    /**
+     * Hand up to {@code max} records to {@code reader}, oldest first, from the consumer thread only.
+     *
+     * @return the number of records read.
+     */
+    public int drain(Reader reader, int max) {
+        long h = head.get();
+        int count = (int) Math.min(tail.get() - h, max);
+        for (int i = 0; i < count; i++) {
+            int slot = (int) (h + i) & mask;
+            reader.onRecord(timestamps[slot], ids[slot], slab, slot * slotSize, lengths[slot]);
+        }
+        if (count > 0) {
+            // Frees the slots for the producer.
+            head.lazySet(h + count);
+        }
+        return count;
+    }
+
+    /**
+     * Discard the records not read yet, from the consumer thread only.
+     */
+    public void clear() {
+        head.lazySet(tail.get());
+    }
+
+    public int size() {
+        return (int) (tail.get() - head.get());
+    }
+
+    public int capacity() {
+        return mask + 1;
+    }
+
+    /**
+     * Records dropped because the ring was full.
+     */
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+}
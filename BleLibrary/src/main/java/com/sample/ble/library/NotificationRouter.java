@@ -0,0 +1,64 @@
+package com.sample.ble.library;
+
+import java.util.Arrays;
+import java.util.UUID;
+import java.util.concurrent.Executor;
+
+/**
+ * One {@link NotificationPublisher} per characteristic, kept in an array indexed by the
+ * characteristic's id in a {@link UuidRegistry}. Routing a notification nobody subscribed to
+ * costs one registry lookup and copies nothing.
+ */
+public class NotificationRouter {
+    private final UuidRegistry uuids;
+    private final Executor defaultExecutor;
+    private volatile NotificationPublisher[] publishers = new NotificationPublisher[0];
+
+    /**
+     * @param defaultExecutor where the publishers deliver by default, usually the main thread.
+     */
+    public NotificationRouter(UuidRegistry uuids, Executor defaultExecutor) {
+        this.uuids = uuids;
+        this.defaultExecutor = defaultExecutor;
+    }
+
+    /**
+     * The publisher of {@code characteristic}, created on first use.
+     */
+    public synchronized NotificationPublisher get(UUID characteristic) {
+        int id = uuids.register(characteristic);
+        NotificationPublisher[] current = publishers;
+        if (id < current.length && current[id] != null) {
+            return current[id];
+        }
+        NotificationPublisher[] copy = Arrays.copyOf(current, Math.max(current.length, id + 1));
+        copy[id] = new NotificationPublisher(defaultExecutor);
+        publishers = copy;
+        return copy[id];
+    }
+
+    /**
+     * Hand {@code value} to the subscribers of {@code characteristic}, if any.
+     */
+    public void publish(UUID characteristic, byte[] value) {
+        NotificationPublisher[] current = publishers;
+        if (current.length == 0) {
+            return;
+        }
+        int id = uuids.indexOf(characteristic);
+        if (id >= 0 && id < current.length && current[id] != null) {
+            current[id].publish(value);
+        }
+    }
+
+    /**
+     * Complete every publisher, e.g. when the connection is closed for good.
+     */
+    public void complete() {
+        for (NotificationPublisher publisher : publishers) {
+            if (publisher != null) {
+                publisher.complete();
+            }
+        }
+    }
+}
@@ -0,0 +1,209 @@
+package com.sample.ble.library;
+
+import com.sample.ble.library.utils.Crc32c;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.Checksum;
+
+/**
+ * Splits payloads of any size into {@link CustomPacket} frames and cuts the resulting byte stream
+ * into ATT sized segments, one characteristic write or notification each.
+ * <p>
+ * Frames are laid out back to back, so every segment but the last one is filled up to the
+ * negotiated MTU. The receiving side puts them back together with {@link CustomPacketDecoder}.
+ * The MTU is tracked per connection, keyed by the remote device address, and falls back to
+ * {@link #DEFAULT_ATT_MTU} until a negotiation result is reported. Each connection also gets its
+ * own {@link SequenceAllocator}, so links segmenting in parallel do not share a sequence space.
+ * <p>
+ * A payload longer than {@link CustomPacketEncoder#MAX_PAYLOAD_LENGTH} is split into several
+ * frames, every one but the last sent as {@link CustomPacket#HEAD_MSG_FRAGMENT} like the
+ * {@link ChannelMultiplexer} does, so the receiver can tell where the message ends. Segmenting is
+ * serialized on the instance, which owns the frame header and checksum scratch.
+ */
+public class PacketSegmenter {
+    public static final int DEFAULT_ATT_MTU = 23;
+    public static final int MAX_ATT_MTU = 517;
+    /**
+     * Opcode and attribute handle in front of every write / notification value.
+     */
+    public static final int ATT_HEADER_LENGTH = 3;
+
+    public interface Sink {
+        /**
+         * Called once per segment, in order. {@code segment} is reused after the call returns.
+         */
+        void onSegment(byte[] segment, int offset, int length);
+    }
+
+    private volatile boolean crcTrailer;
+    private final Map<String, Integer> mtus = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, SequenceAllocator> sequences = new ConcurrentHashMap<>();
+    private final Map<String, CompressionStage> compressions = new ConcurrentHashMap<>();
+    private final byte[] head = new byte[CustomPacketEncoder.HEAD_LENGTH];
+    private final byte[] trailer = new byte[CustomPacketEncoder.TRAILER_LENGTH];
+    private final Checksum crc = Crc32c.create();
+    private byte[] segment = new byte[0];
+
+    /**
+     * Append a CRC-32C trailer to every frame, see {@link CustomPacketEncoder#TRAILER_LENGTH}. The
+     * receiving {@link CustomPacketDecoder} must be configured the same way.
+     */
+    public void setCrcTrailer(boolean crcTrailer) {
+        this.crcTrailer = crcTrailer;
+    }
+
+    /**
+     * Record the MTU reported by {@code onMtuChanged} for the connection to {@code address}.
+     */
+    public void onMtuChanged(String address, int mtu) {
+        mtus.put(address, Math.max(DEFAULT_ATT_MTU, Math.min(mtu, MAX_ATT_MTU)));
+    }
+
+    /**
+     * Forget the MTU of a closed connection.
+     */
+    public void remove(String address) {
+        mtus.remove(address);
+        sequences.remove(address);
+        compressions.remove(address);
+    }
+
+    public int getMtu(String address) {
+        Integer mtu = mtus.get(address);
+        return mtu != null ? mtu : DEFAULT_ATT_MTU;
+    }
+
+    /**
+     * Compress payloads sent to {@code address} with {@code stage} once it negotiated a codec.
+     * Payloads that do not shrink are still sent as plain frames.
+     */
+    public void setCompression(String address, CompressionStage stage) {
+        if (stage != null) {
+            compressions.put(address, stage);
+        } else {
+            compressions.remove(address);
+        }
+    }
+
+    /**
+     * Return the sequence allocator of the connection to {@code address}, creating it if needed.
+     */
+    public SequenceAllocator getSequence(String address) {
+        SequenceAllocator sequence = sequences.get(address);
+        if (sequence == null) {
+            SequenceAllocator created = new SequenceAllocator();
+            sequence = sequences.putIfAbsent(address, created);
+            if (sequence == null) {
+                sequence = created;
+            }
+        }
+        return sequence;
+    }
+
+    /**
+     * Largest value that fits in one write or notification on this connection.
+     */
+    public int getMaxSegmentLength(String address) {
+        return getMtu(address) - ATT_HEADER_LENGTH;
+    }
+
+    /**
+     * Frame {@code payload} on {@code channel} and hand the segments to {@code sink}.
+     *
+     * @return the number of segments produced.
+     */
+    public synchronized int segment(String address, int channel, byte[] payload, Sink sink) {
+        int segmentLength = getMaxSegmentLength(address);
+        if (segment.length != segmentLength) {
+            segment = new byte[segmentLength];
+        }
+        CompressionStage stage = compressions.get(address);
+        if (stage != null && payload.length <= CustomPacketEncoder.MAX_PAYLOAD_LENGTH) {
+            byte[] compressed = new byte[payload.length];
+            int n = stage.compress(payload, 0, payload.length, compressed, 0);
+            if (n > 0) {
+                return segment(channel, CustomPacket.HEAD_MSG_COMPRESSED, getSequence(address),
+                        compressed, 0, n, sink);
+            }
+        }
+        return segment(channel, CustomPacket.HEAD_MSG_NUMBER, getSequence(address), payload, 0,
+                payload.length, sink);
+    }
+
+    /**
+     * Same as {@link #segment(String, int, byte[], Sink)} but returns a copy of every segment,
+     * ready to be set as a characteristic value.
+     */
+    public List<byte[]> segment(String address, int channel, byte[] payload) {
+        final List<byte[]> segments = new ArrayList<>();
+        segment(address, channel, payload, new Sink() {
+            @Override
+            public void onSegment(byte[] segment, int offset, int length) {
+                segments.add(Arrays.copyOfRange(segment, offset, offset + length));
+            }
+        });
+        return segments;
+    }
+
+    private int segment(int channel, int msgNumber, SequenceAllocator sequence,
+                        byte[] payload, int offset, int length, Sink sink) {
+        SegmentWriter writer = new SegmentWriter(segment, sink);
+        boolean crcTrailer = this.crcTrailer;
+        do {
+            int frameLength = Math.min(length, CustomPacketEncoder.MAX_PAYLOAD_LENGTH);
+            boolean last = frameLength == length;
+            CustomPacketEncoder.writeHead((byte) channel,
+                    (byte) (last ? msgNumber : CustomPacket.HEAD_MSG_FRAGMENT),
+                    frameLength, sequence.next(), head, 0);
+            writer.write(head, 0, head.length);
+            writer.write(payload, offset, frameLength);
+            if (crcTrailer) {
+                // Checksum the frame as it is streamed out, it is never contiguous in memory.
+                crc.reset();
+                crc.update(head, 0, head.length);
+                crc.update(payload, offset, frameLength);
+                CustomPacketEncoder.writeTrailer(crc.getValue(), trailer, 0);
+                writer.write(trailer, 0, trailer.length);
+            }
+            offset += frameLength;
+            length -= frameLength;
+        } while (length > 0);
+        return writer.finish();
+    }
+
+    private static class SegmentWriter {
+        private final byte[] segment;
+        private final Sink sink;
+        private int fill;
+        private int segments;
+
+        SegmentWriter(byte[] segment, Sink sink) {
+            this.segment = segment;
+            this.sink = sink;
+        }
+
+        void write(byte[] src, int offset, int length) {
+            while (length > 0) {
+                if (fill == segment.length) {
+                    sink.onSegment(segment, 0, fill);
+                    segments++;
+                    fill = 0;
+                }
+                int n = Math.min(length, segment.length - fill);
+                System.arraycopy(src, offset, segment, fill, n);
+                offset += n;
+                length -= n;
+                fill += n;
+            }
+        }
+
+        int finish() {
+            sink.onSegment(segment, 0, fill);
+            return segments + 1;
+        }
+    }
+}
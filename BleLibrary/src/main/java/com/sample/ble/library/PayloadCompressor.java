@@ -0,0 +1,29 @@
+package com.sample.ble.library;
+
+import java.util.zip.DataFormatException;
+
+/**
+ * One codec of the {@link CompressionStage}.
+ */
+public interface PayloadCompressor {
+    /**
+     * Identifier advertised during negotiation and written in front of every compressed payload,
+     * 0..255. Both ends must agree on what it means, dictionary included.
+     */
+    int id();
+
+    /**
+     * Compress {@code src[srcOffset, srcOffset + srcLength)} into {@code dst}.
+     *
+     * @return the compressed length, or -1 if the result would not fit in {@code dstCapacity}
+     * bytes.
+     */
+    int compress(byte[] src, int srcOffset, int srcLength, byte[] dst, int dstOffset, int dstCapacity);
+
+    /**
+     * @return the decompressed length.
+     * @throws DataFormatException if {@code src} is corrupt or does not fit in {@code dstCapacity}.
+     */
+    int decompress(byte[] src, int srcOffset, int srcLength, byte[] dst, int dstOffset, int dstCapacity)
+            throws DataFormatException;
+}
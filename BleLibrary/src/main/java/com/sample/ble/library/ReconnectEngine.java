@@ -0,0 +1,286 @@
+package com.sample.ble.library;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Brings dropped links back without user action. Every device that lost its link gets its own
+ * state: attempts made, when it was lost and the pending retry.
+ * <p>
+ * Retries are spaced by an exponential backoff with jitter, half of the delay is random so
+ * devices dropped together, e.g. by phone side interference, do not retry in lockstep. While the
+ * device has been gone for less than {@code autoConnectAfterMs} each attempt is a direct connect,
+ * fast but bounded by the stack's ~30 s timeout; after that one autoConnect attempt is left
+ * pending, the controller then connects whenever the device advertises again at no cost to us.
+ * <p>
+ * The {@link Connector} closes the previous BluetoothGatt and creates a new one for every
+ * attempt. This is also the recovery for status 133 (GATT_ERROR), which usually leaves the old
+ * client unusable, a plain BluetoothGatt.connect() on it keeps failing.
+ */
+public class ReconnectEngine {
+    public static final long DEFAULT_INITIAL_DELAY_MS = 500;
+    public static final long DEFAULT_MAX_DELAY_MS = 30000;
+    public static final long DEFAULT_AUTO_CONNECT_AFTER_MS = 60000;
+    /**
+     * GATT_ERROR, reported by Android for most failed connects and abnormal disconnects.
+     */
+    public static final int STATUS_GATT_ERROR = 133;
+
+    public interface Connector {
+        /**
+         * Start one attempt on a new GATT client. The outcome is reported with
+         * {@link #onConnected} or {@link #onDisconnected}; an autoConnect attempt usually only
+         * ends when the device is back.
+         */
+        void connect(String address, boolean autoConnect);
+    }
+
+    public interface Listener {
+        void onReconnectScheduled(String address, int attempt, long delayMs, boolean autoConnect);
+
+        /**
+         * @param downtimeMs from the link loss to the new connection, the time to reconnect.
+         */
+        void onReconnected(String address, int attempts, long downtimeMs);
+    }
+
+    /**
+     * Totals since the engine was created.
+     */
+    public static final class Metrics {
+        private final int reconnects;
+        private final int attempts;
+        private final int gattErrors;
+        private final long lastMs;
+        private final long maxMs;
+        private final long totalMs;
+
+        Metrics(int reconnects, int attempts, int gattErrors, long lastMs, long maxMs, long totalMs) {
+            this.reconnects = reconnects;
+            this.attempts = attempts;
+            this.gattErrors = gattErrors;
+            this.lastMs = lastMs;
+            this.maxMs = maxMs;
+            this.totalMs = totalMs;
+        }
+
+        public int reconnects() {
+            return reconnects;
+        }
+
+        /**
+         * Connection attempts made, including the successful ones.
+         */
+        public int attempts() {
+            return attempts;
+        }
+
+        /**
+         * Disconnects and failed attempts with status 133.
+         */
+        public int gattErrors() {
+            return gattErrors;
+        }
+
+        public long lastTimeToReconnectMs() {
+            return lastMs;
+        }
+
+        public long maxTimeToReconnectMs() {
+            return maxMs;
+        }
+
+        public long averageTimeToReconnectMs() {
+            return reconnects > 0 ? totalMs / reconnects : 0;
+        }
+
+        @Override
+        public String toString() {
+            return "Metrics{reconnects=" + reconnects + ", attempts=" + attempts + ", gattErrors=" + gattErrors
+                    + ", lastMs=" + lastMs + ", maxMs=" + maxMs + ", averageMs=" + averageTimeToReconnectMs() + "}";
+        }
+    }
+
+    private static final class Device {
+        final long lostAt;
+        int attempts;
+        boolean autoConnect;
+        ScheduledFuture<?> pending;
+
+        Device(long lostAt) {
+            this.lostAt = lostAt;
+        }
+    }
+
+    private final Connector connector;
+    private final Listener listener;
+    private final ScheduledExecutorService timer;
+    private final long initialDelayMs;
+    private final long maxDelayMs;
+    private final long autoConnectAfterMs;
+    private final Map<String, Device> devices = new HashMap<>();
+
+    private int reconnects;
+    private int attempts;
+    private int gattErrors;
+    private long lastMs;
+    private long maxMs;
+    private long totalMs;
+
+    public ReconnectEngine(Connector connector, Listener listener, ScheduledExecutorService timer) {
+        this(connector, listener, timer, DEFAULT_INITIAL_DELAY_MS, DEFAULT_MAX_DELAY_MS,
+                DEFAULT_AUTO_CONNECT_AFTER_MS);
+    }
+
+    /**
+     * @param timer              runs the retries, may be shared.
+     * @param autoConnectAfterMs how long a device is retried with direct connects before
+     *                           falling back to autoConnect.
+     */
+    public ReconnectEngine(Connector connector, Listener listener, ScheduledExecutorService timer,
+                           long initialDelayMs, long maxDelayMs, long autoConnectAfterMs) {
+        if (initialDelayMs <= 0 || maxDelayMs < initialDelayMs || autoConnectAfterMs < 0) {
+            throw new IllegalArgumentException("Bad delays " + initialDelayMs + " / " + maxDelayMs
+                    + " / " + autoConnectAfterMs);
+        }
+        this.connector = connector;
+        this.listener = listener;
+        this.timer = timer;
+        this.initialDelayMs = initialDelayMs;
+        this.maxDelayMs = maxDelayMs;
+        this.autoConnectAfterMs = autoConnectAfterMs;
+    }
+
+    /**
+     * The link to {@code address} dropped, or a reconnect attempt failed: schedule the next
+     * attempt. Not to be called for disconnects the user asked for, see {@link #cancel}.
+     */
+    public void onDisconnected(String address, int status) {
+        long delay;
+        int attempt;
+        boolean autoConnect;
+        synchronized (this) {
+            if (status == STATUS_GATT_ERROR) {
+                gattErrors++;
+            }
+            Device device = devices.get(address);
+            if (device == null) {
+                device = new Device(now());
+                devices.put(address, device);
+            } else if (device.pending != null) {
+                // Already waiting for the next attempt.
+                return;
+            }
+            attempt = device.attempts;
+            autoConnect = now() - device.lostAt >= autoConnectAfterMs;
+            delay = backoffDelay(attempt, initialDelayMs, maxDelayMs, ThreadLocalRandom.current().nextDouble());
+            device.pending = schedule(address, device, autoConnect, delay);
+        }
+        listener.onReconnectScheduled(address, attempt + 1, delay, autoConnect);
+    }
+
+    /**
+     * {@code address} is connected. Ends its reconnection, if any.
+     *
+     * @return true if this was a reconnection.
+     */
+    public boolean onConnected(String address) {
+        int deviceAttempts;
+        long downtime;
+        synchronized (this) {
+            Device device = devices.remove(address);
+            if (device == null) {
+                return false;
+            }
+            if (device.pending != null) {
+                device.pending.cancel(false);
+            }
+            deviceAttempts = device.attempts;
+            downtime = now() - device.lostAt;
+            reconnects++;
+            lastMs = downtime;
+            maxMs = Math.max(maxMs, downtime);
+            totalMs += downtime;
+        }
+        listener.onReconnected(address, deviceAttempts, downtime);
+        return true;
+    }
+
+    /**
+     * Stop reconnecting {@code address}, e.g. the user disconnected it. An autoConnect attempt
+     * already started is up to the caller to close.
+     */
+    public synchronized void cancel(String address) {
+        Device device = devices.remove(address);
+        if (device != null && device.pending != null) {
+            device.pending.cancel(false);
+        }
+    }
+
+    public void cancelAll() {
+        List<String> addresses;
+        synchronized (this) {
+            addresses = new ArrayList<>(devices.keySet());
+        }
+        for (String address : addresses) {
+            cancel(address);
+        }
+    }
+
+    public synchronized boolean isReconnecting(String address) {
+        return devices.containsKey(address);
+    }
+
+    /**
+     * Whether the last attempt for {@code address} used autoConnect.
+     */
+    public synchronized boolean isAutoConnect(String address) {
+        Device device = devices.get(address);
+        return device != null && device.autoConnect;
+    }
+
+    public synchronized Metrics getMetrics() {
+        return new Metrics(reconnects, attempts, gattErrors, lastMs, maxMs, totalMs);
+    }
+
+    /**
+     * Equal jitter: half of {@code min(maxDelayMs, initialDelayMs * 2^attempt)} is fixed, the
+     * other half is scaled by {@code random} in [0, 1).
+     */
+    static long backoffDelay(int attempt, long initialDelayMs, long maxDelayMs, double random) {
+        long base = attempt >= 30 ? maxDelayMs : Math.min(maxDelayMs, initialDelayMs << attempt);
+        if (base <= 0) {
+            base = maxDelayMs;
+        }
+        return base / 2 + (long) (base / 2.0 * random);
+    }
+
+    private ScheduledFuture<?> schedule(final String address, final Device device, final boolean autoConnect,
+                                        long delay) {
+        return timer.schedule(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (ReconnectEngine.this) {
+                    if (devices.get(address) != device) {
+                        return;
+                    }
+                    device.pending = null;
+                    device.attempts++;
+                    device.autoConnect = autoConnect;
+                    attempts++;
+                }
+                connector.connect(address, autoConnect);
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private static long now() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+    }
+}
@@ -0,0 +1,123 @@
+package com.sample.ble.library;
+
+/**
+ * Receiving half of the selective repeat transport, see {@link ReliableSender}.
+ * <p>
+ * Data frames arriving out of order within the window are buffered and delivered once the gap
+ * before them is filled, so the {@link Listener} sees every payload exactly once and in order.
+ * Each data frame is answered with an ack frame on {@link CustomPacket#HEAD_CHANNEL_SBM_TO_WATCH}:
+ * the header sequence field holds the next expected sequence number (cumulative ack) and the
+ * 4 bytes payload is a bitmap whose bit {@code i} marks {@code cumulative + 1 + i} as received.
+ */
+public class ReliableReceiver implements CustomPacketDecoder.Listener {
+    /**
+     * Bounded by the width of the selective ack bitmap.
+     */
+    public static final int MAX_WINDOW = 32;
+    private static final int ACK_LENGTH = CustomPacketEncoder.HEAD_LENGTH + 4;
+
+    public interface Listener {
+        /**
+         * Called in sequence order. {@code payload} is reused after the call returns.
+         */
+        void onPayload(byte[] payload, int offset, int length);
+    }
+
+    private final FrameSink ackSink;
+    private final int window;
+    private final Listener listener;
+
+    private final int slotMask;
+    private final byte[][] payloads;
+    private final int[] payloadLengths;
+    private final boolean[] received;
+    private final byte[] ack = new byte[ACK_LENGTH];
+
+    private int expected;
+    private long duplicates;
+
+    /**
+     * @param window must match the sender, 1..{@link #MAX_WINDOW}.
+     */
+    public ReliableReceiver(FrameSink ackSink, int window, int maxPayloadLength, Listener listener) {
+        if (window < 1 || window > MAX_WINDOW) {
+            throw new IllegalArgumentException("Bad window: " + window);
+        }
+        this.ackSink = ackSink;
+        this.window = window;
+        this.listener = listener;
+        int slots = Integer.highestOneBit(window * 2 - 1);
+        slotMask = slots - 1;
+        payloads = new byte[slots][maxPayloadLength];
+        payloadLengths = new int[slots];
+        received = new boolean[slots];
+    }
+
+    /**
+     * Handle a data frame. Frames of any other kind are ignored.
+     */
+    @Override
+    public synchronized void onFrame(byte[] frame, int offset, int length) {
+        if (length < CustomPacketEncoder.HEAD_LENGTH
+                || frame[offset] != (byte) CustomPacket.HEAD_CHANNEL_WATCH_TO_SBM
+                || frame[offset + 1] != (byte) CustomPacket.HEAD_MSG_NUMBER) {
+            return;
+        }
+        int seq = ((frame[offset + 4] & 0xFF) << 8) | (frame[offset + 5] & 0xFF);
+        int payloadLength = length - CustomPacketEncoder.HEAD_LENGTH;
+        int distance = (seq - expected) & CustomPacket.MAX_SEQ_NUMBER;
+        if (distance < window && payloadLength <= payloads[0].length) {
+            int s = seq & slotMask;
+            if (received[s]) {
+                duplicates++;
+            } else {
+                received[s] = true;
+                payloadLengths[s] = payloadLength;
+                System.arraycopy(frame, offset + CustomPacketEncoder.HEAD_LENGTH, payloads[s], 0,
+                        payloadLength);
+            }
+            deliver();
+        } else {
+            // Already delivered, our ack got lost. Acking again lets the sender move on.
+            duplicates++;
+        }
+        sendAck();
+    }
+
+    /**
+     * Next sequence number to be delivered.
+     */
+    public synchronized int expected() {
+        return expected;
+    }
+
+    public synchronized long duplicates() {
+        return duplicates;
+    }
+
+    private void deliver() {
+        int s = expected & slotMask;
+        while (received[s]) {
+            received[s] = false;
+            listener.onPayload(payloads[s], 0, payloadLengths[s]);
+            expected = (expected + 1) & CustomPacket.MAX_SEQ_NUMBER;
+            s = expected & slotMask;
+        }
+    }
+
+    private void sendAck() {
+        int bitmap = 0;
+        for (int i = 0; i < window - 1; i++) {
+            if (received[(expected + 1 + i) & slotMask]) {
+                bitmap |= 1 << i;
+            }
+        }
+        CustomPacketEncoder.writeHead((byte) CustomPacket.HEAD_CHANNEL_SBM_TO_WATCH,
+                (byte) CustomPacket.HEAD_MSG_ACK, 4, expected, ack, 0);
+        ack[6] = (byte) (bitmap >> 24);
+        ack[7] = (byte) (bitmap >> 16);
+        ack[8] = (byte) (bitmap >> 8);
+        ack[9] = (byte) bitmap;
+        ackSink.send(ack, 0, ACK_LENGTH);
+    }
+}
@@ -0,0 +1,168 @@
+package com.sample.ble.library;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+
+/**
+ * Sending half of a selective repeat transport over {@link CustomPacket} sequence numbers.
+ * <p>
+ * Up to {@code window} data frames are kept in flight on
+ * {@link CustomPacket#HEAD_CHANNEL_WATCH_TO_SBM}. Every frame stays in its window slot until the
+ * peer's {@link ReliableReceiver} acknowledges it on {@link CustomPacket#HEAD_CHANNEL_SBM_TO_WATCH},
+ * either cumulatively or through the selective bitmap, and is sent again each time its
+ * retransmission timeout expires. This makes write-without-response safe to use at full speed.
+ * <p>
+ * The sender owns no thread or timer: feed it ack frames through {@link #onFrame} (e.g. from a
+ * {@link CustomPacketDecoder}) and call {@link #onTimer(long)} periodically.
+ */
+public class ReliableSender implements CustomPacketDecoder.Listener {
+    private final FrameSink sink;
+    private final int window;
+    private final int maxPayloadLength;
+    private final long retransmitTimeoutMs;
+
+    private final int slotMask;
+    private final byte[][] frames;
+    private final int[] frameLengths;
+    private final long[] sentAt;
+    private final boolean[] acked;
+    private final Queue<byte[]> pending = new ArrayDeque<>();
+
+    private long clockMs;
+    private int base;
+    private int nextSeq;
+    private int inFlight;
+    private long retransmissions;
+
+    /**
+     * @param window              frames in flight at most, 1..{@link ReliableReceiver#MAX_WINDOW}.
+     *                            Must match the receiver.
+     * @param maxPayloadLength    largest payload accepted by {@link #send(byte[], long)}.
+     * @param retransmitTimeoutMs time after which an unacknowledged frame is sent again.
+     */
+    public ReliableSender(FrameSink sink, int window, int maxPayloadLength, long retransmitTimeoutMs) {
+        if (window < 1 || window > ReliableReceiver.MAX_WINDOW) {
+            throw new IllegalArgumentException("Bad window: " + window);
+        }
+        this.sink = sink;
+        this.window = window;
+        this.maxPayloadLength = maxPayloadLength;
+        this.retransmitTimeoutMs = retransmitTimeoutMs;
+        // A power of two number of slots divides the 16 bit sequence space, so slots stay
+        // contiguous across the wrap.
+        int slots = Integer.highestOneBit(window * 2 - 1);
+        slotMask = slots - 1;
+        int frameLength = CustomPacketEncoder.encodedLength(maxPayloadLength);
+        frames = new byte[slots][frameLength];
+        frameLengths = new int[slots];
+        sentAt = new long[slots];
+        acked = new boolean[slots];
+    }
+
+    /**
+     * Queue {@code payload} for delivery and send it right away if the window has room.
+     */
+    public synchronized void send(byte[] payload, long nowMs) {
+        if (payload.length > maxPayloadLength) {
+            throw new IllegalArgumentException("Payload too long: " + payload.length);
+        }
+        clockMs = nowMs;
+        pending.add(payload);
+        pump();
+    }
+
+    /**
+     * Handle an ack frame. Frames of any other kind are ignored.
+     */
+    @Override
+    public synchronized void onFrame(byte[] frame, int offset, int length) {
+        if (length < CustomPacketEncoder.HEAD_LENGTH + 4
+                || frame[offset] != (byte) CustomPacket.HEAD_CHANNEL_SBM_TO_WATCH
+                || frame[offset + 1] != (byte) CustomPacket.HEAD_MSG_ACK) {
+            return;
+        }
+        int cumulative = ((frame[offset + 4] & 0xFF) << 8) | (frame[offset + 5] & 0xFF);
+        int p = offset + CustomPacketEncoder.HEAD_LENGTH;
+        int bitmap = ((frame[p] & 0xFF) << 24) | ((frame[p + 1] & 0xFF) << 16)
+                | ((frame[p + 2] & 0xFF) << 8) | (frame[p + 3] & 0xFF);
+
+        int advance = (cumulative - base) & CustomPacket.MAX_SEQ_NUMBER;
+        if (advance > inFlight) {
+            // Stale ack from before the current window, nothing new in it.
+            return;
+        }
+        for (int i = 0; i < advance; i++) {
+            acked[slot(base)] = false;
+            base = (base + 1) & CustomPacket.MAX_SEQ_NUMBER;
+        }
+        inFlight -= advance;
+        for (int i = 0; i < inFlight - 1 && i < 32; i++) {
+            if ((bitmap & (1 << i)) != 0) {
+                acked[slot(base + 1 + i)] = true;
+            }
+        }
+        pump();
+    }
+
+    /**
+     * Resend every frame whose retransmission timeout expired.
+     */
+    public synchronized void onTimer(long nowMs) {
+        clockMs = nowMs;
+        for (int i = 0; i < inFlight; i++) {
+            int s = slot(base + i);
+            if (!acked[s] && nowMs - sentAt[s] >= retransmitTimeoutMs) {
+                sentAt[s] = nowMs;
+                retransmissions++;
+                sink.send(frames[s], 0, frameLengths[s]);
+            }
+        }
+        pump();
+    }
+
+    /**
+     * Frames sent but not acknowledged yet.
+     */
+    public synchronized int inFlight() {
+        return inFlight;
+    }
+
+    /**
+     * Payloads waiting for room in the window.
+     */
+    public synchronized int pending() {
+        return pending.size();
+    }
+
+    public synchronized long retransmissions() {
+        return retransmissions;
+    }
+
+    public synchronized boolean isIdle() {
+        return inFlight == 0 && pending.isEmpty();
+    }
+
+    private void pump() {
+        while (inFlight < window && !pending.isEmpty()) {
+            byte[] payload = pending.poll();
+            int s = slot(nextSeq);
+            frameLengths[s] = CustomPacketEncoder.encode((byte) CustomPacket.HEAD_CHANNEL_WATCH_TO_SBM,
+                    (byte) CustomPacket.HEAD_MSG_NUMBER, nextSeq, payload, 0, payload.length, frames[s], 0);
+            sentAt[s] = clockMs;
+            acked[s] = false;
+            nextSeq = (nextSeq + 1) & CustomPacket.MAX_SEQ_NUMBER;
+            inFlight++;
+            sink.send(frames[s], 0, frameLengths[s]);
+        }
+    }
+
+    private int slot(int seq) {
+        return seq & slotMask;
+    }
+
+    @Override
+    public String toString() {
+        return "ReliableSender{base=" + base + ", inFlight=" + inFlight + ", pending=" + pending.size()
+                + ", retransmissions=" + retransmissions + '}';
+    }
+}
@@ -0,0 +1,44 @@
+package com.sample.ble.library;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hands out {@link CustomPacket} sequence numbers for one channel, wrapping after
+ * {@link CustomPacket#MAX_SEQ_NUMBER}.
+ * <p>
+ * Lock free: concurrent builders on the same channel never get the same number within one
+ * 65536 wide window, and builders on different channels do not touch each other at all.
+ */
+public class SequenceAllocator {
+    private static final int SEQ_MASK = CustomPacket.MAX_SEQ_NUMBER;
+
+    private final AtomicInteger counter;
+
+    public SequenceAllocator() {
+        this(0);
+    }
+
+    public SequenceAllocator(int initial) {
+        counter = new AtomicInteger(initial & SEQ_MASK);
+    }
+
+    /**
+     * Return the next sequence number, in the range 0..{@link CustomPacket#MAX_SEQ_NUMBER}.
+     */
+    public int next() {
+        // MAX_SEQ_NUMBER + 1 is a power of two, so masking the raw counter wraps correctly even
+        // when the int itself overflows.
+        return counter.getAndIncrement() & SEQ_MASK;
+    }
+
+    /**
+     * Return the number the next call to {@link #next()} will hand out.
+     */
+    public int peek() {
+        return counter.get() & SEQ_MASK;
+    }
+
+    public void reset() {
+        counter.set(0);
+    }
+}
@@ -0,0 +1,229 @@
+package com.sample.ble.library;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BiConsumer;
+
+/**
+ * Streams a ByteBuffer or InputStream as raw segments, meant for writes without response.
+ * <p>
+ * Every segment handed to the {@link SegmentWriter} takes a credit, its completion, i.e.
+ * onCharacteristicWrite, gives it back. Up to {@code credits} segments are in flight so the next
+ * one is always queued when the stack is ready for it, while the controller buffer never gets
+ * more than it accepts. The source is read ahead by at most {@code credits} segments, and their
+ * buffers are recycled.
+ * <p>
+ * The returned future completes with the achieved {@link Stats} once every segment was
+ * written, or exceptionally with the first failure, after which nothing more is sent.
+ */
+public class StreamWriter {
+    public static final int DEFAULT_CREDITS = 4;
+
+    public interface SegmentWriter {
+        /**
+         * Send {@code segment}, the array is not touched again until the future completes.
+         */
+        CompletableFuture<?> write(byte[] segment);
+    }
+
+    public static final class Stats {
+        private final long bytes;
+        private final int segments;
+        private final long elapsedNanos;
+
+        Stats(long bytes, int segments, long elapsedNanos) {
+            this.bytes = bytes;
+            this.segments = segments;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        public long bytes() {
+            return bytes;
+        }
+
+        public int segments() {
+            return segments;
+        }
+
+        public long elapsedNanos() {
+            return elapsedNanos;
+        }
+
+        public double bytesPerSecond() {
+            return elapsedNanos > 0 ? bytes * 1e9 / elapsedNanos : 0;
+        }
+
+        @Override
+        public String toString() {
+            return "Stats{bytes=" + bytes + ", segments=" + segments
+                    + ", elapsedMs=" + elapsedNanos / 1000000
+                    + ", bytesPerSecond=" + (long) bytesPerSecond() + "}";
+        }
+    }
+
+    private final SegmentWriter writer;
+    private final int segmentLength;
+    private final int credits;
+
+    public StreamWriter(SegmentWriter writer, int segmentLength) {
+        this(writer, segmentLength, DEFAULT_CREDITS);
+    }
+
+    /**
+     * @param segmentLength bytes per write, usually the ATT MTU minus 3.
+     * @param credits       writes in flight at most.
+     */
+    public StreamWriter(SegmentWriter writer, int segmentLength, int credits) {
+        if (segmentLength <= 0 || credits <= 0) {
+            throw new IllegalArgumentException("Bad segment length " + segmentLength + " / credits " + credits);
+        }
+        this.writer = writer;
+        this.segmentLength = segmentLength;
+        this.credits = credits;
+    }
+
+    /**
+     * Send the remaining bytes of {@code source}, its position advances as segments are read.
+     */
+    public CompletableFuture<Stats> write(final ByteBuffer source) {
+        Session session = new Session() {
+            @Override
+            int read(byte[] dst) {
+                int n = Math.min(dst.length, source.remaining());
+                source.get(dst, 0, n);
+                return n;
+            }
+        };
+        session.pump();
+        return session.future;
+    }
+
+    /**
+     * Send {@code source} until its end. The caller closes the stream.
+     */
+    public CompletableFuture<Stats> write(final InputStream source) {
+        Session session = new Session() {
+            @Override
+            int read(byte[] dst) throws IOException {
+                int n = 0;
+                while (n < dst.length) {
+                    int r = source.read(dst, n, dst.length - n);
+                    if (r < 0) {
+                        break;
+                    }
+                    n += r;
+                }
+                return n;
+            }
+        };
+        session.pump();
+        return session.future;
+    }
+
+    private abstract class Session {
+        final CompletableFuture<Stats> future = new CompletableFuture<>();
+        final Queue<byte[]> buffers = new ArrayDeque<>(credits);
+        final long start = System.nanoTime();
+        long bytes;
+        int segments;
+        int inFlight;
+        boolean eof;
+        boolean pumping;
+
+        /**
+         * Fill {@code dst} as far as possible, fewer bytes only at the end of the source.
+         */
+        abstract int read(byte[] dst) throws IOException;
+
+        void pump() {
+            synchronized (this) {
+                if (pumping) {
+                    // A completion on the pumping thread, the loop below picks its credit up.
+                    return;
+                }
+                pumping = true;
+            }
+            while (true) {
+                final byte[] buffer;
+                byte[] segment;
+                Stats done = null;
+                Throwable error = null;
+                synchronized (this) {
+                    if (future.isDone() || inFlight >= credits || eof) {
+                        if (!future.isDone() && eof && inFlight == 0) {
+                            done = new Stats(bytes, segments, System.nanoTime() - start);
+                        }
+                        pumping = false;
+                    }
+                    if (!pumping) {
+                        buffer = null;
+                        segment = null;
+                    } else {
+                        byte[] pooled = buffers.poll();
+                        buffer = pooled != null ? pooled : new byte[segmentLength];
+                        int n;
+                        try {
+                            n = read(buffer);
+                        } catch (IOException e) {
+                            n = -1;
+                            error = e;
+                            pumping = false;
+                        }
+                        if (n < segmentLength) {
+                            eof = true;
+                        }
+                        if (n <= 0) {
+                            buffers.add(buffer);
+                            segment = null;
+                        } else {
+                            segment = n == segmentLength ? buffer : Arrays.copyOf(buffer, n);
+                            inFlight++;
+                        }
+                    }
+                }
+                if (error != null) {
+                    future.completeExceptionally(error);
+                    return;
+                }
+                if (done != null) {
+                    future.complete(done);
+                    return;
+                }
+                if (buffer == null) {
+                    return;
+                }
+                if (segment == null) {
+                    continue;
+                }
+                final int length = segment.length;
+                writer.write(segment).whenComplete(new BiConsumer<Object, Throwable>() {
+                    @Override
+                    public void accept(Object result, Throwable failure) {
+                        onWritten(buffer, length, failure);
+                    }
+                });
+            }
+        }
+
+        void onWritten(byte[] buffer, int length, Throwable failure) {
+            synchronized (this) {
+                inFlight--;
+                if (failure == null) {
+                    bytes += length;
+                    segments++;
+                    buffers.add(buffer);
+                }
+            }
+            if (failure != null) {
+                future.completeExceptionally(failure);
+                return;
+            }
+            pump();
+        }
+    }
+}
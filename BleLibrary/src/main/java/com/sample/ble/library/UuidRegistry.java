@@ -0,0 +1,216 @@
+package com.sample.ble.library;
+
+import java.util.Arrays;
+import java.util.UUID;
+
+/**
+ * Maps the UUIDs an app cares about to small dense ids, so characteristic matching on every
+ * discovery, notification and send is an integer compare instead of {@code toString()} or
+ * {@code UUID.fromString()}.
+ * <p>
+ * 128-bit UUIDs are stored as two longs in an open addressing table, linear probing, at most half
+ * full. UUIDs built on the Bluetooth SIG base, {@code 0000xxxx-0000-1000-8000-00805f9b34fb}, take
+ * a fast path: they are keyed by their 16-bit short form in a separate int table. Registration
+ * copies the tables and is meant for setup time; lookups never lock nor allocate.
+ */
+public class UuidRegistry {
+    public static final int NOT_FOUND = -1;
+    /**
+     * Low 64 bits of the Bluetooth SIG base UUID.
+     */
+    public static final long SIG_BASE_LSB = 0x800000805F9B34FBL;
+    /**
+     * High 64 bits of the Bluetooth SIG base UUID, the short form goes in bits 32 to 47.
+     */
+    public static final long SIG_BASE_MSB = 0x0000000000001000L;
+    private static final long SHORT_MASK = 0x0000FFFF00000000L;
+    private static final int MIN_CAPACITY = 16;
+
+    /**
+     * Immutable snapshot, replaced on every registration. Empty slots hold id 0, others id + 1.
+     */
+    private static final class Table {
+        final long[] keys;
+        final int[] ids;
+        final int[] shortKeys;
+        final int[] shortIds;
+        final UUID[] uuids;
+
+        Table(long[] keys, int[] ids, int[] shortKeys, int[] shortIds, UUID[] uuids) {
+            this.keys = keys;
+            this.ids = ids;
+            this.shortKeys = shortKeys;
+            this.shortIds = shortIds;
+            this.uuids = uuids;
+        }
+    }
+
+    private volatile Table table = new Table(new long[MIN_CAPACITY * 2], new int[MIN_CAPACITY],
+            new int[MIN_CAPACITY], new int[MIN_CAPACITY], new UUID[0]);
+    private int longCount;
+    private int shortCount;
+
+    /**
+     * The SIG UUID of a 16-bit short form, e.g. 0x2902 for the Client Characteristic Configuration.
+     */
+    public static UUID fromShort(int shortUuid) {
+        checkShort(shortUuid);
+        return new UUID(SIG_BASE_MSB | ((long) shortUuid << 32), SIG_BASE_LSB);
+    }
+
+    /**
+     * @return the 16-bit short form, or {@link #NOT_FOUND} if {@code uuid} is not on the SIG base.
+     */
+    public static int toShort(UUID uuid) {
+        return toShort(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits());
+    }
+
+    public static int toShort(long msb, long lsb) {
+        if (lsb != SIG_BASE_LSB || (msb & ~SHORT_MASK) != SIG_BASE_MSB) {
+            return NOT_FOUND;
+        }
+        return (int) (msb >>> 32);
+    }
+
+    /**
+     * @return the id of {@code uuid}, the same one if it was registered before.
+     */
+    public synchronized int register(UUID uuid) {
+        int id = indexOf(uuid);
+        if (id != NOT_FOUND) {
+            return id;
+        }
+        Table t = table;
+        id = t.uuids.length;
+        UUID[] uuids = Arrays.copyOf(t.uuids, id + 1);
+        uuids[id] = uuid;
+        int shortUuid = toShort(uuid);
+        if (shortUuid != NOT_FOUND) {
+            int capacity = capacityFor(++shortCount, t.shortKeys.length);
+            int[] shortKeys = new int[capacity];
+            int[] shortIds = new int[capacity];
+            for (int i = 0; i < t.shortIds.length; i++) {
+                if (t.shortIds[i] != 0) {
+                    putShort(shortKeys, shortIds, t.shortKeys[i], t.shortIds[i]);
+                }
+            }
+            putShort(shortKeys, shortIds, shortUuid, id + 1);
+            table = new Table(t.keys, t.ids, shortKeys, shortIds, uuids);
+        } else {
+            int capacity = capacityFor(++longCount, t.ids.length);
+            long[] keys = new long[capacity * 2];
+            int[] ids = new int[capacity];
+            for (int i = 0; i < t.ids.length; i++) {
+                if (t.ids[i] != 0) {
+                    putLong(keys, ids, t.keys[2 * i], t.keys[2 * i + 1], t.ids[i]);
+                }
+            }
+            putLong(keys, ids, uuid.getMostSignificantBits(), uuid.getLeastSignificantBits(), id + 1);
+            table = new Table(keys, ids, t.shortKeys, t.shortIds, uuids);
+        }
+        return id;
+    }
+
+    public int registerShort(int shortUuid) {
+        return register(fromShort(shortUuid));
+    }
+
+    /**
+     * @return the id of {@code uuid} or {@link #NOT_FOUND}.
+     */
+    public int indexOf(UUID uuid) {
+        return indexOf(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits());
+    }
+
+    public int indexOf(long msb, long lsb) {
+        int shortUuid = toShort(msb, lsb);
+        if (shortUuid != NOT_FOUND) {
+            return indexOfShort(shortUuid);
+        }
+        Table t = table;
+        int mask = t.ids.length - 1;
+        for (int i = hash(msb, lsb) & mask; ; i = (i + 1) & mask) {
+            int id = t.ids[i];
+            if (id == 0) {
+                return NOT_FOUND;
+            }
+            if (t.keys[2 * i] == msb && t.keys[2 * i + 1] == lsb) {
+                return id - 1;
+            }
+        }
+    }
+
+    public int indexOfShort(int shortUuid) {
+        Table t = table;
+        int mask = t.shortIds.length - 1;
+        for (int i = hashShort(shortUuid) & mask; ; i = (i + 1) & mask) {
+            int id = t.shortIds[i];
+            if (id == 0) {
+                return NOT_FOUND;
+            }
+            if (t.shortKeys[i] == shortUuid) {
+                return id - 1;
+            }
+        }
+    }
+
+    /**
+     * The UUID registered as {@code id}, the same instance every time.
+     */
+    public UUID get(int id) {
+        UUID[] uuids = table.uuids;
+        if (id < 0 || id >= uuids.length) {
+            throw new IllegalArgumentException("Bad id: " + id);
+        }
+        return uuids[id];
+    }
+
+    public int size() {
+        return table.uuids.length;
+    }
+
+    private static void checkShort(int shortUuid) {
+        if (shortUuid < 0 || shortUuid > 0xFFFF) {
+            throw new IllegalArgumentException("Bad short UUID: " + shortUuid);
+        }
+    }
+
+    // At most half full so probe sequences stay short.
+    private static int capacityFor(int count, int capacity) {
+        while (count * 2 > capacity) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+
+    private static void putLong(long[] keys, int[] ids, long msb, long lsb, int id) {
+        int mask = ids.length - 1;
+        int i = hash(msb, lsb) & mask;
+        while (ids[i] != 0) {
+            i = (i + 1) & mask;
+        }
+        keys[2 * i] = msb;
+        keys[2 * i + 1] = lsb;
+        ids[i] = id;
+    }
+
+    private static void putShort(int[] keys, int[] ids, int shortUuid, int id) {
+        int mask = ids.length - 1;
+        int i = hashShort(shortUuid) & mask;
+        while (ids[i] != 0) {
+            i = (i + 1) & mask;
+        }
+        keys[i] = shortUuid;
+        ids[i] = id;
+    }
+
+    private static int hash(long msb, long lsb) {
+        long h = (msb ^ (lsb * 0x9E3779B97F4A7C15L)) * 0xC2B2AE3D27D4EB4FL;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    private static int hashShort(int shortUuid) {
+        int h = shortUuid * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,760 @@
+package com.sample.ble.library.utils;
+
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCallback;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattDescriptor;
+import android.bluetooth.BluetoothGattService;
+import android.bluetooth.BluetoothProfile;
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.sample.ble.library.ChannelMultiplexer;
+import com.sample.ble.library.CommandDispatcher;
+import com.sample.ble.library.CustomPacket;
+import com.sample.ble.library.CustomPacketDecoder;
+import com.sample.ble.library.CustomPacketView;
+import com.sample.ble.library.FrameBatcher;
+import com.sample.ble.library.FrameSink;
+import com.sample.ble.library.GattException;
+import com.sample.ble.library.GattOperationQueue;
+import com.sample.ble.library.NotificationPublisher;
+import com.sample.ble.library.NotificationRouter;
+import com.sample.ble.library.PacketSegmenter;
+import com.sample.ble.library.StreamWriter;
+import com.sample.ble.library.UuidRegistry;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.function.BiConsumer;
+
+/**
+ * 与一个BLE设备的连接, 拥有自己的BluetoothGatt, 特征, GATT操作队列和监听器.
+ * 由{@link BleConnectionManager}创建和管理, 多个连接之间互不影响.
+ */
+public class BleConnection {
+    private static final String TAG = "BleConnection";
+    private static final UUID descriptorUUID = UuidRegistry.fromShort(0x2902);//BLE设备特性的UUID
+
+    public interface Listener {
+        void onConnecting(BleConnection connection); //设备连接中
+
+        void onConnected(BleConnection connection); //设备的连接
+
+        void onDisConnecting(BleConnection connection); //设备断开中
+
+        void onDisConnected(BleConnection connection); //设备断开连接, 或连接失败
+
+        void onStrength(BleConnection connection, int strength); //设备强度
+
+        void onModel(BleConnection connection, int model); //设备模式
+
+        void onPacket(BleConnection connection, CustomPacketView packet); //收到完整的CustomPacket帧, 只在回调期间有效
+
+        void onConnectionParameters(BleConnection connection, ConnectionTuner.Parameters parameters); //连接参数生效或被对端修改
+    }
+
+    private final Context mContext;
+    private final BluetoothDevice mDevice;
+    private final Listener mListener;
+    private final BleConnectionManager mManager;
+
+    private volatile BluetoothGatt mGatt;
+    private volatile int mState = BluetoothProfile.STATE_DISCONNECTED;
+    //连接尝试的序号, 超时只作用于发起它的那次尝试
+    private volatile int mAttempt;
+    //连上过一次之后, 非用户发起的断开由BleConnectionManager自动重连
+    private volatile boolean mEverConnected;
+    private volatile boolean mUserDisconnect;
+    private volatile BluetoothGattCharacteristic character1;
+    private volatile BluetoothGattCharacteristic character2;
+
+    //所有GATT操作串行执行, 同一时间只有一个未完成的操作, 否则系统会静默丢弃
+    private final GattOperationQueue mGattQueue;
+    //连接后协商MTU, PHY和连接优先级
+    private final ConnectionTuner mTuner;
+    private volatile ConnectionTuner.Policy mConnectionPolicy = ConnectionTuner.Policy.INTERACTIVE;
+    //上次连接时解析的特征位置, 没有连接过时为null
+    private volatile GattCache.Entry mCached;
+
+    private final PacketSegmenter mSegmenter = new PacketSegmenter();
+    private final Queue<byte[]> mPendingSegments = new ArrayDeque<>();
+
+    //接收CustomPacket帧, 复用同一个view, 不分配内存. 最大帧长与PacketSegmenter发出的一致
+    private final CustomPacketView mPacketView = new CustomPacketView();
+    private final CustomPacketDecoder mDecoder = new CustomPacketDecoder(new CustomPacketDecoder.Listener() {
+        @Override
+        public void onFrame(byte[] frame, int offset, int length) {
+            ChannelMultiplexer multiplexer = mMultiplexer;
+            if (multiplexer != null) {
+                multiplexer.onFrame(frame, offset, length);
+            }
+            mListener.onPacket(BleConnection.this, mPacketView.wrap(frame, offset, length));
+        }
+    }, CustomPacketDecoder.MAX_FRAME_LENGTH);
+
+    //非CustomPacket的命令通知
+    private final CommandDispatcher mCommands;
+
+    //按特征订阅的通知
+    private final NotificationRouter mNotifications;
+
+    //可选的逻辑通道复用, 多个通道共享character1/character2, 按优先级和权重调度写入
+    private volatile ChannelMultiplexer mMultiplexer;
+
+    //可选的命令合并发送, 为null时每条命令单独写入. 断开时丢弃, 重连时按mBatching重建
+    private volatile FrameBatcher mBatcher;
+    private volatile boolean mBatching;
+    private volatile long mBatchDelayMs;
+    //合并的命令在主线程发出
+    private final Handler mBatchHandler;
+    private final Runnable mFlushBatch = new Runnable() {
+        @Override
+        public void run() {
+            FrameBatcher batcher = mBatcher;
+            if (batcher != null) {
+                batcher.flush();
+            }
+        }
+    };
+
+    BleConnection(Context context, BluetoothDevice device, Listener listener, BleConnectionManager manager,
+                  ScheduledExecutorService timer, Executor commandExecutor) {
+        mContext = context;
+        mDevice = device;
+        mListener = listener;
+        mManager = manager;
+        mGattQueue = new GattOperationQueue(timer);
+        mCommands = new CommandDispatcher(commandExecutor);
+        final Handler mainHandler = new Handler(Looper.getMainLooper());
+        mBatchHandler = mainHandler;
+        mNotifications = new NotificationRouter(BleUtil.UUIDS, new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                mainHandler.post(command);
+            }
+        });
+        registerCommands();
+        mTuner = new ConnectionTuner(mGattQueue, new ConnectionTuner.Listener() {
+            @Override
+            public void onParametersChanged(BluetoothGatt gatt, ConnectionTuner.Parameters parameters) {
+                mListener.onConnectionParameters(BleConnection.this, parameters);
+            }
+        });
+    }
+
+    public BluetoothDevice getDevice() {
+        return mDevice;
+    }
+
+    public String getAddress() {
+        return mDevice.getAddress();
+    }
+
+    //BluetoothProfile.STATE_*
+    public int getState() {
+        return mState;
+    }
+
+    public boolean isReady() {
+        return mState == BluetoothProfile.STATE_CONNECTED && character1 != null;
+    }
+
+    //由BleConnectionManager在有空闲的连接名额时调用, 重连时autoConnect见ReconnectEngine. 返回这次尝试的序号
+    int connect(boolean autoConnect) {
+        int attempt = ++mAttempt;
+        mState = BluetoothProfile.STATE_CONNECTING;
+        mListener.onConnecting(this);
+        // 每次尝试都新建BluetoothGatt, status 133之后旧的client通常已经不能再用
+        mGatt = mDevice.connectGatt(mContext, autoConnect, mGattCallback, BluetoothDevice.TRANSPORT_LE);
+        if (mGatt == null) {
+            onClosed(BluetoothGatt.GATT_FAILURE);
+        }
+        return attempt;
+    }
+
+    //连上过, 断开后可以自动重连
+    boolean wasConnected() {
+        return mEverConnected;
+    }
+
+    //断开连接, 结果在onDisConnected中返回, 不会自动重连
+    public void disconnect() {
+        mUserDisconnect = true;
+        BluetoothGatt gatt = mGatt;
+        if (gatt == null) {
+            return;
+        }
+        if (mState == BluetoothProfile.STATE_CONNECTED) {
+            gatt.disconnect();
+        } else {
+            // 还没有连上, 不会再有onConnectionStateChange回调
+            close(BluetoothGatt.GATT_SUCCESS);
+        }
+    }
+
+    //立即关闭, 不再有回调, 由BleConnectionManager.close调用
+    void release() {
+        mUserDisconnect = true;
+        close(BluetoothGatt.GATT_SUCCESS);
+    }
+
+    //连接超时, 按连接失败处理
+    void abort(int attempt) {
+        if (attempt == mAttempt && mState == BluetoothProfile.STATE_CONNECTING && mGatt != null) {
+            close(BluetoothGatt.GATT_FAILURE);
+        }
+    }
+
+    //返回中央的状态和周边提供的数据
+    private final BluetoothGattCallback mGattCallback = new BluetoothGattCallback() {
+
+        @Override
+        public void onConnectionStateChange(BluetoothGatt gatt, int status,
+                                            int newState) {
+            Log.e(TAG, getAddress() + " onConnectionStateChange " + status + " -> " + newState);
+            switch (newState) {
+                case BluetoothProfile.STATE_CONNECTED:
+                    Log.e(TAG, "STATE_CONNECTED");
+                    mState = newState;
+                    mEverConnected = true;
+                    mManager.onConnectAttemptFinished(BleConnection.this);
+                    if (mBatching) {
+                        mBatcher = newBatcher();
+                    }
+                    if (mCached != null) {
+                        //缓存命中: 服务发现排在最前, onConnected里发的命令紧随其后, MTU和PHY协商放到最后
+                        discoverServices();
+                        mListener.onConnected(BleConnection.this);
+                        mTuner.tune(gatt, mConnectionPolicy);
+                    } else {
+                        mListener.onConnected(BleConnection.this);
+                        mTuner.tune(gatt, mConnectionPolicy);
+                        discoverServices(); //搜索连接设备所支持的service
+                    }
+                    break;
+                case BluetoothProfile.STATE_DISCONNECTED:
+                    close(status);
+                    Log.e(TAG, "STATE_DISCONNECTED");
+                    break;
+                case BluetoothProfile.STATE_CONNECTING:
+                    mState = newState;
+                    mListener.onConnecting(BleConnection.this);
+                    Log.e(TAG, "STATE_CONNECTING");
+                    break;
+                case BluetoothProfile.STATE_DISCONNECTING:
+                    mState = newState;
+                    mListener.onDisConnecting(BleConnection.this);
+                    Log.e(TAG, "STATE_DISCONNECTING");
+                    break;
+            }
+            super.onConnectionStateChange(gatt, status, newState);
+        }
+
+        @Override
+        public void onServicesDiscovered(BluetoothGatt gatt, int status) {
+            Log.d(TAG, "onServicesDiscovered");
+            if (status == BluetoothGatt.GATT_SUCCESS) {
+                resolveCharacteristics(gatt);
+            }
+            //在解析特征之后完成, 排在服务发现之后的命令开始时character1已经就绪
+            mGattQueue.onComplete(GattOperationQueue.OP_DISCOVER_SERVICES, status, null);
+            super.onServicesDiscovered(gatt, status);
+        }
+
+        @Override
+        public void onCharacteristicRead(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, int status) {
+            Log.e(TAG, "onCharacteristicRead");
+            mGattQueue.onComplete(GattOperationQueue.OP_READ_CHARACTERISTIC, status, characteristic.getValue());
+            super.onCharacteristicRead(gatt, characteristic, status);
+        }
+
+        @Override
+        public void onCharacteristicWrite(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, int status) {
+            Log.e(TAG, "onCharacteristicWrite");
+            mGattQueue.onComplete(GattOperationQueue.OP_WRITE_CHARACTERISTIC, status, null);
+            super.onCharacteristicWrite(gatt, characteristic, status);
+        }
+
+        @Override
+        public void onMtuChanged(BluetoothGatt gatt, int mtu, int status) {
+            Log.e(TAG, "onMtuChanged:" + mtu);
+            mTuner.onMtuChanged(gatt, mtu, status);
+            if (status == BluetoothGatt.GATT_SUCCESS) {
+                mSegmenter.onMtuChanged(getAddress(), mtu);
+                int maxFrameLength = mSegmenter.getMaxSegmentLength(getAddress());
+                FrameBatcher batcher = mBatcher;
+                if (batcher != null) {
+                    batcher.setMaxFrameLength(maxFrameLength);
+                }
+                ChannelMultiplexer multiplexer = mMultiplexer;
+                if (multiplexer != null) {
+                    multiplexer.setMaxFrameLength(maxFrameLength);
+                }
+            }
+            super.onMtuChanged(gatt, mtu, status);
+        }
+
+        @Override
+        public void onPhyUpdate(BluetoothGatt gatt, int txPhy, int rxPhy, int status) {
+            Log.e(TAG, "onPhyUpdate:" + txPhy + "/" + rxPhy);
+            mTuner.onPhyUpdate(gatt, txPhy, rxPhy, status);
+            super.onPhyUpdate(gatt, txPhy, rxPhy, status);
+        }
+
+        @Override
+        public void onDescriptorWrite(BluetoothGatt gatt, BluetoothGattDescriptor descriptor, int status) {
+            Log.e(TAG, "onDescriptorWrite");
+            mGattQueue.onComplete(GattOperationQueue.OP_WRITE_DESCRIPTOR, status, null);
+            super.onDescriptorWrite(gatt, descriptor, status);
+        }
+
+        @Override
+        public void onCharacteristicChanged(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic) {
+            Log.e(TAG, "onCharacteristicChanged");
+//            这里是可以监听到设备自身或者手机改变设备的一些数据修改h通知
+            byte[] value = characteristic.getValue();
+            mNotifications.publish(characteristic.getUuid(), value);
+            //按每条通知的通道字节分流, 未完成的帧只接收它的后续分段, 期间收到的命令照常交给CommandDispatcher
+            if (mDecoder.accepts(value, 0, value.length, mSegmenter.getMaxSegmentLength(getAddress()))) {
+                mDecoder.feed(value);
+            } else {
+                receiveData(characteristic);
+            }
+            super.onCharacteristicChanged(gatt, characteristic);
+        }
+    };
+
+    //先按缓存直接取特征, 服务表变了或者没有缓存时遍历所有特征并更新缓存
+    private void resolveCharacteristics(BluetoothGatt gatt) {
+        List<BluetoothGattService> serviceList = gatt.getServices();
+        long hash = GattCache.databaseHash(serviceList);
+        int id1 = BleUtil.getCharacterId1();
+        int id2 = BleUtil.getCharacterId2();
+        GattCache.Entry cached = mCached;
+        if (cached != null && cached.getDatabaseHash() == hash) {
+            character1 = getCharacteristic(gatt, cached.getWriteService(), BleUtil.UUIDS.get(id1));
+            character2 = getCharacteristic(gatt, cached.getNotifyService(), BleUtil.UUIDS.get(id2));
+        }
+        if (character1 == null && character2 == null) {
+            for (int i = 0; i < serviceList.size(); i++) {
+                BluetoothGattService theService = serviceList.get(i);
+
+                Log.e(TAG, "ServiceName:" + theService.getUuid());
+                List<BluetoothGattCharacteristic> characterList = theService.getCharacteristics();
+                for (int j = 0; j < characterList.size(); j++) {
+                    UUID uuid = characterList.get(j).getUuid();
+                    Log.e(TAG, "---CharacterName:" + uuid);
+                    int id = BleUtil.UUIDS.indexOf(uuid);
+                    if (id == id1) {
+                        character1 = characterList.get(j);
+                    } else if (id == id2) {
+                        character2 = characterList.get(j);
+                    }
+                }
+            }
+            if (character1 != null || character2 != null) {
+                mManager.getGattCache().put(getAddress(), new GattCache.Entry(hash,
+                        character1 != null ? character1.getService().getUuid() : null,
+                        character2 != null ? character2.getService().getUuid() : null));
+            } else if (cached != null) {
+                mManager.getGattCache().remove(getAddress());
+            }
+        } else {
+            Log.d(TAG, getAddress() + " resolved from cache");
+        }
+        if (character2 != null) {
+            setNotification();
+        }
+    }
+
+    private static BluetoothGattCharacteristic getCharacteristic(BluetoothGatt gatt, UUID service, UUID uuid) {
+        if (service == null) {
+            return null;
+        }
+        BluetoothGattService theService = gatt.getService(service);
+        return theService != null ? theService.getCharacteristic(uuid) : null;
+    }
+
+    /**
+     * 特征的通知流, 订阅者用request控制接收的数量, 缓冲区满时按{@link NotificationPublisher.Strategy}处理.
+     * 默认在主线程回调. 自动重连期间保持订阅, 用户断开后结束.
+     */
+    public NotificationPublisher getNotifications(UUID characteristic) {
+        return mNotifications.get(characteristic);
+    }
+
+    //获取设备指定的特征中的特性,其中对其进行监听, setCharacteristicNotification与上面的回调onCharacteristicChanged进行一一搭配
+    private void setNotification() {
+        mGatt.setCharacteristicNotification(character2, true);
+        BluetoothGattDescriptor descriptor = character2.getDescriptor(descriptorUUID);
+        if (descriptor == null) {
+            //没有CCCD, 设备不支持开启通知
+            Log.e(TAG, getAddress() + " 特征没有通知描述符: " + character2.getUuid());
+            return;
+        }
+        writeDescriptor(descriptor, BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE);
+    }
+
+    //按命令注册的处理器, 新的设备命令在这里注册, 不需要改receiveData
+    private void registerCommands() {
+        mCommands.register(1, new CommandDispatcher.CommandHandler() {
+            @Override
+            public void onCommand(int command, byte[] value, int length) {
+                if (length >= 2) {
+                    mListener.onStrength(BleConnection.this, value[1]);
+                    Log.e(TAG, "手机通知BLE设备强度:" + value[1]);
+                }
+            }
+        });
+        mCommands.register(2, new CommandDispatcher.CommandHandler() {
+            @Override
+            public void onCommand(int command, byte[] value, int length) {
+                if (length >= 2) {
+                    mListener.onModel(BleConnection.this, value[1]);
+                    Log.e(TAG, "工作模式:" + value[1]);
+                }
+            }
+        });
+        mCommands.register(3, new CommandDispatcher.CommandHandler() {
+            @Override
+            public void onCommand(int command, byte[] value, int length) {
+                if (length >= 2) {
+                    mListener.onStrength(BleConnection.this, value[1]);
+                    Log.e(TAG, "设备自身通知改变强度:" + value[1]);
+                }
+            }
+        });
+    }
+
+    //接收数据, 复制后交给命令处理线程, 不占用GATT回调线程
+    private void receiveData(BluetoothGattCharacteristic ch) {
+        if (!mCommands.dispatch(ch.getValue())) {
+            Log.e(TAG, "未处理的命令");
+        }
+    }
+
+    /**
+     * 命令处理器注册表, 用{@link CommandDispatcher#register}添加设备命令,
+     * 用{@link CommandDispatcher#setExecutor}指定处理器运行的线程, 默认是所有连接共用的一个后台线程.
+     */
+    public CommandDispatcher getCommandDispatcher() {
+        return mCommands;
+    }
+
+    //发送进入工作模式请求
+    public void sendWorkModel() {
+        FrameBatcher batcher = mBatcher;
+        if (batcher != null) {
+            sendBatched(batcher, BleUtil.workModel);
+        } else {
+            writeCommand(BleUtil.workModel);
+        }
+    }
+
+    //发送强度
+    public void sendStrength(int strength) {
+        byte[] strengthModel = {0x01, (byte) strength};
+        FrameBatcher batcher = mBatcher;
+        if (batcher != null) {
+            sendBatched(batcher, strengthModel);
+        } else {
+            writeCommand(strengthModel);
+        }
+    }
+
+    /**
+     * 写特征值, 排队等待之前的GATT操作完成. 值在真正写入时才设置到characteristic上.
+     * 返回的future在onCharacteristicWrite中完成, 超时为{@link GattOperationQueue#DEFAULT_TIMEOUT_MS}.
+     */
+    public CompletableFuture<Void> writeCharacteristic(BluetoothGattCharacteristic characteristic, byte[] value) {
+        return writeCharacteristic(characteristic, value, BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT);
+    }
+
+    //writeType: WRITE_TYPE_DEFAULT需要设备应答, WRITE_TYPE_NO_RESPONSE在交给控制器后即完成
+    public CompletableFuture<Void> writeCharacteristic(final BluetoothGattCharacteristic characteristic,
+                                                      final byte[] value, final int writeType) {
+        return mGattQueue.enqueue(new GattOperationQueue.Operation<Void>(GattOperationQueue.OP_WRITE_CHARACTERISTIC) {
+            @Override
+            protected boolean start() {
+                BluetoothGatt gatt = mGatt;
+                if (gatt == null || !characteristic.setValue(value)) {
+                    return false;
+                }
+                characteristic.setWriteType(writeType);
+                return gatt.writeCharacteristic(characteristic);
+            }
+        });
+    }
+
+    //写命令, character1在真正写入时才取. 缓存命中时服务发现已经排在前面, 连上之后就可以排队
+    private void writeCommand(final byte[] value) {
+        if (character1 == null && (mCached == null || mState != BluetoothProfile.STATE_CONNECTED)) {
+            return;
+        }
+        mGattQueue.enqueue(new GattOperationQueue.Operation<Void>(GattOperationQueue.OP_WRITE_CHARACTERISTIC) {
+            @Override
+            protected boolean start() {
+                BluetoothGatt gatt = mGatt;
+                BluetoothGattCharacteristic characteristic = character1;
+                if (gatt == null || characteristic == null || !characteristic.setValue(value)) {
+                    return false;
+                }
+                characteristic.setWriteType(BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT);
+                return gatt.writeCharacteristic(characteristic);
+            }
+        });
+    }
+
+    //读特征值, future在onCharacteristicRead中完成
+    public CompletableFuture<byte[]> readCharacteristic(final BluetoothGattCharacteristic characteristic) {
+        return mGattQueue.enqueue(new GattOperationQueue.Operation<byte[]>(GattOperationQueue.OP_READ_CHARACTERISTIC) {
+            @Override
+            protected boolean start() {
+                BluetoothGatt gatt = mGatt;
+                return gatt != null && gatt.readCharacteristic(characteristic);
+            }
+        });
+    }
+
+    //写描述符, future在onDescriptorWrite中完成
+    public CompletableFuture<Void> writeDescriptor(final BluetoothGattDescriptor descriptor, final byte[] value) {
+        return mGattQueue.enqueue(new GattOperationQueue.Operation<Void>(GattOperationQueue.OP_WRITE_DESCRIPTOR) {
+            @Override
+            protected boolean start() {
+                BluetoothGatt gatt = mGatt;
+                return gatt != null && descriptor.setValue(value) && gatt.writeDescriptor(descriptor);
+            }
+        });
+    }
+
+    //搜索服务, future在onServicesDiscovered中完成
+    public CompletableFuture<Void> discoverServices() {
+        return mGattQueue.enqueue(new GattOperationQueue.Operation<Void>(GattOperationQueue.OP_DISCOVER_SERVICES) {
+            @Override
+            protected boolean start() {
+                BluetoothGatt gatt = mGatt;
+                return gatt != null && gatt.discoverServices();
+            }
+        });
+    }
+
+    /**
+     * 连接参数策略, 在下次连接成功后生效: {@link ConnectionTuner.Policy#BULK}大数据传输,
+     * {@link ConnectionTuner.Policy#INTERACTIVE}低延迟(默认), {@link ConnectionTuner.Policy#LOW_POWER}省电.
+     * 已连接时立即重新协商.
+     */
+    public void setConnectionPolicy(ConnectionTuner.Policy policy) {
+        mConnectionPolicy = policy;
+        BluetoothGatt gatt = mGatt;
+        if (gatt != null && isReady()) {
+            mTuner.tune(gatt, policy);
+        }
+    }
+
+    //当前生效的连接参数
+    public ConnectionTuner.Parameters getConnectionParameters() {
+        return mTuner.getParameters();
+    }
+
+    //请求更大的MTU, future在onMtuChanged中以协商后的MTU完成
+    public CompletableFuture<Integer> requestMtu(final int mtu) {
+        return mGattQueue.enqueue(new GattOperationQueue.Operation<Integer>(GattOperationQueue.OP_REQUEST_MTU) {
+            @Override
+            protected boolean start() {
+                BluetoothGatt gatt = mGatt;
+                return gatt != null && gatt.requestMtu(mtu);
+            }
+        });
+    }
+
+    //按MTU分段发送CustomPacket, 每段在上一段onCharacteristicWrite之后写入
+    public void sendPacket(byte[] data) {
+        if (character1 == null) {
+            return;
+        }
+        enqueueWrites(mSegmenter.segment(getAddress(), CustomPacket.HEAD_CHANNEL_WATCH_TO_SBM, data));
+    }
+
+    /**
+     * 开启或关闭命令合并: 开启后sendWorkModel/sendStrength等短命令在delayMs内或达到MTU前合并为一个
+     * CustomPacket容器帧发送, 接收方用{@link FrameBatcher#unpack}拆分. 设置在重连后保持有效.
+     */
+    public void setBatching(boolean enable, long delayMs) {
+        FrameBatcher batcher = mBatcher;
+        mBatcher = null;
+        if (batcher != null) {
+            mBatchHandler.removeCallbacks(mFlushBatch);
+            batcher.flush();
+        }
+        mBatchDelayMs = delayMs;
+        mBatching = enable;
+        //没有连接时在连上后创建, 序号和MTU都属于当前连接
+        if (enable && mState == BluetoothProfile.STATE_CONNECTED) {
+            mBatcher = newBatcher();
+        }
+    }
+
+    private FrameBatcher newBatcher() {
+        return new FrameBatcher(new FrameSink() {
+            @Override
+            public void send(byte[] frame, int offset, int length) {
+                List<byte[]> writes = new ArrayList<>(1);
+                writes.add(Arrays.copyOfRange(frame, offset, offset + length));
+                enqueueWrites(writes);
+            }
+        }, CustomPacket.HEAD_CHANNEL_WATCH_TO_SBM, mSegmenter.getSequence(getAddress()),
+                mSegmenter.getMaxSegmentLength(getAddress()));
+    }
+
+    /**
+     * 使用逻辑通道复用: 之后{@link #sendOnChannel}的消息按通道优先级调度, 收到的帧同时交给multiplexer重组.
+     * 传null关闭. 帧长度应与MTU一致, 见{@link PacketSegmenter#getMaxSegmentLength}, MTU协商后会自动更新.
+     * 通道需在调用前注册.
+     */
+    public void setMultiplexer(ChannelMultiplexer multiplexer) {
+        //通道要在这之前注册, 解码器只接受已知通道的帧
+        if (multiplexer != null) {
+            for (int channel : multiplexer.getChannels()) {
+                mDecoder.addChannel(channel);
+            }
+        }
+        mMultiplexer = multiplexer;
+    }
+
+    //在指定逻辑通道上发送消息, 控制通道的消息不会排在大数据传输之后
+    public void sendOnChannel(int channel, byte[] message) {
+        ChannelMultiplexer multiplexer = mMultiplexer;
+        if (character1 == null || multiplexer == null) {
+            return;
+        }
+        multiplexer.offer(channel, message);
+        enqueueWrites(Collections.<byte[]>emptyList());
+    }
+
+    /**
+     * 以无应答写入的方式向character1流式发送数据, 每段为MTU-3字节, 最多{@link StreamWriter#DEFAULT_CREDITS}段同时在途.
+     * 返回的future以实际吞吐量完成.
+     */
+    public CompletableFuture<StreamWriter.Stats> stream(ByteBuffer source) {
+        return newStreamWriter().write(source);
+    }
+
+    //同上, 在GATT回调线程中读取source, 应当是本地文件或内存中的流
+    public CompletableFuture<StreamWriter.Stats> stream(InputStream source) {
+        return newStreamWriter().write(source);
+    }
+
+    private StreamWriter newStreamWriter() {
+        if (character1 == null) {
+            throw new IllegalStateException("Not connected");
+        }
+        final BluetoothGattCharacteristic characteristic = character1;
+        return new StreamWriter(new StreamWriter.SegmentWriter() {
+            @Override
+            public CompletableFuture<?> write(byte[] segment) {
+                return writeCharacteristic(characteristic, segment, BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE);
+            }
+        }, mSegmenter.getMaxSegmentLength(getAddress()));
+    }
+
+    private void sendBatched(FrameBatcher batcher, byte[] command) {
+        if (character1 != null && batcher.offer(command)) {
+            mBatchHandler.postDelayed(mFlushBatch, mBatchDelayMs);
+        }
+    }
+
+    private void enqueueWrites(List<byte[]> values) {
+        synchronized (mPendingSegments) {
+            boolean idle = mPendingSegments.isEmpty();
+            mPendingSegments.addAll(values);
+            if (idle && pollMultiplexer()) {
+                writeSegment(mPendingSegments.peek());
+            }
+        }
+    }
+
+    private void writeNextSegment() {
+        synchronized (mPendingSegments) {
+            if (mPendingSegments.poll() != null && pollMultiplexer()) {
+                writeSegment(mPendingSegments.peek());
+            }
+        }
+    }
+
+    //队列空时从multiplexer取下一帧, 返回是否有待写入的数据
+    private boolean pollMultiplexer() {
+        ChannelMultiplexer multiplexer = mMultiplexer;
+        if (mPendingSegments.isEmpty() && multiplexer != null) {
+            byte[] frame = multiplexer.poll();
+            if (frame != null) {
+                mPendingSegments.add(frame);
+            }
+        }
+        return !mPendingSegments.isEmpty();
+    }
+
+    //每段写完后再写下一段, 其他GATT操作可以插在两段之间
+    private void writeSegment(byte[] segment) {
+        writeCharacteristic(character1, segment).whenComplete(new BiConsumer<Void, Throwable>() {
+            @Override
+            public void accept(Void result, Throwable error) {
+                if (error != null) {
+                    Log.e(TAG, "writeSegment failed: " + error);
+                }
+                writeNextSegment();
+            }
+        });
+    }
+
+    //释放连接的所有资源, 之后这个对象不再使用
+    private void close(int status) {
+        BluetoothGatt gatt = mGatt;
+        if (gatt == null) {
+            return;
+        }
+        gatt.disconnect();
+        gatt.close();
+        mGatt = null;
+        character1 = null;
+        character2 = null;
+        if (mBatcher != null) {
+            mBatcher = null;
+            mBatchHandler.removeCallbacks(mFlushBatch);
+        }
+        mSegmenter.remove(getAddress());
+        mDecoder.reset();
+        if (mMultiplexer != null) {
+            mMultiplexer.clear();
+        }
+        synchronized (mPendingSegments) {
+            mPendingSegments.clear();
+        }
+        //排队中的GATT操作以失败结束, 放在清空分段之后, 避免回调里继续写下一段
+        mGattQueue.clear(new GattException("Disconnected", BluetoothGatt.GATT_FAILURE));
+        mTuner.reset();
+        onClosed(status);
+    }
+
+    private void onClosed(int status) {
+        mState = BluetoothProfile.STATE_DISCONNECTED;
+        if (mUserDisconnect) {
+            mNotifications.complete();
+        }
+        mManager.onConnectionClosed(this, status, mUserDisconnect);
+        mListener.onDisConnected(this);
+    }
+}
@@ -0,0 +1,244 @@
+package com.sample.ble.library.utils;
+
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothProfile;
+import android.content.Context;
+import android.util.Log;
+
+import com.sample.ble.library.ReconnectEngine;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 管理同时连接的多个BLE设备, 每个地址对应一个独立的{@link BleConnection}.
+ * <p>
+ * 控制器同时处理多个连接请求时容易失败(status 133), 所以同时进行中的连接请求最多
+ * {@link #getMaxConcurrentConnects()}个, 其余的排队, 在前一个连上/失败/超时后再发起.
+ * 已经建立的连接数不受这个限制.
+ */
+public class BleConnectionManager {
+    private static final String TAG = "BleConnectionManager";
+    public static final int DEFAULT_MAX_CONCURRENT_CONNECTS = 2;
+    //Android直连自身约30秒超时, 这里稍长一点作为兜底
+    public static final long CONNECT_TIMEOUT_MS = 35000;
+
+    private final Context mContext;
+    private final int mMaxConcurrentConnects;
+    //GATT操作超时和连接超时共用一个线程
+    private final ScheduledExecutorService mTimer = Executors.newSingleThreadScheduledExecutor();
+    //收到的命令在这个线程里处理, 按到达顺序, 不占用GATT回调线程
+    private final ExecutorService mCommandExecutor = Executors.newSingleThreadExecutor();
+    //服务发现结果的持久化缓存, 所有连接共用
+    private final GattCache mGattCache;
+    private final Map<String, BleConnection> mConnections = new ConcurrentHashMap<>();
+    private final Queue<BleConnection> mWaiting = new ArrayDeque<>();
+    private final Set<BleConnection> mConnecting = new HashSet<>();
+    //意外断开的设备按退避时间自动重连
+    private final ReconnectEngine mReconnect;
+    private volatile boolean mAutoReconnect = true;
+
+    public BleConnectionManager(Context context) {
+        this(context, DEFAULT_MAX_CONCURRENT_CONNECTS);
+    }
+
+    public BleConnectionManager(Context context, int maxConcurrentConnects) {
+        if (maxConcurrentConnects < 1) {
+            throw new IllegalArgumentException("Bad concurrent connects: " + maxConcurrentConnects);
+        }
+        mContext = context.getApplicationContext();
+        mMaxConcurrentConnects = maxConcurrentConnects;
+        mGattCache = new GattCache(mContext);
+        mReconnect = new ReconnectEngine(new ReconnectEngine.Connector() {
+            @Override
+            public void connect(String address, boolean autoConnect) {
+                reconnect(address, autoConnect);
+            }
+        }, new ReconnectEngine.Listener() {
+            @Override
+            public void onReconnectScheduled(String address, int attempt, long delayMs, boolean autoConnect) {
+                Log.d(TAG, "reconnect " + address + " #" + attempt + " in " + delayMs + " ms"
+                        + (autoConnect ? " (autoConnect)" : ""));
+            }
+
+            @Override
+            public void onReconnected(String address, int attempts, long downtimeMs) {
+                Log.d(TAG, "reconnected " + address + " after " + downtimeMs + " ms, " + attempts + " attempts");
+            }
+        }, mTimer);
+    }
+
+    public int getMaxConcurrentConnects() {
+        return mMaxConcurrentConnects;
+    }
+
+    /**
+     * 连接设备, 已经有这个地址的连接时直接返回它. 名额已满时排队, 状态通过listener返回.
+     */
+    public BleConnection connect(BluetoothDevice device, BleConnection.Listener listener) {
+        BleConnection connection;
+        synchronized (this) {
+            connection = mConnections.get(device.getAddress());
+            if (connection != null) {
+                return connection;
+            }
+            connection = new BleConnection(mContext, device, listener, this, mTimer, mCommandExecutor);
+            mConnections.put(device.getAddress(), connection);
+            mWaiting.add(connection);
+        }
+        startWaiting();
+        return connection;
+    }
+
+    //关闭后意外断开的设备不再自动重连, 正在重连的设备不受影响
+    public void setAutoReconnect(boolean autoReconnect) {
+        mAutoReconnect = autoReconnect;
+    }
+
+    public boolean isReconnecting(String address) {
+        return mReconnect.isReconnecting(address);
+    }
+
+    //重连次数和耗时
+    public ReconnectEngine.Metrics getReconnectMetrics() {
+        return mReconnect.getMetrics();
+    }
+
+    public GattCache getGattCache() {
+        return mGattCache;
+    }
+
+    public BleConnection get(String address) {
+        return mConnections.get(address);
+    }
+
+    public Collection<BleConnection> getConnections() {
+        return Collections.unmodifiableCollection(mConnections.values());
+    }
+
+    //断开指定设备, 还在排队或者等待重连的直接取消
+    public void disconnect(String address) {
+        mReconnect.cancel(address);
+        BleConnection connection = mConnections.get(address);
+        if (connection == null) {
+            return;
+        }
+        boolean idle;
+        synchronized (this) {
+            idle = mWaiting.remove(connection) || connection.getState() == BluetoothProfile.STATE_DISCONNECTED;
+            if (idle) {
+                mConnections.remove(address, connection);
+            }
+        }
+        if (!idle) {
+            connection.disconnect();
+        }
+    }
+
+    public void disconnectAll() {
+        for (String address : new ArrayList<>(mConnections.keySet())) {
+            disconnect(address);
+        }
+    }
+
+    //关闭所有连接, 不等待断开回调, 并停止超时和命令处理线程. 之后这个manager不能再使用
+    public void close() {
+        List<BleConnection> connections;
+        synchronized (this) {
+            mWaiting.clear();
+            connections = new ArrayList<>(mConnections.values());
+        }
+        mReconnect.cancelAll();
+        for (BleConnection connection : connections) {
+            connection.release();
+        }
+        mConnections.clear();
+        mTimer.shutdownNow();
+        mCommandExecutor.shutdown();
+    }
+
+    //连上或失败, 释放连接名额
+    void onConnectAttemptFinished(BleConnection connection) {
+        boolean released;
+        synchronized (this) {
+            released = mConnecting.remove(connection);
+        }
+        if (connection.getState() == BluetoothProfile.STATE_CONNECTED) {
+            mReconnect.onConnected(connection.getAddress());
+        }
+        if (released) {
+            startWaiting();
+        }
+    }
+
+    //用户断开的连接移除, 意外断开或重连失败的交给ReconnectEngine安排下一次尝试
+    void onConnectionClosed(BleConnection connection, int status, boolean userDisconnect) {
+        boolean reconnect = !userDisconnect && mAutoReconnect && connection.wasConnected();
+        synchronized (this) {
+            if (!reconnect) {
+                mConnections.remove(connection.getAddress(), connection);
+            }
+        }
+        onConnectAttemptFinished(connection);
+        if (reconnect) {
+            mReconnect.onDisconnected(connection.getAddress(), status);
+        } else {
+            mReconnect.cancel(connection.getAddress());
+        }
+    }
+
+    private void reconnect(String address, boolean autoConnect) {
+        BleConnection connection = mConnections.get(address);
+        if (connection == null || connection.getState() != BluetoothProfile.STATE_DISCONNECTED) {
+            return;
+        }
+        if (autoConnect) {
+            // 后台连接由控制器在设备出现时完成, 不占用连接名额, 也没有超时
+            Log.d(TAG, "autoConnect " + address);
+            connection.connect(true);
+            return;
+        }
+        synchronized (this) {
+            if (!mWaiting.contains(connection)) {
+                mWaiting.add(connection);
+            }
+        }
+        startWaiting();
+    }
+
+    private void startWaiting() {
+        List<BleConnection> starting = new ArrayList<>();
+        synchronized (this) {
+            while (mConnecting.size() < mMaxConcurrentConnects && !mWaiting.isEmpty()) {
+                BleConnection connection = mWaiting.poll();
+                mConnecting.add(connection);
+                starting.add(connection);
+            }
+        }
+        for (final BleConnection connection : starting) {
+            Log.d(TAG, "connect " + connection.getAddress());
+            final int attempt = connection.connect(false);
+            mTimer.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    if (connection.getState() == BluetoothProfile.STATE_CONNECTING) {
+                        Log.e(TAG, "connect timeout " + connection.getAddress());
+                        connection.abort(attempt);
+                    }
+                }
+            }, CONNECT_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+}
@@ -3,23 +3,30 @@ package com.sample.ble.library.utils;
 import android.app.Activity;
 import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothDevice;
-import android.bluetooth.BluetoothGatt;
-import android.bluetooth.BluetoothGattCallback;
-import android.bluetooth.BluetoothGattCharacteristic;
-import android.bluetooth.BluetoothGattDescriptor;
-import android.bluetooth.BluetoothGattService;
 import android.bluetooth.BluetoothManager;
-import android.bluetooth.BluetoothProfile;
 import android.content.Context;
 import android.content.pm.PackageManager;
 import android.os.Handler;
 import android.util.Log;
 import android.widget.Toast;
 
+import com.sample.ble.library.ChannelMultiplexer;
+import com.sample.ble.library.CustomPacketView;
+import com.sample.ble.library.NotificationPublisher;
+import com.sample.ble.library.StreamWriter;
+import com.sample.ble.library.UuidRegistry;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 
+/**
+ * 单设备的简化接口: 扫描, 连接一个设备并收发命令. 连接本身由{@link BleConnectionManager}管理,
+ * 需要同时连接多个设备时直接使用{@link #getConnectionManager()}.
+ */
 public class BleUtil {
 
     private static final String TAG = "BleUtil";
@@ -27,28 +34,106 @@ public class BleUtil {
 
     public static String characterUUID1 = "0000fff2-0000-1000-8000-00805f9b34fb";//APP发送命令
     public static String characterUUID2 = "0000fff1-0000-1000-8000-00805f9b34fb";//BLE用于回复命令
-    private static String descriptorUUID = "00002902-0000-1000-8000-00805f9b34fb";//BLE设备特性的UUID
 
     public static byte[] workModel = {0x02, 0x01};
 
+    //库内用到的UUID, 发现服务和收发时按id比较, 不解析字符串
+    public static final UuidRegistry UUIDS = new UuidRegistry();
+    private static String sCharacterUUID1;
+    private static String sCharacterUUID2;
+    private static int sCharacterId1;
+    private static int sCharacterId2;
+
     private Context mContext;
     private static BleUtil mInstance;
 
-    //作为中央来使用和处理数据；
-    private BluetoothGatt mGatt;
-
     private BluetoothManager manager;
     private BTUtilListener mListener;
     private BluetoothDevice mCurDevice;
     private BluetoothAdapter mBtAdapter;
     private List<BluetoothDevice> listDevice;
-    private List<BluetoothGattService> serviceList;//服务
-    private List<BluetoothGattCharacteristic> characterList;//特征
+    //扫描结果在后台线程按地址去重, 合并后再回调
+    private volatile ScanResultBatcher mScanBatcher;
+
+    //每个设备一个独立的连接
+    private volatile BleConnectionManager mConnections;
+    private volatile ConnectionTuner.Policy mConnectionPolicy = ConnectionTuner.Policy.INTERACTIVE;
+
+    //把当前设备连接的回调转给BTUtilListener
+    private final BleConnection.Listener mConnectionListener = new BleConnection.Listener() {
+        @Override
+        public void onConnecting(BleConnection connection) {
+            mListener.onConnecting(connection.getDevice());
+        }
+
+        @Override
+        public void onConnected(BleConnection connection) {
+            mListener.onConnected(connection.getDevice());
+        }
+
+        @Override
+        public void onDisConnecting(BleConnection connection) {
+            mListener.onDisConnecting(connection.getDevice());
+        }
+
+        @Override
+        public void onDisConnected(BleConnection connection) {
+            mListener.onDisConnected(connection.getDevice());
+            //在binder线程回调, release()可能同时在别的线程把字段置空
+            BleConnectionManager connections = mConnections;
+            if (connections != null && connections.isReconnecting(connection.getAddress())) {
+                //意外断开, 正在自动重连, 保留设备列表
+                return;
+            }
+            ScanResultBatcher batcher = mScanBatcher;
+            if (batcher != null) {
+                batcher.clear();
+            }
+            listDevice = new ArrayList<>();
+            mListener.onLeScanDevices(listDevice);
+        }
+
+        @Override
+        public void onStrength(BleConnection connection, int strength) {
+            mListener.onStrength(strength);
+        }
+
+        @Override
+        public void onModel(BleConnection connection, int model) {
+            mListener.onModel(model);
+        }
+
+        @Override
+        public void onPacket(BleConnection connection, CustomPacketView packet) {
+            if (mListener instanceof BTUtilExtListener) {
+                ((BTUtilExtListener) mListener).onPacket(packet);
+            }
+        }
+
+        @Override
+        public void onConnectionParameters(BleConnection connection, ConnectionTuner.Parameters parameters) {
+            if (mListener instanceof BTUtilExtListener) {
+                ((BTUtilExtListener) mListener).onConnectionParameters(parameters);
+            }
+        }
+    };
 
-    private BluetoothGattService service;
-    private BluetoothGattCharacteristic character1;
-    private BluetoothGattCharacteristic character2;
+    //characterUUID1在UUIDS中的id, characterUUID1被修改后重新注册
+    static synchronized int getCharacterId1() {
+        if (!characterUUID1.equals(sCharacterUUID1)) {
+            sCharacterId1 = UUIDS.register(UUID.fromString(characterUUID1));
+            sCharacterUUID1 = characterUUID1;
+        }
+        return sCharacterId1;
+    }
 
+    static synchronized int getCharacterId2() {
+        if (!characterUUID2.equals(sCharacterUUID2)) {
+            sCharacterId2 = UUIDS.register(UUID.fromString(characterUUID2));
+            sCharacterUUID2 = characterUUID2;
+        }
+        return sCharacterId2;
+    }
 
     public static synchronized BleUtil getInstance() {
         if (mInstance == null) {
@@ -80,25 +165,39 @@ public class BleUtil {
             /*Intent enableBtIntent = new Intent(BluetoothAdapter.ACTION_REQUEST_ENABLE);
             mContext.startActivity(enableBtIntent);*/
         }
+        if (mConnections == null) {
+            mConnections = new BleConnectionManager(mContext);
+        }
+        if (mScanBatcher == null) {
+            mScanBatcher = new ScanResultBatcher(mScanBatchListener);
+        }
     }
 
-    //扫描设备的回调
+    //扫描设备的回调, 只把设备交给后台线程, 去重和合并在ScanResultBatcher中完成
     private BluetoothAdapter.LeScanCallback mLeScanCallback = new BluetoothAdapter.LeScanCallback() {
 
         @Override
         public void onLeScan(final BluetoothDevice device, int rssi,
                              byte[] scanRecord) {
-            ((Activity) mContext).runOnUiThread(new Runnable() {
-                @Override
-                public void run() {
-                    if (!listDevice.contains(device)) {
-                        //不重复添加
-                        listDevice.add(device);
-                        mListener.onLeScanDevices(listDevice);
-                        Log.e(TAG, "device:" + device.toString());
-                    }
-                }
-            });
+            ScanResultBatcher batcher = mScanBatcher;
+            if (batcher != null) {
+                batcher.offer(device);
+            }
+        }
+    };
+
+    //每个间隔最多回调一次, 在主线程
+    private final ScanResultBatcher.Listener mScanBatchListener = new ScanResultBatcher.Listener() {
+        @Override
+        public void onScanBatch(List<BluetoothDevice> added, List<BluetoothDevice> all) {
+            for (int i = 0; i < added.size(); i++) {
+                Log.e(TAG, "device:" + added.get(i).toString());
+            }
+            listDevice = all;
+            if (mListener instanceof BTUtilExtListener) {
+                ((BTUtilExtListener) mListener).onLeScanAdded(added);
+            }
+            mListener.onLeScanDevices(listDevice);
         }
     };
 
@@ -121,6 +220,23 @@ public class BleUtil {
         }
     }
 
+    //不再使用时调用: 停止扫描, 关闭所有连接和后台线程. 之后需要重新init
+    public void release() {
+        if (mBtAdapter != null) {
+            mBtAdapter.stopLeScan(mLeScanCallback);
+        }
+        BleConnectionManager connections = mConnections;
+        if (connections != null) {
+            connections.close();
+            mConnections = null;
+        }
+        ScanResultBatcher batcher = mScanBatcher;
+        if (batcher != null) {
+            batcher.quit();
+            mScanBatcher = null;
+        }
+    }
+
     //开始扫描BLE设备
     private void startScan() {
         mBtAdapter.startLeScan(mLeScanCallback);
@@ -133,155 +249,116 @@ public class BleUtil {
         mListener.onLeScanStop();
     }
 
-    //返回中央的状态和周边提供的数据
-    private BluetoothGattCallback mGattCallback = new BluetoothGattCallback() {
+    //连接设备
+    public void connectLeDevice(int devicePos) {
+        mBtAdapter.stopLeScan(mLeScanCallback);
+        mCurDevice = listDevice.get(devicePos);
+        BleConnection connection = mConnections.connect(mCurDevice, mConnectionListener);
+        connection.setConnectionPolicy(mConnectionPolicy);
+    }
 
-        @Override
-        public void onConnectionStateChange(BluetoothGatt gatt, int status,
-                                            int newState) {
-            Log.e(TAG, "onConnectionStateChange");
-            switch (newState) {
-                case BluetoothProfile.STATE_CONNECTED:
-                    Log.e(TAG, "STATE_CONNECTED");
-                    mListener.onConnected(mCurDevice);
-                    gatt.discoverServices(); //搜索连接设备所支持的service
-                    break;
-                case BluetoothProfile.STATE_DISCONNECTED:
-                    mListener.onDisConnected(mCurDevice);
-                    disConnGatt();
-                    Log.e(TAG, "STATE_DISCONNECTED");
-                    break;
-                case BluetoothProfile.STATE_CONNECTING:
-                    mListener.onConnecting(mCurDevice);
-                    Log.e(TAG, "STATE_CONNECTING");
-                    break;
-                case BluetoothProfile.STATE_DISCONNECTING:
-                    mListener.onDisConnecting(mCurDevice);
-                    Log.e(TAG, "STATE_DISCONNECTING");
-                    break;
-            }
-            super.onConnectionStateChange(gatt, status, newState);
-        }
+    //同时连接多个设备时使用
+    public BleConnectionManager getConnectionManager() {
+        return mConnections;
+    }
 
-        @Override
-        public void onServicesDiscovered(BluetoothGatt gatt, int status) {
-            Log.d(TAG, "onServicesDiscovered");
-            if (status == BluetoothGatt.GATT_SUCCESS) {
-                serviceList = gatt.getServices();
-                for (int i = 0; i < serviceList.size(); i++) {
-                    BluetoothGattService theService = serviceList.get(i);
-
-                    Log.e(TAG, "ServiceName:" + theService.getUuid());
-                    characterList = theService.getCharacteristics();
-                    for (int j = 0; j < characterList.size(); j++) {
-                        String uuid = characterList.get(j).getUuid().toString();
-                        Log.e(TAG, "---CharacterName:" + uuid);
-                        if (uuid.equals(characterUUID1)) {
-                            character1 = characterList.get(j);
-                        } else if (uuid.equals(characterUUID2)) {
-                            character2 = characterList.get(j);
-                            setNotification();
-                        }
-                    }
-                }
-            }
-            super.onServicesDiscovered(gatt, status);
-        }
+    //当前设备的连接, 未连接时为null
+    public BleConnection getConnection() {
+        BleConnectionManager connections = mConnections;
+        return mCurDevice != null && connections != null ? connections.get(mCurDevice.getAddress()) : null;
+    }
 
-        @Override
-        public void onCharacteristicRead(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, int status) {
-            Log.e(TAG, "onCharacteristicRead");
-            super.onCharacteristicRead(gatt, characteristic, status);
+    //断开当前设备
+    public void disconnect() {
+        if (mCurDevice != null) {
+            mConnections.disconnect(mCurDevice.getAddress());
         }
+    }
 
-        @Override
-        public void onCharacteristicWrite(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, int status) {
-            Log.e(TAG, "onCharacteristicWrite");
-            super.onCharacteristicWrite(gatt, characteristic, status);
+    //发送进入工作模式请求
+    public void sendWorkModel() {
+        BleConnection connection = getConnection();
+        if (connection != null) {
+            connection.sendWorkModel();
         }
+    }
 
-        @Override
-        public void onCharacteristicChanged(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic) {
-            Log.e(TAG, "onCharacteristicChanged");
-//            这里是可以监听到设备自身或者手机改变设备的一些数据修改h通知
-            receiveData(characteristic);
-            super.onCharacteristicChanged(gatt, characteristic);
+    //发送强度
+    public void sendStrength(int strength) {
+        BleConnection connection = getConnection();
+        if (connection != null) {
+            connection.sendStrength(strength);
         }
-    };
-
-    //获取设备指定的特征中的特性,其中对其进行监听, setCharacteristicNotification与上面的回调onCharacteristicChanged进行一一搭配
-    private void setNotification() {
-        mGatt.setCharacteristicNotification(character2, true);
-        BluetoothGattDescriptor descriptor = character2.getDescriptor(UUID.fromString(descriptorUUID));
-        descriptor.setValue(BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE);
-        mGatt.writeDescriptor(descriptor);
     }
 
-    //接收数据,对其进行处理
-    private void receiveData(BluetoothGattCharacteristic ch) {
-        byte[] bytes = ch.getValue();
-        int cmd = bytes[0];
-        int agree = bytes[1];
-        switch (cmd) {
-            case 1:
-                mListener.onStrength(agree);
-                Log.e(TAG, "手机通知BLE设备强度:" + agree);
-                break;
-            case 2:
-                mListener.onModel(agree);
-                Log.e(TAG, "工作模式:" + agree);
-                break;
-            case 3:
-                mListener.onStrength(agree);
-                Log.e(TAG, "设备自身通知改变强度:" + agree);
-                break;
+    //见BleConnection#setConnectionPolicy, 对之后连接的设备同样生效
+    public void setConnectionPolicy(ConnectionTuner.Policy policy) {
+        mConnectionPolicy = policy;
+        BleConnection connection = getConnection();
+        if (connection != null) {
+            connection.setConnectionPolicy(policy);
         }
     }
 
-    //连接设备
-    public void connectLeDevice(int devicePos) {
-        mBtAdapter.stopLeScan(mLeScanCallback);
-        mCurDevice = listDevice.get(devicePos);
-        checkConnGatt();
+    //当前生效的连接参数
+    public ConnectionTuner.Parameters getConnectionParameters() {
+        return requireConnection().getConnectionParameters();
     }
 
-    //发送进入工作模式请求
-    public void sendWorkModel() {
-        if (character1 != null) {
-            character1.setValue(workModel);
-            mGatt.writeCharacteristic(character1);
+    //请求更大的MTU, future在onMtuChanged中以协商后的MTU完成
+    public CompletableFuture<Integer> requestMtu(int mtu) {
+        return requireConnection().requestMtu(mtu);
+    }
+
+    //按MTU分段发送CustomPacket, 每段在上一段onCharacteristicWrite之后写入
+    public void sendPacket(byte[] data) {
+        BleConnection connection = getConnection();
+        if (connection != null) {
+            connection.sendPacket(data);
         }
     }
 
-    //发送强度
-    public void sendStrength(int strength) {
-        byte[] strengthModel = {0x01, (byte) strength};
-        if (character1 != null) {
-            character1.setValue(strengthModel);
-            mGatt.writeCharacteristic(character1);
+    //见BleConnection#setBatching, 需要在连接之后调用
+    public void setBatching(boolean enable, long delayMs) {
+        BleConnection connection = getConnection();
+        if (connection != null) {
+            connection.setBatching(enable, delayMs);
         }
     }
 
-    //检查设备是否连接了
-    private void checkConnGatt() {
-        if (mGatt == null) {
-            mGatt = mCurDevice.connectGatt(mContext, true, mGattCallback);
-            mListener.onConnecting(mCurDevice);
-        } else {
-            mGatt.connect();
-            mGatt.discoverServices();
+    //见BleConnection#setMultiplexer
+    public void setMultiplexer(ChannelMultiplexer multiplexer) {
+        requireConnection().setMultiplexer(multiplexer);
+    }
+
+    //在指定逻辑通道上发送消息, 控制通道的消息不会排在大数据传输之后
+    public void sendOnChannel(int channel, byte[] message) {
+        BleConnection connection = getConnection();
+        if (connection != null) {
+            connection.sendOnChannel(channel, message);
         }
     }
 
-    //  断开设备连接
-    private void disConnGatt() {
-        if (mGatt != null) {
-            mGatt.disconnect();
-            mGatt.close();
-            mGatt = null;
-            listDevice = new ArrayList<>();
-            mListener.onLeScanDevices(listDevice);
+    //见BleConnection#stream
+    public CompletableFuture<StreamWriter.Stats> stream(ByteBuffer source) {
+        return requireConnection().stream(source);
+    }
+
+    public CompletableFuture<StreamWriter.Stats> stream(InputStream source) {
+        return requireConnection().stream(source);
+    }
+
+    //见BleConnection#getNotifications
+    public NotificationPublisher getNotifications(UUID characteristic) {
+        return requireConnection().getNotifications(characteristic);
+    }
+
+    private BleConnection requireConnection() {
+        BleConnection connection = getConnection();
+        if (connection == null) {
+            throw new IllegalStateException("Not connected");
         }
+        return connection;
     }
 
     private void showToast(String message) {
@@ -311,4 +388,13 @@ public class BleUtil {
 
         void onModel(int model); //设备模式
     }
+
+    //可选的扩展回调, setBTUtilListener传入的监听器实现了这个接口时才会回调, 只实现BTUtilListener的代码不受影响
+    public interface BTUtilExtListener extends BTUtilListener {
+        void onLeScanAdded(List<BluetoothDevice> added); //上次回调之后新扫描到的设备, 先于onLeScanDevices回调
+
+        void onPacket(CustomPacketView packet); //收到完整的CustomPacket帧, 只在回调期间有效
+
+        void onConnectionParameters(ConnectionTuner.Parameters parameters); //连接参数(MTU, PHY, 优先级)生效或被对端修改
+    }
 }
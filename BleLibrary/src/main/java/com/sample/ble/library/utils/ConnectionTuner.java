@@ -0,0 +1,237 @@
+package com.sample.ble.library.utils;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothGatt;
+import android.util.Log;
+
+import com.sample.ble.library.GattOperationQueue;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BiConsumer;
+
+/**
+ * Negotiates the connection parameters right after STATE_CONNECTED: connection priority, ATT MTU
+ * and preferred PHY, according to a {@link Policy}.
+ * <p>
+ * The MTU and PHY requests go through the connection's {@link GattOperationQueue}, so the owner
+ * of the BluetoothGattCallback forwards onMtuChanged and onPhyUpdate to {@link #onMtuChanged} and
+ * {@link #onPhyUpdate}. A step the stack refuses or never answers keeps its previous value, it
+ * does not fail the tuning. The effective {@link Parameters} are reported to the
+ * {@link Listener} after tuning and whenever the peer changes them later.
+ */
+public class ConnectionTuner {
+    private static final String TAG = "ConnectionTuner";
+    // Some stacks never answer setPreferredPhy when the PHY does not change.
+    private static final long PHY_TIMEOUT_MS = 2000;
+
+    /**
+     * What to ask for, see {@link #BULK}, {@link #INTERACTIVE} and {@link #LOW_POWER}.
+     */
+    public static final class Policy {
+        /**
+         * Largest MTU on 2M PHY at the shortest connection interval, for OTA and file transfers.
+         */
+        public static final Policy BULK = new Policy("bulk", 517, BluetoothDevice.PHY_LE_2M_MASK,
+                BluetoothGatt.CONNECTION_PRIORITY_HIGH);
+        /**
+         * Short connection interval for low latency commands, MTU large enough for any frame.
+         */
+        public static final Policy INTERACTIVE = new Policy("interactive", 247, BluetoothDevice.PHY_LE_2M_MASK,
+                BluetoothGatt.CONNECTION_PRIORITY_HIGH);
+        /**
+         * Long connection interval on 1M PHY, fewer packets thanks to the larger MTU.
+         */
+        public static final Policy LOW_POWER = new Policy("low power", 247, BluetoothDevice.PHY_LE_1M_MASK,
+                BluetoothGatt.CONNECTION_PRIORITY_LOW_POWER);
+
+        final String name;
+        final int mtu;
+        final int phyMask;
+        final int priority;
+
+        /**
+         * @param phyMask  BluetoothDevice.PHY_LE_*_MASK for both directions.
+         * @param priority BluetoothGatt.CONNECTION_PRIORITY_*.
+         */
+        public Policy(String name, int mtu, int phyMask, int priority) {
+            this.name = name;
+            this.mtu = mtu;
+            this.phyMask = phyMask;
+            this.priority = priority;
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    public static final class Parameters {
+        private final int mtu;
+        private final int txPhy;
+        private final int rxPhy;
+        private final int priority;
+
+        Parameters(int mtu, int txPhy, int rxPhy, int priority) {
+            this.mtu = mtu;
+            this.txPhy = txPhy;
+            this.rxPhy = rxPhy;
+            this.priority = priority;
+        }
+
+        public int getMtu() {
+            return mtu;
+        }
+
+        /**
+         * BluetoothDevice.PHY_LE_1M, PHY_LE_2M or PHY_LE_CODED.
+         */
+        public int getTxPhy() {
+            return txPhy;
+        }
+
+        public int getRxPhy() {
+            return rxPhy;
+        }
+
+        /**
+         * The priority last requested, Android does not report the connection interval.
+         */
+        public int getPriority() {
+            return priority;
+        }
+
+        @Override
+        public String toString() {
+            return "Parameters{mtu=" + mtu + ", txPhy=" + txPhy + ", rxPhy=" + rxPhy
+                    + ", priority=" + priority + "}";
+        }
+    }
+
+    public interface Listener {
+        void onParametersChanged(BluetoothGatt gatt, Parameters parameters);
+    }
+
+    private final GattOperationQueue mQueue;
+    private final Listener mListener;
+    private volatile int mMtu = 23;
+    private volatile int mTxPhy = BluetoothDevice.PHY_LE_1M;
+    private volatile int mRxPhy = BluetoothDevice.PHY_LE_1M;
+    private volatile int mPriority = BluetoothGatt.CONNECTION_PRIORITY_BALANCED;
+
+    public ConnectionTuner(GattOperationQueue queue, Listener listener) {
+        mQueue = queue;
+        mListener = listener;
+    }
+
+    /**
+     * Apply {@code policy}, the future completes with the effective parameters. Priority first, a
+     * short interval speeds up the MTU and PHY exchanges that follow, and the service discovery
+     * queued after them.
+     */
+    public CompletableFuture<Parameters> tune(final BluetoothGatt gatt, final Policy policy) {
+        if (gatt.requestConnectionPriority(policy.priority)) {
+            mPriority = policy.priority;
+        }
+        // Both requests are queued at once, operations queued later on run after them.
+        final CompletableFuture<Integer> mtu = requestMtu(gatt, policy.mtu);
+        final CompletableFuture<Void> phy = setPreferredPhy(gatt, policy.phyMask);
+        final CompletableFuture<Parameters> result = new CompletableFuture<>();
+        CompletableFuture.allOf(mtu, phy).whenComplete(new BiConsumer<Void, Throwable>() {
+            @Override
+            public void accept(Void ignored, Throwable error) {
+                if (mtu.isCompletedExceptionally()) {
+                    Log.e(TAG, "MTU " + policy.mtu + " not applied");
+                }
+                if (phy.isCompletedExceptionally()) {
+                    Log.e(TAG, "PHY " + policy.phyMask + " not applied");
+                }
+                Parameters parameters = getParameters();
+                Log.d(TAG, "Tuned for " + policy + ": " + parameters);
+                mListener.onParametersChanged(gatt, parameters);
+                result.complete(parameters);
+            }
+        });
+        return result;
+    }
+
+    public Parameters getParameters() {
+        return new Parameters(mMtu, mTxPhy, mRxPhy, mPriority);
+    }
+
+    /**
+     * Forward BluetoothGattCallback.onMtuChanged.
+     */
+    public void onMtuChanged(BluetoothGatt gatt, int mtu, int status) {
+        if (status == BluetoothGatt.GATT_SUCCESS) {
+            mMtu = mtu;
+        }
+        mQueue.onComplete(GattOperationQueue.OP_REQUEST_MTU, status, mtu);
+    }
+
+    /**
+     * Forward BluetoothGattCallback.onPhyUpdate, also called when the peer changes the PHY.
+     */
+    public void onPhyUpdate(BluetoothGatt gatt, int txPhy, int rxPhy, int status) {
+        if (status == BluetoothGatt.GATT_SUCCESS) {
+            boolean changed = txPhy != mTxPhy || rxPhy != mRxPhy;
+            mTxPhy = txPhy;
+            mRxPhy = rxPhy;
+            if (!mQueue.onComplete(GattOperationQueue.OP_SET_PHY, status, null) && changed) {
+                mListener.onParametersChanged(gatt, getParameters());
+            }
+        } else {
+            mQueue.onComplete(GattOperationQueue.OP_SET_PHY, status, null);
+        }
+    }
+
+    /**
+     * Back to the defaults for the next connection.
+     */
+    public void reset() {
+        mMtu = 23;
+        mTxPhy = BluetoothDevice.PHY_LE_1M;
+        mRxPhy = BluetoothDevice.PHY_LE_1M;
+        mPriority = BluetoothGatt.CONNECTION_PRIORITY_BALANCED;
+    }
+
+    public CompletableFuture<Integer> requestMtu(final BluetoothGatt gatt, final int mtu) {
+        return mQueue.enqueue(new GattOperationQueue.Operation<Integer>(GattOperationQueue.OP_REQUEST_MTU) {
+            @Override
+            protected boolean start() {
+                return gatt.requestMtu(mtu);
+            }
+        });
+    }
+
+    // Skipped, i.e. completed at once, when the PHY asked for is already in effect or the
+    // controller lacks it: no onPhyUpdate comes then on some stacks, and the queue would be held
+    // up for PHY_TIMEOUT_MS on every connect.
+    private CompletableFuture<Void> setPreferredPhy(final BluetoothGatt gatt, final int phyMask) {
+        if ((phyMask & toMask(mTxPhy)) != 0 && (phyMask & toMask(mRxPhy)) != 0) {
+            return CompletableFuture.completedFuture(null);
+        }
+        BluetoothAdapter adapter = BluetoothAdapter.getDefaultAdapter();
+        if (adapter != null) {
+            int supported = BluetoothDevice.PHY_LE_1M_MASK
+                    | (adapter.isLe2MPhySupported() ? BluetoothDevice.PHY_LE_2M_MASK : 0)
+                    | (adapter.isLeCodedPhySupported() ? BluetoothDevice.PHY_LE_CODED_MASK : 0);
+            if ((phyMask & supported) == 0) {
+                return CompletableFuture.completedFuture(null);
+            }
+        }
+        return mQueue.enqueue(new GattOperationQueue.Operation<Void>(GattOperationQueue.OP_SET_PHY, PHY_TIMEOUT_MS) {
+            @Override
+            protected boolean start() {
+                gatt.setPreferredPhy(phyMask, phyMask, BluetoothDevice.PHY_OPTION_NO_PREFERRED);
+                return true;
+            }
+        });
+    }
+
+    private static int toMask(int phy) {
+        return phy == BluetoothDevice.PHY_LE_CODED ? BluetoothDevice.PHY_LE_CODED_MASK
+                : phy == BluetoothDevice.PHY_LE_2M ? BluetoothDevice.PHY_LE_2M_MASK : BluetoothDevice.PHY_LE_1M_MASK;
+    }
+}
@@ -0,0 +1,100 @@
+package com.sample.ble.library.utils;
+
+import java.lang.reflect.Constructor;
+import java.util.zip.Checksum;
+
+/**
+ * CRC-32C (Castagnoli), as computed by {@code java.util.zip.CRC32C}, which Android only ships from
+ * API 34 on.
+ * <p>
+ * Table driven, eight bytes per step (slicing-by-8). Like {@link java.util.zip.CRC32} it can be
+ * fed incrementally, e.g. segment by segment, and reused after {@link #reset()}. Prefer
+ * {@link #create()}, which returns the intrinsic JDK implementation when the runtime has one.
+ */
+public final class Crc32c implements Checksum {
+    private static final Constructor<?> PLATFORM_CRC32C = findPlatformCrc32c();
+
+    private static final int POLY = 0x82F63B78; // reflected 0x1EDC6F41
+    private static final int[][] TABLE = new int[8][256];
+
+    static {
+        for (int n = 0; n < 256; n++) {
+            int c = n;
+            for (int k = 0; k < 8; k++) {
+                c = (c & 1) != 0 ? (c >>> 1) ^ POLY : c >>> 1;
+            }
+            TABLE[0][n] = c;
+        }
+        for (int n = 0; n < 256; n++) {
+            int c = TABLE[0][n];
+            for (int t = 1; t < 8; t++) {
+                c = TABLE[0][c & 0xFF] ^ (c >>> 8);
+                TABLE[t][n] = c;
+            }
+        }
+    }
+
+    private int crc = 0xFFFFFFFF;
+
+    /**
+     * Return a CRC-32C checksum, hardware accelerated {@code java.util.zip.CRC32C} if available,
+     * this class otherwise.
+     */
+    public static Checksum create() {
+        if (PLATFORM_CRC32C != null) {
+            try {
+                return (Checksum) PLATFORM_CRC32C.newInstance();
+            } catch (Exception e) {
+                // fall through to the portable implementation
+            }
+        }
+        return new Crc32c();
+    }
+
+    private static Constructor<?> findPlatformCrc32c() {
+        try {
+            return Class.forName("java.util.zip.CRC32C").getConstructor();
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    @Override
+    public void update(int b) {
+        crc = TABLE[0][(crc ^ b) & 0xFF] ^ (crc >>> 8);
+    }
+
+    public void update(byte[] b) {
+        update(b, 0, b.length);
+    }
+
+    @Override
+    public void update(byte[] b, int off, int len) {
+        int c = crc;
+        int[] t0 = TABLE[0], t1 = TABLE[1], t2 = TABLE[2], t3 = TABLE[3];
+        int[] t4 = TABLE[4], t5 = TABLE[5], t6 = TABLE[6], t7 = TABLE[7];
+        int end = off + len;
+        while (end - off >= 8) {
+            int lo = c ^ ((b[off] & 0xFF) | (b[off + 1] & 0xFF) << 8
+                    | (b[off + 2] & 0xFF) << 16 | (b[off + 3] & 0xFF) << 24);
+            c = t7[lo & 0xFF] ^ t6[(lo >>> 8) & 0xFF] ^ t5[(lo >>> 16) & 0xFF] ^ t4[lo >>> 24]
+                    ^ t3[b[off + 4] & 0xFF] ^ t2[b[off + 5] & 0xFF]
+                    ^ t1[b[off + 6] & 0xFF] ^ t0[b[off + 7] & 0xFF];
+            off += 8;
+        }
+        while (off < end) {
+            c = t0[(c ^ b[off++]) & 0xFF] ^ (c >>> 8);
+        }
+        crc = c;
+    }
+
+    @Override
+    public long getValue() {
+        return ~crc & 0xFFFFFFFFL;
+    }
+
+    @Override
+    public void reset() {
+        crc = 0xFFFFFFFF;
+    }
+}
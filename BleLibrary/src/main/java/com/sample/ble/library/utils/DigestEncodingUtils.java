@@ -7,9 +7,19 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Formattable;
+import java.util.FormattableFlags;
+import java.util.Formatter;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.zip.CRC32;
+import java.util.zip.Checksum;
 
 @SuppressWarnings({"WeakerAccess", "unused"})
 public class DigestEncodingUtils {
@@ -17,6 +27,32 @@ public class DigestEncodingUtils {
             '7', '8', '9', 'A', 'B', 'C', 'D', 'E', 'F'};
     private static final char[] HEX_ARRAY_LOWERCASE = {'0', '1', '2', '3', '4', '5', '6',
             '7', '8', '9', 'a', 'b', 'c', 'd', 'e', 'f'};
+    private static final int STREAM_BUFFER_SIZE = 64 * 1024;
+    private static final ThreadLocal<Map<String, MessageDigest>> sDigests =
+            new ThreadLocal<Map<String, MessageDigest>>() {
+                @Override
+                protected Map<String, MessageDigest> initialValue() {
+                    return new HashMap<>(4);
+                }
+            };
+    private static final byte HEX_INVALID = -1;
+    private static final byte HEX_WHITESPACE = -2;
+    private static final byte[] HEX_DECODE = new byte['f' + 1];
+
+    static {
+        Arrays.fill(HEX_DECODE, HEX_INVALID);
+        for (int i = 0; i < 10; i++) {
+            HEX_DECODE['0' + i] = (byte) i;
+        }
+        for (int i = 0; i < 6; i++) {
+            HEX_DECODE['a' + i] = (byte) (10 + i);
+            HEX_DECODE['A' + i] = (byte) (10 + i);
+        }
+        HEX_DECODE[' '] = HEX_WHITESPACE;
+        HEX_DECODE['\t'] = HEX_WHITESPACE;
+        HEX_DECODE['\n'] = HEX_WHITESPACE;
+        HEX_DECODE['\r'] = HEX_WHITESPACE;
+    }
 
     /**
      * Encode the data with HEX (Base16) encoding and with uppercase letters.
@@ -54,6 +90,138 @@ public class DigestEncodingUtils {
         return new String(hexChars);
     }
 
+    /**
+     * Write the hex of {@code bytes[startPos, endPos)} into {@code dst} from {@code dstPos},
+     * without allocating. Returns the number of chars written.
+     */
+    public static int encodeWithHex(@NonNull byte[] bytes, int startPos, int endPos, boolean uppercase,
+                                    @NonNull char[] dst, int dstPos) {
+        if (endPos > bytes.length) {
+            endPos = bytes.length;
+        }
+        final int N = (endPos - startPos) * 2;
+        if (dstPos < 0 || dst.length - dstPos < N) {
+            throw new IllegalArgumentException("Destination too small: " + N + " chars needed");
+        }
+        final char[] HEX_ARRAY = uppercase ? HEX_ARRAY_UPPERCASE : HEX_ARRAY_LOWERCASE;
+        for (int i = startPos, j = dstPos; i < endPos; i++, j += 2) {
+            int v = bytes[i] & 0xFF;
+            dst[j] = HEX_ARRAY[v >>> 4];
+            dst[j + 1] = HEX_ARRAY[v & 0x0F];
+        }
+        return N;
+    }
+
+    /**
+     * Append the hex of {@code bytes} to {@code dst}, "null" for a null array like
+     * {@link #encodeWithHex(byte[])}.
+     */
+    public static StringBuilder appendHex(@NonNull StringBuilder dst, byte[] bytes) {
+        if (bytes == null) {
+            return dst.append("null");
+        }
+        return appendHex(dst, bytes, 0, bytes.length, true);
+    }
+
+    public static StringBuilder appendHex(@NonNull StringBuilder dst, @NonNull byte[] bytes,
+                                          int startPos, int endPos, boolean uppercase) {
+        if (endPos > bytes.length) {
+            endPos = bytes.length;
+        }
+        final char[] HEX_ARRAY = uppercase ? HEX_ARRAY_UPPERCASE : HEX_ARRAY_LOWERCASE;
+        dst.ensureCapacity(dst.length() + (endPos - startPos) * 2);
+        for (int i = startPos; i < endPos; i++) {
+            int v = bytes[i] & 0xFF;
+            dst.append(HEX_ARRAY[v >>> 4]).append(HEX_ARRAY[v & 0x0F]);
+        }
+        return dst;
+    }
+
+    /**
+     * Same as {@link #appendHex(StringBuilder, byte[], int, int, boolean)} for any Appendable,
+     * e.g. a Writer or the output of a {@link java.util.Formatter}.
+     */
+    public static <A extends Appendable> A appendHex(@NonNull A dst, @NonNull byte[] bytes,
+                                                     int startPos, int endPos, boolean uppercase)
+            throws IOException {
+        if (dst instanceof StringBuilder) {
+            appendHex((StringBuilder) dst, bytes, startPos, endPos, uppercase);
+            return dst;
+        }
+        if (endPos > bytes.length) {
+            endPos = bytes.length;
+        }
+        final char[] HEX_ARRAY = uppercase ? HEX_ARRAY_UPPERCASE : HEX_ARRAY_LOWERCASE;
+        for (int i = startPos; i < endPos; i++) {
+            int v = bytes[i] & 0xFF;
+            dst.append(HEX_ARRAY[v >>> 4]).append(HEX_ARRAY[v & 0x0F]);
+        }
+        return dst;
+    }
+
+    /**
+     * Write the hex of {@code bytes[startPos, endPos)} at the position of {@code dst} and advance
+     * it. Throws {@link java.nio.BufferOverflowException} if it does not fit.
+     */
+    public static void encodeWithHex(@NonNull byte[] bytes, int startPos, int endPos, boolean uppercase,
+                                     @NonNull CharBuffer dst) {
+        if (endPos > bytes.length) {
+            endPos = bytes.length;
+        }
+        final int N = (endPos - startPos) * 2;
+        if (dst.remaining() < N) {
+            throw new BufferOverflowException();
+        }
+        if (dst.hasArray()) {
+            encodeWithHex(bytes, startPos, endPos, uppercase, dst.array(), dst.arrayOffset() + dst.position());
+            dst.position(dst.position() + N);
+            return;
+        }
+        final char[] HEX_ARRAY = uppercase ? HEX_ARRAY_UPPERCASE : HEX_ARRAY_LOWERCASE;
+        for (int i = startPos; i < endPos; i++) {
+            int v = bytes[i] & 0xFF;
+            dst.put(HEX_ARRAY[v >>> 4]).put(HEX_ARRAY[v & 0x0F]);
+        }
+    }
+
+    /**
+     * Wrap {@code bytes} so the hex is only produced when the result is printed, e.g. as a log
+     * argument. The array is not copied. Used with {@code %s} in {@link String#format} the hex is
+     * appended straight to the formatter's output without an intermediate String.
+     */
+    public static Object lazyHex(byte[] bytes) {
+        return new LazyHex(bytes);
+    }
+
+    private static final class LazyHex implements Formattable {
+        private final byte[] bytes;
+
+        LazyHex(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        @Override
+        public void formatTo(Formatter formatter, int flags, int width, int precision) {
+            if (bytes == null || width != -1 || precision != -1) {
+                // Padding and truncation are rare in logs, let the formatter deal with a String.
+                formatter.format("%" + ((flags & FormattableFlags.LEFT_JUSTIFY) != 0 ? "-" : "")
+                        + (width == -1 ? "" : width)
+                        + (precision == -1 ? "" : "." + precision) + "s", toString());
+                return;
+            }
+            try {
+                appendHex(formatter.out(), bytes, 0, bytes.length, true);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return encodeWithHex(bytes);
+        }
+    }
+
     /**
      * Encode the data with HEX (Base16) encoding and with uppercase letters.
      */
@@ -91,31 +259,91 @@ public class DigestEncodingUtils {
     }
 
     public static byte[] fromHexString(@NonNull String hexStr) {
-        hexStr = hexStr.replace(" ", ""); // support spaces
-        if (hexStr.length() % 2 != 0) {
-            throw new IllegalArgumentException("Bad length: " + hexStr);
+        byte[] result = new byte[hexStr.length() / 2];
+        int n = decodeHex(hexStr, 0, hexStr.length(), result, 0);
+        if (n < 0) {
+            throw new IllegalArgumentException((~n == hexStr.length() ? "Bad length: " : "Not hex string: ")
+                    + hexStr);
         }
+        return n == result.length ? result : Arrays.copyOf(result, n);
+    }
 
-        byte[] result = new byte[hexStr.length() / 2];
-        for (int i = 0; i < result.length; i++) {
-            int high = fromHexChar(hexStr, i * 2) << 4;
-            int low = fromHexChar(hexStr, i * 2 + 1);
-            result[i] = (byte) ((high | low) & 0xFF);
-        }
-        return result;
-    }
-
-    private static int fromHexChar(String hexStr, int index) {
-        char ch = hexStr.charAt(index);
-        if (ch >= '0' && ch <= '9') {
-            return ch - '0';
-        } else if (ch >= 'a' && ch <= 'f') {
-            return 10 + (ch - 'a');
-        } else if (ch >= 'A' && ch <= 'F') {
-            return 10 + (ch - 'A');
+    /**
+     * Decode the hex digits of {@code src[start, end)} into {@code dst} from {@code dstPos}, skipping
+     * spaces, tabs and line breaks anywhere in the input.
+     *
+     * @return the number of bytes written, or {@code ~index} of the first char that is not hex,
+     * does not fit into {@code dst}, or {@code ~end} for an odd number of digits. Never throws or
+     * allocates on bad input.
+     */
+    public static int decodeHex(@NonNull CharSequence src, int start, int end, @NonNull byte[] dst, int dstPos) {
+        return decodeHex(src, start, end, dst, null, dstPos, dst.length);
+    }
+
+    /**
+     * Same as {@link #decodeHex(CharSequence, int, int, byte[], int)} for a char[] range.
+     */
+    public static int decodeHex(@NonNull char[] src, int start, int end, @NonNull byte[] dst, int dstPos) {
+        return decodeHex(CharBuffer.wrap(src), start, end, dst, null, dstPos, dst.length);
+    }
+
+    /**
+     * Decode into {@code dst} at its position, see {@link #decodeHex(CharSequence, int, int, byte[], int)}.
+     * On success the position is advanced by the returned count, on error it is left unchanged. A
+     * read-only buffer has no room, decoding fails at the first byte.
+     */
+    public static int decodeHex(@NonNull CharSequence src, int start, int end, @NonNull ByteBuffer dst) {
+        int position = dst.position();
+        int n;
+        if (dst.hasArray()) {
+            n = decodeHex(src, start, end, dst.array(), null, dst.arrayOffset() + position,
+                    dst.arrayOffset() + dst.limit());
         } else {
-            throw new IllegalArgumentException("Not hex string: " + hexStr);
+            n = decodeHex(src, start, end, null, dst, position, dst.isReadOnly() ? position : dst.limit());
+        }
+        if (n >= 0) {
+            dst.position(position + n);
+        }
+        return n;
+    }
+
+    /**
+     * Same as {@link #decodeHex(CharSequence, int, int, ByteBuffer)} for a char[] range.
+     */
+    public static int decodeHex(@NonNull char[] src, int start, int end, @NonNull ByteBuffer dst) {
+        return decodeHex(CharBuffer.wrap(src), start, end, dst);
+    }
+
+    // Writes to dst if it is not null, else with absolute puts to buffer, below dstLimit either way.
+    private static int decodeHex(CharSequence src, int start, int end, byte[] dst, ByteBuffer buffer,
+                                 int dstPos, int dstLimit) {
+        int j = dstPos;
+        int high = -1;
+        for (int i = start; i < end; i++) {
+            char ch = src.charAt(i);
+            int v = ch < HEX_DECODE.length ? HEX_DECODE[ch] : HEX_INVALID;
+            if (v < 0) {
+                if (v == HEX_WHITESPACE) {
+                    continue;
+                }
+                return ~i;
+            }
+            if (high < 0) {
+                high = v << 4;
+            } else {
+                if (j >= dstLimit) {
+                    return ~i;
+                }
+                if (dst != null) {
+                    dst[j] = (byte) (high | v);
+                } else {
+                    buffer.put(j, (byte) (high | v));
+                }
+                j++;
+                high = -1;
+            }
         }
+        return high < 0 ? j - dstPos : ~end;
     }
 
     public static String sha1(String text)
@@ -139,12 +367,28 @@ public class DigestEncodingUtils {
 
     public static String hash(byte[] data, String algorithm)
             throws NoSuchAlgorithmException {
-        MessageDigest digest = MessageDigest.getInstance(algorithm);
+        MessageDigest digest = obtainDigest(algorithm);
         digest.update(data);
         byte messageDigest[] = digest.digest();
         return encodeWithHex(messageDigest, false);
     }
 
+    /**
+     * A reset MessageDigest owned by the calling thread, created once per thread and algorithm.
+     * It must not escape the call that obtained it.
+     */
+    static MessageDigest obtainDigest(String algorithm) throws NoSuchAlgorithmException {
+        Map<String, MessageDigest> digests = sDigests.get();
+        MessageDigest digest = digests.get(algorithm);
+        if (digest == null) {
+            digest = MessageDigest.getInstance(algorithm);
+            digests.put(algorithm, digest);
+        } else {
+            digest.reset();
+        }
+        return digest;
+    }
+
     /**
      * The caller should care about closing the stream.
      */
@@ -153,8 +397,8 @@ public class DigestEncodingUtils {
         if (stream == null) {
             throw new IllegalArgumentException("Invalid input stream!");
         }
-        byte[] buffer = new byte[1024];
-        MessageDigest complete = MessageDigest.getInstance("MD5");
+        byte[] buffer = new byte[STREAM_BUFFER_SIZE];
+        MessageDigest complete = obtainDigest("MD5");
         int numRead;
         do {
             numRead = stream.read(buffer);
@@ -171,4 +415,13 @@ public class DigestEncodingUtils {
         crc32.update(data);
         return crc32.getValue();
     }
+
+    /**
+     * CRC-32C of {@code data[offset, offset + length)}, see {@link Crc32c}.
+     */
+    public static long computeCrc32c(@NonNull byte[] data, int offset, int length) {
+        Checksum crc32c = Crc32c.create();
+        crc32c.update(data, offset, length);
+        return crc32c.getValue();
+    }
 }
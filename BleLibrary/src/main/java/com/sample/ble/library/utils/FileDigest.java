@@ -0,0 +1,153 @@
+package com.sample.ble.library.utils;
+
+import androidx.annotation.NonNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.zip.CRC32;
+
+/**
+ * Digests of a file, e.g. an OTA image before it is sent, computed through
+ * {@link FileChannel#map} instead of copying the file through a heap buffer.
+ * <p>
+ * The file is mapped in chunks of {@link #DEFAULT_CHUNK_SIZE}. When several algorithms are
+ * requested every chunk is walked once in {@link #BLOCK_SIZE} blocks, each block being fed to all
+ * of them while it is still in the CPU cache. MessageDigest instances are pooled per thread, see
+ * {@link DigestEncodingUtils#obtainDigest}.
+ * <pre>
+ * FileDigest digest = FileDigest.compute(image, FileDigest.MD5 | FileDigest.CRC32);
+ * digest.md5Hex(); digest.crc32();
+ * </pre>
+ */
+public final class FileDigest {
+    public static final int MD5 = 1;
+    public static final int SHA1 = 1 << 1;
+    public static final int CRC32 = 1 << 2;
+    public static final int DEFAULT_CHUNK_SIZE = 8 * 1024 * 1024;
+    static final int BLOCK_SIZE = 64 * 1024;
+
+    private final long length;
+    private final byte[] md5;
+    private final byte[] sha1;
+    private final long crc32;
+
+    private FileDigest(long length, byte[] md5, byte[] sha1, long crc32) {
+        this.length = length;
+        this.md5 = md5;
+        this.sha1 = sha1;
+        this.crc32 = crc32;
+    }
+
+    /**
+     * @param algorithms a combination of {@link #MD5}, {@link #SHA1} and {@link #CRC32}.
+     */
+    public static FileDigest compute(@NonNull File file, int algorithms) throws IOException {
+        return compute(file, algorithms, DEFAULT_CHUNK_SIZE);
+    }
+
+    public static FileDigest compute(@NonNull File file, int algorithms, int chunkSize) throws IOException {
+        if ((algorithms & (MD5 | SHA1 | CRC32)) == 0 || (algorithms & ~(MD5 | SHA1 | CRC32)) != 0) {
+            throw new IllegalArgumentException("Bad algorithms: " + algorithms);
+        }
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("Bad chunk size: " + chunkSize);
+        }
+        MessageDigest md5 = (algorithms & MD5) != 0 ? obtain("MD5") : null;
+        MessageDigest sha1 = (algorithms & SHA1) != 0 ? obtain("SHA-1") : null;
+        CRC32 crc32 = (algorithms & CRC32) != 0 ? new CRC32() : null;
+
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            long size = channel.size();
+            for (long position = 0; position < size; position += chunkSize) {
+                MappedByteBuffer chunk = channel.map(FileChannel.MapMode.READ_ONLY, position,
+                        Math.min(chunkSize, size - position));
+                update(chunk, md5, sha1, crc32);
+            }
+            return new FileDigest(size,
+                    md5 != null ? md5.digest() : null,
+                    sha1 != null ? sha1.digest() : null,
+                    crc32 != null ? crc32.getValue() : 0);
+        } finally {
+            raf.close();
+        }
+    }
+
+    private static void update(MappedByteBuffer chunk, MessageDigest md5, MessageDigest sha1, CRC32 crc32) {
+        int end = chunk.limit();
+        for (int start = 0; start < end; start += BLOCK_SIZE) {
+            int blockEnd = Math.min(start + BLOCK_SIZE, end);
+            if (md5 != null) {
+                chunk.limit(blockEnd).position(start);
+                md5.update(chunk);
+            }
+            if (sha1 != null) {
+                chunk.limit(blockEnd).position(start);
+                sha1.update(chunk);
+            }
+            if (crc32 != null) {
+                chunk.limit(blockEnd).position(start);
+                crc32.update(chunk);
+            }
+        }
+    }
+
+    private static MessageDigest obtain(String algorithm) {
+        try {
+            return DigestEncodingUtils.obtainDigest(algorithm);
+        } catch (NoSuchAlgorithmException e) {
+            // MD5 and SHA-1 are mandatory for every Java platform.
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public long length() {
+        return length;
+    }
+
+    /**
+     * Null unless {@link #MD5} was requested.
+     */
+    public byte[] md5() {
+        return md5;
+    }
+
+    /**
+     * Null unless {@link #SHA1} was requested.
+     */
+    public byte[] sha1() {
+        return sha1;
+    }
+
+    /**
+     * 0 unless {@link #CRC32} was requested.
+     */
+    public long crc32() {
+        return crc32;
+    }
+
+    /**
+     * Lowercase hex like {@link DigestEncodingUtils#md5(java.io.InputStream)}.
+     */
+    public String md5Hex() {
+        return md5 != null ? DigestEncodingUtils.encodeWithHex(md5, false) : null;
+    }
+
+    public String sha1Hex() {
+        return sha1 != null ? DigestEncodingUtils.encodeWithHex(sha1, false) : null;
+    }
+
+    @Override
+    public String toString() {
+        return "FileDigest{length=" + length
+                + ", md5=" + md5Hex()
+                + ", sha1=" + sha1Hex()
+                + ", crc32=" + Long.toHexString(crc32) + "}";
+    }
+}
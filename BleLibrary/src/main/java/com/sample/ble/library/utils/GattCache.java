@@ -0,0 +1,138 @@
+package com.sample.ble.library.utils;
+
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattService;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * 按设备地址持久化服务发现的结果: 命令特征和通知特征所在的service, 以及整个GATT数据库的hash.
+ * <p>
+ * Android不允许在服务发现之前使用特征, 但系统自身缓存了已知设备的GATT数据库, 重连时的
+ * discoverServices基本不需要空中交互. 这里缓存的是之后的解析: 命中时直接按service UUID取特征,
+ * 不遍历所有特征, 命令也可以在连上后立即排队, 服务发现一完成就写出.
+ * 数据库hash不一致(固件升级改变了服务表)或者按缓存取不到特征时重新遍历并更新缓存.
+ */
+public class GattCache {
+    private static final String TAG = "GattCache";
+    private static final String PREFS_NAME = "gatt_cache";
+
+    public static final class Entry {
+        private final long databaseHash;
+        private final UUID writeService;
+        private final UUID notifyService;
+
+        /**
+         * @param writeService  命令特征所在的service, 没有时为null
+         * @param notifyService 通知特征所在的service, 没有时为null
+         */
+        public Entry(long databaseHash, UUID writeService, UUID notifyService) {
+            this.databaseHash = databaseHash;
+            this.writeService = writeService;
+            this.notifyService = notifyService;
+        }
+
+        public long getDatabaseHash() {
+            return databaseHash;
+        }
+
+        public UUID getWriteService() {
+            return writeService;
+        }
+
+        public UUID getNotifyService() {
+            return notifyService;
+        }
+
+        //hash;writeService;notifyService, 没有的service为空
+        String encode() {
+            return Long.toHexString(databaseHash) + ";" + (writeService != null ? writeService : "")
+                    + ";" + (notifyService != null ? notifyService : "");
+        }
+
+        static Entry decode(String value) {
+            String[] parts = value.split(";", -1);
+            if (parts.length != 3) {
+                throw new IllegalArgumentException("Bad entry: " + value);
+            }
+            return new Entry(Long.parseUnsignedLong(parts[0], 16),
+                    parts[1].isEmpty() ? null : UUID.fromString(parts[1]),
+                    parts[2].isEmpty() ? null : UUID.fromString(parts[2]));
+        }
+    }
+
+    private final SharedPreferences mPrefs;
+    //第一次访问时从磁盘加载, 之后只读内存
+    private Map<String, Entry> mEntries;
+
+    public GattCache(Context context) {
+        mPrefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    public synchronized Entry get(String address) {
+        return entries().get(address);
+    }
+
+    //异步写入磁盘
+    public synchronized void put(String address, Entry entry) {
+        entries().put(address, entry);
+        mPrefs.edit().putString(address, entry.encode()).apply();
+    }
+
+    public synchronized void remove(String address) {
+        if (entries().remove(address) != null) {
+            mPrefs.edit().remove(address).apply();
+        }
+    }
+
+    private Map<String, Entry> entries() {
+        if (mEntries == null) {
+            mEntries = new HashMap<>();
+            for (Map.Entry<String, ?> e : mPrefs.getAll().entrySet()) {
+                try {
+                    mEntries.put(e.getKey(), Entry.decode(String.valueOf(e.getValue())));
+                } catch (IllegalArgumentException ex) {
+                    Log.e(TAG, "drop " + e.getKey() + ": " + ex.getMessage());
+                }
+            }
+        }
+        return mEntries;
+    }
+
+    /**
+     * 服务表的64位FNV-1a hash, 包括每个service和特征的UUID, instance id(句柄)和属性.
+     * 固件改变了服务表时hash随之改变.
+     */
+    public static long databaseHash(List<BluetoothGattService> services) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < services.size(); i++) {
+            BluetoothGattService service = services.get(i);
+            hash = mix(hash, service.getUuid().getMostSignificantBits());
+            hash = mix(hash, service.getUuid().getLeastSignificantBits());
+            hash = mix(hash, service.getInstanceId());
+            List<BluetoothGattCharacteristic> characteristics = service.getCharacteristics();
+            for (int j = 0; j < characteristics.size(); j++) {
+                BluetoothGattCharacteristic characteristic = characteristics.get(j);
+                hash = mix(hash, characteristic.getUuid().getMostSignificantBits());
+                hash = mix(hash, characteristic.getUuid().getLeastSignificantBits());
+                hash = mix(hash, ((long) characteristic.getInstanceId() << 32) | characteristic.getProperties());
+            }
+        }
+        return hash;
+    }
+
+    private static long mix(long hash, long value) {
+        for (int i = 0; i < 8; i++) {
+            hash ^= value & 0xFF;
+            hash *= 0x100000001b3L;
+            value >>>= 8;
+        }
+        return hash;
+    }
+}
@@ -0,0 +1,246 @@
+package com.sample.ble.library.utils;
+
+import androidx.annotation.NonNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Merkle tree over fixed size blocks of a file, so a receiver can check every transfer chunk on
+ * its own and ask again for the corrupt ones instead of restarting the whole transfer.
+ * <p>
+ * Use the transfer chunk size as block size. Leaves are {@code H(0x00 | block)}, inner nodes
+ * {@code H(0x01 | left | right)}, a node without sibling moves up unchanged. Leaves are hashed in
+ * parallel on a {@link ForkJoinPool}, each task mapping its own range of the file.
+ */
+public final class MerkleTree {
+    public static final int DEFAULT_BLOCK_SIZE = 4096;
+    public static final String DEFAULT_ALGORITHM = "SHA-256";
+    private static final byte LEAF_PREFIX = 0x00;
+    private static final byte NODE_PREFIX = 0x01;
+    // Blocks hashed by one task, large enough to amortize the mapping and task overhead.
+    private static final int MIN_TASK_BYTES = 1024 * 1024;
+
+    private final String algorithm;
+    private final int blockSize;
+    private final long length;
+    private final byte[][] leaves;
+    private final byte[] root;
+
+    private MerkleTree(String algorithm, int blockSize, long length, byte[][] leaves) {
+        this.algorithm = algorithm;
+        this.blockSize = blockSize;
+        this.length = length;
+        this.leaves = leaves;
+        this.root = buildRoot(algorithm, leaves);
+    }
+
+    public static MerkleTree compute(@NonNull File file, int blockSize) throws IOException {
+        return compute(file, blockSize, DEFAULT_ALGORITHM, ForkJoinPool.commonPool());
+    }
+
+    public static MerkleTree compute(@NonNull File file, int blockSize, @NonNull String algorithm,
+                                     @NonNull ForkJoinPool pool) throws IOException {
+        checkArguments(blockSize, algorithm);
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            long size = channel.size();
+            byte[][] leaves = new byte[blockCount(size, blockSize)][];
+            try {
+                pool.invoke(new LeafTask(channel, null, size, blockSize, algorithm, leaves,
+                        0, leaves.length, tasksBlocks(blockSize)));
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            return new MerkleTree(algorithm, blockSize, size, leaves);
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Same tree for data already in memory.
+     */
+    public static MerkleTree compute(@NonNull byte[] data, int blockSize, @NonNull String algorithm,
+                                     @NonNull ForkJoinPool pool) {
+        checkArguments(blockSize, algorithm);
+        byte[][] leaves = new byte[blockCount(data.length, blockSize)][];
+        pool.invoke(new LeafTask(null, ByteBuffer.wrap(data), data.length, blockSize, algorithm, leaves,
+                0, leaves.length, tasksBlocks(blockSize)));
+        return new MerkleTree(algorithm, blockSize, data.length, leaves);
+    }
+
+    public int blockSize() {
+        return blockSize;
+    }
+
+    public long length() {
+        return length;
+    }
+
+    public int blockCount() {
+        return leaves.length;
+    }
+
+    public byte[] root() {
+        return root.clone();
+    }
+
+    public byte[] blockDigest(int index) {
+        return leaves[index].clone();
+    }
+
+    /**
+     * Check a received block against this tree.
+     */
+    public boolean verifyBlock(int index, @NonNull byte[] data, int offset, int length) {
+        if (index < 0 || index >= leaves.length) {
+            return false;
+        }
+        long expected = Math.min(blockSize, this.length - (long) index * blockSize);
+        if (length != expected) {
+            return false;
+        }
+        MessageDigest digest = obtain(algorithm);
+        digest.update(LEAF_PREFIX);
+        digest.update(data, offset, length);
+        return MessageDigest.isEqual(leaves[index], digest.digest());
+    }
+
+    /**
+     * Indexes of the blocks that differ from {@code other}, i.e. the chunks to send again.
+     * Every block is listed when the trees do not describe the same layout.
+     */
+    public List<Integer> diff(@NonNull MerkleTree other) {
+        List<Integer> blocks = new ArrayList<>();
+        boolean sameLayout = algorithm.equals(other.algorithm) && blockSize == other.blockSize
+                && length == other.length;
+        if (sameLayout && Arrays.equals(root, other.root)) {
+            return blocks;
+        }
+        for (int i = 0; i < leaves.length; i++) {
+            if (!sameLayout || !Arrays.equals(leaves[i], other.leaves[i])) {
+                blocks.add(i);
+            }
+        }
+        return blocks;
+    }
+
+    private static void checkArguments(int blockSize, String algorithm) {
+        if (blockSize <= 0) {
+            throw new IllegalArgumentException("Bad block size: " + blockSize);
+        }
+        obtain(algorithm);
+    }
+
+    private static int blockCount(long size, int blockSize) {
+        long count = Math.max(1, (size + blockSize - 1) / blockSize);
+        if (count > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Too many blocks: " + count);
+        }
+        return (int) count;
+    }
+
+    private static int tasksBlocks(int blockSize) {
+        return Math.max(1, MIN_TASK_BYTES / blockSize);
+    }
+
+    private static MessageDigest obtain(String algorithm) {
+        try {
+            return DigestEncodingUtils.obtainDigest(algorithm);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalArgumentException("Unknown algorithm: " + algorithm, e);
+        }
+    }
+
+    private static byte[] buildRoot(String algorithm, byte[][] leaves) {
+        MessageDigest digest = obtain(algorithm);
+        byte[][] level = leaves;
+        while (level.length > 1) {
+            byte[][] parents = new byte[(level.length + 1) / 2][];
+            for (int i = 0; i < parents.length; i++) {
+                if (2 * i + 1 < level.length) {
+                    digest.update(NODE_PREFIX);
+                    digest.update(level[2 * i]);
+                    digest.update(level[2 * i + 1]);
+                    parents[i] = digest.digest();
+                } else {
+                    parents[i] = level[2 * i];
+                }
+            }
+            level = parents;
+        }
+        return level[0];
+    }
+
+    private static class LeafTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final FileChannel channel;
+        private final ByteBuffer data;
+        private final long size;
+        private final int blockSize;
+        private final String algorithm;
+        private final byte[][] leaves;
+        private final int from;
+        private final int to;
+        private final int threshold;
+
+        LeafTask(FileChannel channel, ByteBuffer data, long size, int blockSize, String algorithm,
+                 byte[][] leaves, int from, int to, int threshold) {
+            this.channel = channel;
+            this.data = data;
+            this.size = size;
+            this.blockSize = blockSize;
+            this.algorithm = algorithm;
+            this.leaves = leaves;
+            this.from = from;
+            this.to = to;
+            this.threshold = threshold;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > threshold) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new LeafTask(channel, data, size, blockSize, algorithm, leaves, from, mid, threshold),
+                        new LeafTask(channel, data, size, blockSize, algorithm, leaves, mid, to, threshold));
+                return;
+            }
+            long start = (long) from * blockSize;
+            long end = Math.min(size, (long) to * blockSize);
+            ByteBuffer range;
+            if (channel != null) {
+                try {
+                    range = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            } else {
+                range = data.duplicate();
+                range.limit((int) end).position((int) start);
+                range = range.slice();
+            }
+            MessageDigest digest = obtain(algorithm);
+            for (int i = from; i < to; i++) {
+                int blockStart = (i - from) * blockSize;
+                range.limit(Math.min(range.capacity(), blockStart + blockSize)).position(blockStart);
+                digest.update(LEAF_PREFIX);
+                digest.update(range);
+                leaves[i] = digest.digest();
+            }
+        }
+    }
+}
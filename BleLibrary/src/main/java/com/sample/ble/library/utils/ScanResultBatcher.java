@@ -0,0 +1,142 @@
+package com.sample.ble.library.utils;
+
+import android.bluetooth.BluetoothDevice;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Message;
+import android.os.Process;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 扫描结果的合并分发: 扫描回调只把设备交给后台线程, 后台线程按地址去重,
+ * 新设备攒够{@code intervalMs}后一次性切到主线程回调, 每个间隔最多一次.
+ * <p>
+ * 周围有几百个广播设备时每秒有上千次扫描回调, 逐个切到主线程并在列表里查重会占满主线程.
+ */
+public class ScanResultBatcher {
+    //约6帧合并一次, 列表刷新仍然跟手
+    public static final long DEFAULT_INTERVAL_MS = 100;
+
+    private static final int MSG_OFFER = 1;
+    private static final int MSG_FLUSH = 2;
+    private static final int MSG_CLEAR = 3;
+
+    public interface Listener {
+        /**
+         * 在主线程调用. added是上次回调之后新发现的设备, all是目前为止的全部设备, 两者都是新的列表.
+         */
+        void onScanBatch(List<BluetoothDevice> added, List<BluetoothDevice> all);
+    }
+
+    private final Listener mListener;
+    private final long mIntervalMs;
+    private final HandlerThread mThread;
+    private final Handler mWorker;
+    private final Handler mMain = new Handler(Looper.getMainLooper());
+    //clear()之后丢弃已经发往主线程的旧批次
+    private volatile int mGeneration;
+
+    //以下只在后台线程访问
+    private final Map<String, BluetoothDevice> mIndex = new HashMap<>();
+    private final List<BluetoothDevice> mAll = new ArrayList<>();
+    private List<BluetoothDevice> mAdded = new ArrayList<>();
+    private boolean mFlushScheduled;
+    private int mWorkerGeneration;
+
+    public ScanResultBatcher(Listener listener) {
+        this(listener, DEFAULT_INTERVAL_MS);
+    }
+
+    public ScanResultBatcher(Listener listener, long intervalMs) {
+        if (intervalMs < 0) {
+            throw new IllegalArgumentException("Bad interval: " + intervalMs);
+        }
+        mListener = listener;
+        mIntervalMs = intervalMs;
+        mThread = new HandlerThread("ScanResultBatcher", Process.THREAD_PRIORITY_BACKGROUND);
+        mThread.start();
+        mWorker = new Handler(mThread.getLooper(), new Handler.Callback() {
+            @Override
+            public boolean handleMessage(Message msg) {
+                switch (msg.what) {
+                    case MSG_OFFER:
+                        add((BluetoothDevice) msg.obj);
+                        return true;
+                    case MSG_FLUSH:
+                        flush();
+                        return true;
+                    case MSG_CLEAR:
+                        reset(msg.arg1);
+                        return true;
+                }
+                return false;
+            }
+        });
+    }
+
+    //可以在任意线程调用, 通常是扫描回调所在的binder线程. Message来自系统的对象池, 不分配内存
+    public void offer(BluetoothDevice device) {
+        mWorker.obtainMessage(MSG_OFFER, device).sendToTarget();
+    }
+
+    //清空已发现的设备, 之后同一个设备会再次作为新设备回调
+    public synchronized void clear() {
+        int generation = ++mGeneration;
+        mWorker.obtainMessage(MSG_CLEAR, generation, 0, null).sendToTarget();
+    }
+
+    //停止后台线程, 之后不再回调
+    public synchronized void quit() {
+        mGeneration++;
+        mThread.quitSafely();
+        mMain.removeCallbacksAndMessages(null);
+    }
+
+    private void add(BluetoothDevice device) {
+        String address = device.getAddress();
+        if (mIndex.containsKey(address)) {
+            //不重复添加
+            return;
+        }
+        mIndex.put(address, device);
+        mAll.add(device);
+        mAdded.add(device);
+        if (!mFlushScheduled) {
+            mFlushScheduled = true;
+            mWorker.sendEmptyMessageDelayed(MSG_FLUSH, mIntervalMs);
+        }
+    }
+
+    private void flush() {
+        mFlushScheduled = false;
+        if (mAdded.isEmpty()) {
+            return;
+        }
+        final List<BluetoothDevice> added = mAdded;
+        final List<BluetoothDevice> all = new ArrayList<>(mAll);
+        final int generation = mWorkerGeneration;
+        mAdded = new ArrayList<>();
+        mMain.post(new Runnable() {
+            @Override
+            public void run() {
+                if (generation == mGeneration) {
+                    mListener.onScanBatch(added, all);
+                }
+            }
+        });
+    }
+
+    private void reset(int generation) {
+        mWorkerGeneration = generation;
+        mIndex.clear();
+        mAll.clear();
+        mAdded = new ArrayList<>();
+        mWorker.removeMessages(MSG_FLUSH);
+        mFlushScheduled = false;
+    }
+}
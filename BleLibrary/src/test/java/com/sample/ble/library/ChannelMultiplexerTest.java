@@ -0,0 +1,94 @@
+package com.sample.ble.library;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class ChannelMultiplexerTest {
+    private static final int CONTROL = 0x30;
+    private static final int AUDIO = 0x40;
+    private static final int FILE = 0x41;
+
+    private final List<String> messages = new ArrayList<>();
+    private final ChannelMultiplexer.Listener listener = new ChannelMultiplexer.Listener() {
+        @Override
+        public void onMessage(int channel, byte[] buffer, int offset, int length) {
+            messages.add(Integer.toHexString(channel) + ":" + length);
+        }
+    };
+
+    private ChannelMultiplexer create(ChannelMultiplexer.Listener l) {
+        ChannelMultiplexer mux = new ChannelMultiplexer(20, l);
+        mux.registerChannel(CONTROL, ChannelMultiplexer.PRIORITY_CONTROL, 1);
+        mux.registerChannel(AUDIO, ChannelMultiplexer.PRIORITY_BULK, 3);
+        mux.registerChannel(FILE, ChannelMultiplexer.PRIORITY_BULK, 1);
+        return mux;
+    }
+
+    @Test
+    public void testControlOvertakesBulk() {
+        ChannelMultiplexer mux = create(null);
+        mux.offer(FILE, new byte[1000]);
+        Assert.assertEquals(FILE, mux.poll()[0] & 0xFF);
+        mux.offer(CONTROL, new byte[]{0x01, 0x10});
+        byte[] frame = mux.poll();
+        Assert.assertEquals(CONTROL, frame[0] & 0xFF);
+        Assert.assertEquals((byte) CustomPacket.HEAD_MSG_NUMBER, frame[1]);
+        Assert.assertEquals(FILE, mux.poll()[0] & 0xFF);
+    }
+
+    @Test
+    public void testWeightedShare() {
+        ChannelMultiplexer mux = create(null);
+        mux.offer(AUDIO, new byte[14 * 4000]);
+        mux.offer(FILE, new byte[14 * 4000]);
+        int audio = 0;
+        int file = 0;
+        for (int i = 0; i < 4000; i++) {
+            if ((mux.poll()[0] & 0xFF) == AUDIO) {
+                audio++;
+            } else {
+                file++;
+            }
+        }
+        Assert.assertEquals(3.0, audio / (double) file, 0.05);
+    }
+
+    @Test
+    public void testFragmentRoundTrip() {
+        ChannelMultiplexer sender = create(null);
+        ChannelMultiplexer receiver = create(listener);
+        byte[] big = new byte[100];
+        for (int i = 0; i < big.length; i++) {
+            big[i] = (byte) i;
+        }
+        final byte[][] received = new byte[1][];
+        ChannelMultiplexer check = new ChannelMultiplexer(20, new ChannelMultiplexer.Listener() {
+            @Override
+            public void onMessage(int channel, byte[] buffer, int offset, int length) {
+                received[0] = Arrays.copyOfRange(buffer, offset, offset + length);
+            }
+        });
+        check.registerChannel(FILE, ChannelMultiplexer.PRIORITY_BULK, 1);
+        sender.offer(FILE, big);
+        sender.offer(CONTROL, new byte[]{0x01});
+        sender.offer(AUDIO, new byte[30]);
+        byte[] frame;
+        while ((frame = sender.poll()) != null) {
+            Assert.assertTrue(frame.length <= 20);
+            receiver.onFrame(frame, 0, frame.length);
+            check.onFrame(frame, 0, frame.length);
+        }
+        Assert.assertEquals(Arrays.asList("30:1", "40:30", "41:100"), messages);
+        Assert.assertArrayEquals(big, received[0]);
+        Assert.assertFalse(sender.hasPending());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownChannel() {
+        create(null).offer(0x50, new byte[1]);
+    }
+}
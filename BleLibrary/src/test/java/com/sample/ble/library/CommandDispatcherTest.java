@@ -0,0 +1,137 @@
+package com.sample.ble.library;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+public class CommandDispatcherTest {
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private final List<String> received = new ArrayList<>();
+
+    private CommandDispatcher.CommandHandler recorder(final String name) {
+        return new CommandDispatcher.CommandHandler() {
+            @Override
+            public void onCommand(int command, byte[] value, int length) {
+                received.add(name + command + Arrays.toString(Arrays.copyOf(value, length)));
+            }
+        };
+    }
+
+    @Test
+    public void testRoutesByFirstByte() {
+        CommandDispatcher dispatcher = new CommandDispatcher(DIRECT);
+        dispatcher.register(1, recorder("a"));
+        dispatcher.register(0xF0, recorder("b"));
+
+        Assert.assertTrue(dispatcher.dispatch(new byte[]{1, 5}));
+        Assert.assertTrue(dispatcher.dispatch(new byte[]{(byte) 0xF0}));
+        Assert.assertFalse(dispatcher.dispatch(new byte[]{2, 5}));
+        Assert.assertEquals(Arrays.asList("a1[1, 5]", "b240[-16]"), received);
+    }
+
+    @Test
+    public void testIgnoresEmptyValues() {
+        CommandDispatcher dispatcher = new CommandDispatcher(DIRECT);
+        dispatcher.register(0, recorder("a"));
+        Assert.assertFalse(dispatcher.dispatch(null));
+        Assert.assertFalse(dispatcher.dispatch(new byte[0]));
+        Assert.assertTrue(received.isEmpty());
+    }
+
+    @Test
+    public void testRegisterReplacesAndUnregisters() {
+        CommandDispatcher dispatcher = new CommandDispatcher(DIRECT);
+        dispatcher.register(3, recorder("a"));
+        dispatcher.register(3, recorder("b"));
+        dispatcher.dispatch(new byte[]{3});
+        dispatcher.register(3, null);
+        Assert.assertNull(dispatcher.getHandler(3));
+        Assert.assertFalse(dispatcher.dispatch(new byte[]{3}));
+        Assert.assertEquals(Arrays.asList("b3[3]"), received);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRejectsBadCommand() {
+        new CommandDispatcher(DIRECT).register(256, recorder("a"));
+    }
+
+    @Test
+    public void testCopiesValueBeforeReturning() throws Exception {
+        ExecutorService worker = Executors.newSingleThreadExecutor();
+        final CountDownLatch gate = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(2);
+        final List<String> values = new ArrayList<>();
+        CommandDispatcher dispatcher = new CommandDispatcher(worker, 4);
+        dispatcher.register(1, new CommandDispatcher.CommandHandler() {
+            @Override
+            public void onCommand(int command, byte[] value, int length) {
+                try {
+                    gate.await();
+                } catch (InterruptedException e) {
+                    throw new AssertionError(e);
+                }
+                values.add(Arrays.toString(Arrays.copyOf(value, length)));
+                done.countDown();
+            }
+        });
+
+        byte[] shared = {1, 7};
+        dispatcher.dispatch(shared);
+        shared[1] = 8;
+        // Longer than the pooled buffers.
+        dispatcher.dispatch(new byte[]{1, 2, 3, 4, 5, 6});
+        shared[1] = 9;
+        gate.countDown();
+        Assert.assertTrue(done.await(5, TimeUnit.SECONDS));
+        worker.shutdown();
+        Assert.assertEquals(Arrays.asList("[1, 7]", "[1, 2, 3, 4, 5, 6]"), values);
+    }
+
+    @Test
+    public void testReusesBuffers() {
+        final List<byte[]> buffers = new ArrayList<>();
+        CommandDispatcher dispatcher = new CommandDispatcher(DIRECT);
+        dispatcher.register(1, new CommandDispatcher.CommandHandler() {
+            @Override
+            public void onCommand(int command, byte[] value, int length) {
+                buffers.add(value);
+            }
+        });
+        for (int i = 0; i < 10; i++) {
+            dispatcher.dispatch(new byte[]{1, (byte) i});
+        }
+        for (byte[] buffer : buffers) {
+            Assert.assertSame(buffers.get(0), buffer);
+        }
+    }
+
+    @Test
+    public void testRejectedByExecutor() {
+        CommandDispatcher dispatcher = new CommandDispatcher(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                throw new RejectedExecutionException();
+            }
+        });
+        dispatcher.register(1, recorder("a"));
+        Assert.assertFalse(dispatcher.dispatch(new byte[]{1}));
+        dispatcher.setExecutor(DIRECT);
+        Assert.assertTrue(dispatcher.dispatch(new byte[]{1}));
+        Assert.assertEquals(Arrays.asList("a1[1]"), received);
+    }
+}
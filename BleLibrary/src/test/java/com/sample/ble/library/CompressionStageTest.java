@@ -0,0 +1,74 @@
+package com.sample.ble.library;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.DataFormatException;
+
+public class CompressionStageTest {
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+    private static final byte[] TELEMETRY_DICTIONARY =
+            "{\"hr\":,\"spo2\":,\"steps\":,\"battery\":,\"temp\":}".getBytes(ASCII);
+
+    @Test
+    public void testNegotiation() {
+        CompressionStage local = new CompressionStage(new DeflateCompressor(2, TELEMETRY_DICTIONARY),
+                new DeflateCompressor());
+        Assert.assertEquals(-1, local.activeId());
+        Assert.assertFalse(local.negotiate(new byte[]{7}));
+        Assert.assertTrue(local.negotiate(new byte[]{DeflateCompressor.ID_DEFLATE, 9}));
+        Assert.assertEquals(DeflateCompressor.ID_DEFLATE, local.activeId());
+        Assert.assertTrue(local.negotiate(new CompressionStage(new DeflateCompressor(),
+                new DeflateCompressor(2, TELEMETRY_DICTIONARY)).supportedIds()));
+        Assert.assertEquals(2, local.activeId());
+    }
+
+    @Test
+    public void testDictionaryShrinksShortTelemetry() throws DataFormatException {
+        byte[] payload = "{\"hr\":72,\"spo2\":98,\"steps\":1042,\"battery\":87,\"temp\":36}".getBytes(ASCII);
+        CompressionStage plain = stage(new DeflateCompressor());
+        CompressionStage dictionary = stage(new DeflateCompressor(2, TELEMETRY_DICTIONARY));
+        byte[] dst = new byte[payload.length];
+        int plainLength = plain.compress(payload, 0, payload.length, dst, 0);
+        int dictionaryLength = dictionary.compress(payload, 0, payload.length, dst, 0);
+        Assert.assertTrue(dictionaryLength > 0);
+        Assert.assertTrue(plainLength < 0 || dictionaryLength < plainLength);
+
+        byte[] frame = new byte[CustomPacketEncoder.encodedLength(dictionaryLength)];
+        CustomPacketEncoder.encode((byte) CustomPacket.HEAD_CHANNEL_WATCH_TO_SBM,
+                (byte) CustomPacket.HEAD_MSG_COMPRESSED, 0, dst, 0, dictionaryLength, frame, 0);
+        byte[] restored = new byte[256];
+        int n = dictionary.decode(new CustomPacketView().wrap(frame, 0, frame.length), restored, 0);
+        Assert.assertEquals(new String(payload, ASCII), new String(restored, 0, n, ASCII));
+    }
+
+    @Test
+    public void testIncompressibleSentPlain() throws DataFormatException {
+        byte[] payload = new byte[200];
+        new Random(3).nextBytes(payload);
+        PacketSegmenter segmenter = new PacketSegmenter();
+        segmenter.onMtuChanged("A", 247);
+        CompressionStage stage = stage(new DeflateCompressor());
+        segmenter.setCompression("A", stage);
+        List<byte[]> segments = segmenter.segment("A", CustomPacket.HEAD_CHANNEL_WATCH_TO_SBM, payload);
+        Assert.assertEquals(1, segments.size());
+        Assert.assertEquals((byte) CustomPacket.HEAD_MSG_NUMBER, segments.get(0)[1]);
+
+        byte[] repetitive = new byte[200];
+        segments = segmenter.segment("A", CustomPacket.HEAD_CHANNEL_WATCH_TO_SBM, repetitive);
+        byte[] frame = segments.get(0);
+        Assert.assertEquals((byte) CustomPacket.HEAD_MSG_COMPRESSED, frame[1]);
+        Assert.assertTrue(frame.length < 50);
+        byte[] restored = new byte[256];
+        Assert.assertEquals(200, stage.decode(new CustomPacketView().wrap(frame, 0, frame.length), restored, 0));
+    }
+
+    private static CompressionStage stage(PayloadCompressor compressor) {
+        CompressionStage stage = new CompressionStage(compressor);
+        stage.negotiate(new byte[]{(byte) compressor.id()});
+        return stage;
+    }
+}
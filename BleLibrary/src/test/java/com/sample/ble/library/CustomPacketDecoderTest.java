@@ -0,0 +1,166 @@
+package com.sample.ble.library;
+
+import com.sample.ble.library.utils.DigestEncodingUtils;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class CustomPacketDecoderTest {
+    private final List<String> frames = new ArrayList<>();
+    private final CustomPacketDecoder decoder = new CustomPacketDecoder(new CustomPacketDecoder.Listener() {
+        @Override
+        public void onFrame(byte[] frame, int offset, int length) {
+            frames.add(DigestEncodingUtils.encodeWithHex(frame, offset, offset + length));
+        }
+    }, 64);
+
+    @Test
+    public void testSplitHeader() {
+        decoder.feed(DigestEncodingUtils.fromHexString("31A1"));
+        decoder.feed(DigestEncodingUtils.fromHexString("0002"));
+        Assert.assertEquals(4, decoder.pending());
+        decoder.feed(DigestEncodingUtils.fromHexString("0000A1"));
+        Assert.assertTrue(frames.isEmpty());
+        decoder.feed(DigestEncodingUtils.fromHexString("B1"));
+        Assert.assertEquals(1, frames.size());
+        Assert.assertEquals("31A100020000A1B1", frames.get(0));
+        Assert.assertEquals(0, decoder.pending());
+    }
+
+    @Test
+    public void testSeveralFramesPerChunk() {
+        decoder.feed(DigestEncodingUtils.fromHexString("31A100020000A1B131A100010001C131A1"));
+        Assert.assertEquals(2, frames.size());
+        Assert.assertEquals("31A100010001C1", frames.get(1));
+        Assert.assertEquals(2, decoder.pending());
+    }
+
+    @Test
+    public void testFramesWrapAroundRing() {
+        byte[] payload = new byte[50];
+        for (int i = 0; i < payload.length; i++) {
+            payload[i] = (byte) i;
+        }
+        byte[] stream = new byte[CustomPacketEncoder.encodedLength(payload.length) * 7];
+        int n = 0;
+        for (int i = 0; i < 7; i++) {
+            n += CustomPacketEncoder.encode((byte) 0x31, (byte) 0xA1, i, payload, 0, payload.length, stream, n);
+        }
+        // 20 bytes is the default ATT payload
+        for (int i = 0; i < n; i += 20) {
+            decoder.feed(stream, i, Math.min(20, n - i));
+        }
+        Assert.assertEquals(7, frames.size());
+        String expected = DigestEncodingUtils.encodeWithHex(payload);
+        for (int i = 0; i < 7; i++) {
+            Assert.assertEquals(String.format("31A10032%04X", i) + expected, frames.get(i));
+        }
+    }
+
+    @Test
+    public void testResyncOnGarbage() {
+        // garbage byte, then a header announcing a frame longer than the decoder accepts
+        decoder.feed(DigestEncodingUtils.fromHexString("FF30A1FFFF000031A100010005EE"));
+        Assert.assertEquals(1, frames.size());
+        Assert.assertEquals("31A100010005EE", frames.get(0));
+        Assert.assertEquals(7, decoder.droppedBytes());
+    }
+
+    @Test
+    public void testParseUint16Length() {
+        byte[] packet = new byte[CustomPacketEncoder.encodedLength(300)];
+        CustomPacketEncoder.encode((byte) 0x31, (byte) 0xA1, 0, new byte[300], 0, 300, packet, 0);
+        Assert.assertEquals(300, CustomPacket.parseData(packet).length);
+    }
+
+    @Test
+    public void testCrcTrailer() {
+        CustomPacketDecoder checked = new CustomPacketDecoder(new CustomPacketDecoder.Listener() {
+            @Override
+            public void onFrame(byte[] frame, int offset, int length) {
+                frames.add(DigestEncodingUtils.encodeWithHex(frame, offset, offset + length));
+            }
+        }, 64, true);
+        PacketSegmenter segmenter = new PacketSegmenter();
+        segmenter.setCrcTrailer(true);
+        byte[] payload = DigestEncodingUtils.fromHexString("0102030405060708090A0B0C0D0E0F101112131415");
+        List<byte[]> good = segmenter.segment("A", CustomPacket.HEAD_CHANNEL_SBM_TO_WATCH, payload);
+        List<byte[]> bad = segmenter.segment("A", CustomPacket.HEAD_CHANNEL_SBM_TO_WATCH, payload);
+        bad.get(1)[3] ^= 0x10;
+        for (byte[] segment : bad) {
+            checked.feed(segment);
+        }
+        for (byte[] segment : good) {
+            checked.feed(segment);
+        }
+        Assert.assertEquals(1, checked.corruptFrames());
+        Assert.assertEquals(1, frames.size());
+        Assert.assertEquals("31A100150000" + DigestEncodingUtils.encodeWithHex(payload), frames.get(0));
+        Assert.assertEquals(0, checked.pending());
+    }
+
+    @Test
+    public void testResyncRequiresKnownChannel() {
+        // 05A1 looks like a header with a known message number, but 0x05 is no channel
+        decoder.feed(DigestEncodingUtils.fromHexString("05A100010000FF31A100010001C1"));
+        Assert.assertEquals(1, frames.size());
+        Assert.assertEquals("31A100010001C1", frames.get(0));
+        Assert.assertEquals(7, decoder.droppedBytes());
+
+        decoder.addChannel(0x05);
+        decoder.feed(DigestEncodingUtils.fromHexString("05A100010002D1"));
+        Assert.assertEquals("05A100010002D1", frames.get(1));
+    }
+
+    @Test
+    public void testRoutesLargeFrameAndInterleavedCommands() {
+        // Same routing and decoder size as BleConnection.onCharacteristicChanged
+        final List<byte[]> payloads = new ArrayList<>();
+        CustomPacketDecoder connectionDecoder = new CustomPacketDecoder(new CustomPacketDecoder.Listener() {
+            @Override
+            public void onFrame(byte[] frame, int offset, int length) {
+                payloads.add(Arrays.copyOfRange(frame, offset + CustomPacketEncoder.HEAD_LENGTH, offset + length));
+            }
+        }, CustomPacketDecoder.MAX_FRAME_LENGTH);
+        PacketSegmenter segmenter = new PacketSegmenter();
+        segmenter.onMtuChanged("A", 185);
+        byte[] payload = new byte[1000];
+        for (int i = 0; i < payload.length; i++) {
+            payload[i] = (byte) (i * 7);
+        }
+        List<byte[]> notifications = new ArrayList<>(
+                segmenter.segment("A", CustomPacket.HEAD_CHANNEL_SBM_TO_WATCH, payload));
+        Assert.assertEquals(6, notifications.size());
+        notifications.add(0, new byte[]{0x02, 0x01});
+        notifications.add(2, new byte[]{0x01, 0x05});
+        notifications.add(new byte[]{0x03, 0x07});
+
+        List<String> commands = new ArrayList<>();
+        for (byte[] value : notifications) {
+            if (connectionDecoder.accepts(value, 0, value.length, segmenter.getMaxSegmentLength("A"))) {
+                connectionDecoder.feed(value);
+            } else {
+                commands.add(DigestEncodingUtils.encodeWithHex(value));
+            }
+        }
+        Assert.assertEquals(Arrays.asList("0201", "0105", "0307"), commands);
+        Assert.assertEquals(1, payloads.size());
+        Assert.assertArrayEquals(payload, payloads.get(0));
+        Assert.assertEquals(0, connectionDecoder.pending());
+        Assert.assertEquals(0, connectionDecoder.droppedBytes());
+    }
+
+    @Test
+    public void testRemaining() {
+        decoder.feed(DigestEncodingUtils.fromHexString("31A1"));
+        Assert.assertEquals(4, decoder.remaining());
+        decoder.feed(DigestEncodingUtils.fromHexString("000A0000A1"));
+        Assert.assertEquals(9, decoder.remaining());
+        Assert.assertFalse(decoder.accepts(new byte[]{0x01, 0x05}, 0, 2, 20));
+        Assert.assertTrue(decoder.accepts(new byte[9], 0, 9, 20));
+    }
+}
@@ -0,0 +1,78 @@
+package com.sample.ble.library;
+
+import com.sample.ble.library.utils.DigestEncodingUtils;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.ByteBuffer;
+
+/**
+ * Compares the old hex round-trip frame builder with {@link CustomPacketEncoder}, measuring the
+ * heap allocated per frame on the current thread.
+ */
+public class CustomPacketEncoderBenchmark {
+    private static final int WARMUP = 20000;
+    private static final int FRAMES = 200000;
+
+    private final byte[] payload = DigestEncodingUtils.fromHexString("0102030405060708090A0B0C0D0E");
+    private final byte[] dst = new byte[CustomPacketEncoder.encodedLength(payload.length)];
+    private final ByteBuffer directDst = ByteBuffer.allocateDirect(dst.length);
+    private int sink;
+
+    @Test
+    public void benchmarkEncode() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+            System.out.println("Allocation counters unavailable, skip");
+            return;
+        }
+        com.sun.management.ThreadMXBean mx = (com.sun.management.ThreadMXBean) bean;
+
+        run(mx, "hex round-trip", new Runnable() {
+            @Override
+            public void run() {
+                byte[] head = new byte[CustomPacketEncoder.HEAD_LENGTH];
+                CustomPacketEncoder.writeHead((byte) 0x30, (byte) 0xA1, payload.length, 0, head, 0);
+                StringBuilder stringBuilder = new StringBuilder();
+                stringBuilder.append(DigestEncodingUtils.encodeWithHex(head));
+                stringBuilder.append(DigestEncodingUtils.encodeWithHex(payload));
+                sink += DigestEncodingUtils.fromHexString(stringBuilder.toString()).length;
+            }
+        });
+        double array = run(mx, "encode byte[]", new Runnable() {
+            @Override
+            public void run() {
+                sink += CustomPacket.encode(payload, 0, payload.length, dst, 0);
+            }
+        });
+        double direct = run(mx, "encode direct ByteBuffer", new Runnable() {
+            @Override
+            public void run() {
+                directDst.clear();
+                sink += CustomPacket.encode(payload, 0, payload.length, directDst);
+            }
+        });
+        Assert.assertTrue("byte[] encoder allocates " + array + " B/frame", array < 1);
+        Assert.assertTrue("ByteBuffer encoder allocates " + direct + " B/frame", direct < 1);
+    }
+
+    private double run(com.sun.management.ThreadMXBean mx, String name, Runnable frame) {
+        for (int i = 0; i < WARMUP; i++) {
+            frame.run();
+        }
+        long tid = Thread.currentThread().getId();
+        long bytesBefore = mx.getThreadAllocatedBytes(tid);
+        long start = System.nanoTime();
+        for (int i = 0; i < FRAMES; i++) {
+            frame.run();
+        }
+        long elapsed = System.nanoTime() - start;
+        double bytesPerFrame = (double) (mx.getThreadAllocatedBytes(tid) - bytesBefore) / FRAMES;
+        System.out.println(String.format("%-26s %8.1f ns/frame %8.2f B/frame",
+                name, (double) elapsed / FRAMES, bytesPerFrame));
+        return bytesPerFrame;
+    }
+}
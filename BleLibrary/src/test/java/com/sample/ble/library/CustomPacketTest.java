@@ -5,6 +5,9 @@ import com.sample.ble.library.utils.DigestEncodingUtils;
 import org.junit.Assert;
 import org.junit.Test;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
 public class CustomPacketTest {
     @Test
     public void testGenerate() {
@@ -27,4 +30,51 @@ public class CustomPacketTest {
         byte[] test3 = DigestEncodingUtils.fromHexString("31A100140002A1B1A2B2CCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCC");
         Assert.assertEquals(DigestEncodingUtils.encodeWithHex(CustomPacket.parseData(test3)), "A1B1A2B2CCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCC");
     }
+
+    @Test
+    public void testEncodeIntoArray() {
+        byte[] payload = DigestEncodingUtils.fromHexString("A1B1C1");
+        byte[] dst = new byte[16];
+        int written = CustomPacket.newPacket(payload).writeTo(dst, 4);
+        Assert.assertEquals(9, written);
+        Assert.assertEquals("30A10003", DigestEncodingUtils.encodeWithHex(dst, 4, 8));
+        Assert.assertEquals("A1B1C1", DigestEncodingUtils.encodeWithHex(dst, 10, 13));
+    }
+
+    @Test
+    public void testEncodeIntoBuffer() {
+        byte[] payload = new byte[300];
+        payload[299] = 0x7F;
+        ByteBuffer heap = ByteBuffer.allocate(400);
+        ByteBuffer direct = ByteBuffer.allocateDirect(400);
+        heap.position(2);
+        Assert.assertEquals(306, CustomPacket.encode(payload, 0, payload.length, heap));
+        Assert.assertEquals(306, CustomPacket.encode(payload, 0, payload.length, direct));
+        Assert.assertEquals(308, heap.position());
+        Assert.assertEquals(306, direct.position());
+        // uint16 length, big endian
+        Assert.assertEquals(0x01, heap.get(4));
+        Assert.assertEquals(0x2C, heap.get(5));
+        Assert.assertEquals(0x01, direct.get(2));
+        Assert.assertEquals(0x2C, direct.get(3));
+        Assert.assertEquals(0x7F, direct.get(305));
+    }
+
+    @Test
+    public void testEncodeIntoLittleEndianDirectBuffer() {
+        ByteBuffer direct = ByteBuffer.allocateDirect(16).order(ByteOrder.LITTLE_ENDIAN);
+        Assert.assertEquals(9, CustomPacketEncoder.encode((byte) 0x31, (byte) 0xA1, 0x1234,
+                new byte[]{0x0A, 0x0B, 0x0C}, 0, 3, direct));
+        byte[] frame = new byte[9];
+        direct.flip();
+        direct.get(frame);
+        // The frame stays big endian, the buffer keeps its order.
+        Assert.assertEquals("31A1000312340A0B0C", DigestEncodingUtils.encodeWithHex(frame));
+        Assert.assertEquals(ByteOrder.LITTLE_ENDIAN, direct.order());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testEncodeBufferTooSmall() {
+        CustomPacket.newPacket(new byte[8]).writeTo(new byte[10], 0);
+    }
 }
@@ -0,0 +1,48 @@
+package com.sample.ble.library;
+
+import com.sample.ble.library.utils.DigestEncodingUtils;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+public class CustomPacketViewTest {
+    @Test
+    public void testArrayView() {
+        byte[] frame = DigestEncodingUtils.fromHexString("FFFF31A100031234A1B1C1");
+        CustomPacketView view = new CustomPacketView().wrap(frame, 2, frame.length - 2);
+        Assert.assertEquals(0x31, view.channel());
+        Assert.assertEquals(0xA1, view.msgNumber());
+        Assert.assertEquals(3, view.payloadLength());
+        Assert.assertEquals(0x1234, view.sequence());
+        Assert.assertTrue(view.hasArray());
+        Assert.assertSame(frame, view.array());
+        Assert.assertEquals(8, view.payloadOffset());
+        Assert.assertEquals((byte) 0xC1, view.payloadByte(2));
+    }
+
+    @Test
+    public void testDirectBufferView() {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(16);
+        buffer.put(DigestEncodingUtils.fromHexString("31A100020007A1B1"));
+        buffer.flip();
+        CustomPacketView view = new CustomPacketView().wrap(buffer);
+        Assert.assertFalse(view.hasArray());
+        Assert.assertEquals(7, view.sequence());
+        byte[] payload = new byte[2];
+        Assert.assertEquals(2, view.copyPayload(payload, 0));
+        Assert.assertEquals("A1B1", DigestEncodingUtils.encodeWithHex(payload));
+        ByteBuffer dst = ByteBuffer.allocate(4);
+        view.copyPayload(dst);
+        Assert.assertEquals(2, dst.position());
+        Assert.assertEquals((byte) 0xB1, dst.get(1));
+        Assert.assertEquals(0, buffer.position());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testTruncated() {
+        byte[] frame = DigestEncodingUtils.fromHexString("31A100040000A1B1");
+        new CustomPacketView().wrap(frame, 0, frame.length);
+    }
+}
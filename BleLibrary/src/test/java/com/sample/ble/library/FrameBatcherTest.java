@@ -0,0 +1,74 @@
+package com.sample.ble.library;
+
+import com.sample.ble.library.utils.DigestEncodingUtils;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class FrameBatcherTest {
+    private final List<byte[]> frames = new ArrayList<>();
+    private final FrameSink sink = new FrameSink() {
+        @Override
+        public void send(byte[] frame, int offset, int length) {
+            frames.add(Arrays.copyOfRange(frame, offset, offset + length));
+        }
+    };
+
+    @Test
+    public void testCoalesceUntilFlush() {
+        FrameBatcher batcher = new FrameBatcher(sink, CustomPacket.HEAD_CHANNEL_WATCH_TO_SBM,
+                new SequenceAllocator(), 20);
+        Assert.assertTrue(batcher.offer(new byte[]{0x01, 0x10}));
+        Assert.assertFalse(batcher.offer(new byte[]{0x01, 0x11}));
+        Assert.assertFalse(batcher.offer(new byte[]{0x02, 0x01}));
+        Assert.assertTrue(frames.isEmpty());
+        batcher.flush();
+        Assert.assertEquals(1, frames.size());
+        Assert.assertEquals("30A300090000" + "020110020111020201",
+                DigestEncodingUtils.encodeWithHex(frames.get(0)));
+        Assert.assertEquals(Arrays.asList("0110", "0111", "0201"), unpack(frames.get(0)));
+    }
+
+    @Test
+    public void testFlushWhenFull() {
+        FrameBatcher batcher = new FrameBatcher(sink, CustomPacket.HEAD_CHANNEL_WATCH_TO_SBM,
+                new SequenceAllocator(), 20);
+        // 6 bytes header + 4 * 3 bytes entries = 18, the fifth entry does not fit
+        for (int i = 0; i < 5; i++) {
+            batcher.offer(new byte[]{0x01, (byte) i});
+        }
+        Assert.assertEquals(1, frames.size());
+        Assert.assertEquals(18, frames.get(0).length);
+        Assert.assertEquals(1, batcher.size());
+        batcher.flush();
+        // a single message goes out as a plain frame
+        Assert.assertEquals("30A100020001" + "0104", DigestEncodingUtils.encodeWithHex(frames.get(1)));
+        Assert.assertEquals(Arrays.asList("0104"), unpack(frames.get(1)));
+    }
+
+    @Test
+    public void testLargeMessageBypassesBatch() {
+        FrameBatcher batcher = new FrameBatcher(sink, CustomPacket.HEAD_CHANNEL_WATCH_TO_SBM,
+                new SequenceAllocator(), 20);
+        batcher.offer(new byte[]{0x01, 0x02});
+        batcher.offer(new byte[30]);
+        Assert.assertEquals(2, frames.size());
+        Assert.assertEquals(8, frames.get(0).length);
+        Assert.assertEquals(36, frames.get(1).length);
+    }
+
+    private static List<String> unpack(byte[] frame) {
+        final List<String> messages = new ArrayList<>();
+        FrameBatcher.unpack(frame, 0, frame.length, new FrameBatcher.Listener() {
+            @Override
+            public void onMessage(byte[] buffer, int offset, int length) {
+                messages.add(DigestEncodingUtils.encodeWithHex(buffer, offset, offset + length));
+            }
+        });
+        return messages;
+    }
+}
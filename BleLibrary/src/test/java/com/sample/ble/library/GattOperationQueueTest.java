@@ -0,0 +1,158 @@
+package com.sample.ble.library;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BiConsumer;
+
+public class GattOperationQueueTest {
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+    private final GattOperationQueue queue = new GattOperationQueue(timer);
+    private final List<String> started = new ArrayList<>();
+
+    private class FakeOperation<T> extends GattOperationQueue.Operation<T> {
+        private final String name;
+        private final boolean accept;
+
+        FakeOperation(int type, String name, boolean accept, long timeoutMs) {
+            super(type, timeoutMs);
+            this.name = name;
+            this.accept = accept;
+        }
+
+        FakeOperation(int type, String name) {
+            this(type, name, true, GattOperationQueue.DEFAULT_TIMEOUT_MS);
+        }
+
+        @Override
+        protected boolean start() {
+            started.add(name);
+            return accept;
+        }
+    }
+
+    @After
+    public void tearDown() {
+        timer.shutdownNow();
+    }
+
+    @Test
+    public void testOneOutstandingOperation() throws Exception {
+        CompletableFuture<Void> descriptor = queue.enqueue(
+                new FakeOperation<Void>(GattOperationQueue.OP_WRITE_DESCRIPTOR, "descriptor"));
+        CompletableFuture<Void> workModel = queue.enqueue(
+                new FakeOperation<Void>(GattOperationQueue.OP_WRITE_CHARACTERISTIC, "workModel"));
+        CompletableFuture<Integer> mtu = queue.enqueue(
+                new FakeOperation<Integer>(GattOperationQueue.OP_REQUEST_MTU, "mtu"));
+        Assert.assertEquals(3, queue.size());
+        Assert.assertEquals("[descriptor]", started.toString());
+
+        // A write callback while the descriptor write is outstanding is not ours
+        Assert.assertFalse(queue.onComplete(GattOperationQueue.OP_WRITE_CHARACTERISTIC, 0, null));
+        Assert.assertTrue(queue.onComplete(GattOperationQueue.OP_WRITE_DESCRIPTOR, 0, null));
+        Assert.assertTrue(descriptor.isDone());
+        Assert.assertEquals("[descriptor, workModel]", started.toString());
+
+        Assert.assertTrue(queue.onComplete(GattOperationQueue.OP_WRITE_CHARACTERISTIC, 133, null));
+        try {
+            workModel.get();
+            Assert.fail();
+        } catch (ExecutionException e) {
+            Assert.assertEquals(133, ((GattException) e.getCause()).getStatus());
+        }
+        Assert.assertTrue(queue.onComplete(GattOperationQueue.OP_REQUEST_MTU, 0, 247));
+        Assert.assertEquals(Integer.valueOf(247), mtu.get());
+        Assert.assertEquals(0, queue.size());
+    }
+
+    @Test
+    public void testPipelineFromCompletion() {
+        final CompletableFuture<Void> first = queue.enqueue(
+                new FakeOperation<Void>(GattOperationQueue.OP_WRITE_CHARACTERISTIC, "first"));
+        first.whenComplete(new BiConsumer<Void, Throwable>() {
+            @Override
+            public void accept(Void result, Throwable error) {
+                queue.enqueue(new FakeOperation<Void>(GattOperationQueue.OP_WRITE_CHARACTERISTIC, "second"));
+            }
+        });
+        queue.onComplete(GattOperationQueue.OP_WRITE_CHARACTERISTIC, 0, null);
+        Assert.assertEquals("[first, second]", started.toString());
+        Assert.assertEquals(1, queue.size());
+    }
+
+    @Test
+    public void testRejectedAndTimeout() throws Exception {
+        CompletableFuture<Void> rejected = queue.enqueue(
+                new FakeOperation<Void>(GattOperationQueue.OP_WRITE_CHARACTERISTIC, "rejected", false, 1000));
+        CompletableFuture<Void> slow = queue.enqueue(
+                new FakeOperation<Void>(GattOperationQueue.OP_DISCOVER_SERVICES, "slow", true, 20));
+        CompletableFuture<byte[]> read = queue.enqueue(
+                new FakeOperation<byte[]>(GattOperationQueue.OP_READ_CHARACTERISTIC, "read"));
+        Assert.assertTrue(rejected.isCompletedExceptionally());
+        try {
+            slow.get(2, TimeUnit.SECONDS);
+            Assert.fail();
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof TimeoutException);
+        }
+        // The queue moved on to the read once the discovery timed out
+        Assert.assertTrue(queue.onComplete(GattOperationQueue.OP_READ_CHARACTERISTIC, 0, new byte[]{7}));
+        Assert.assertEquals(7, read.get()[0]);
+        Assert.assertEquals("[rejected, slow, read]", started.toString());
+    }
+
+    @Test
+    public void testStartThrows() throws Exception {
+        final CompletableFuture<Void> first = queue.enqueue(
+                new FakeOperation<Void>(GattOperationQueue.OP_WRITE_CHARACTERISTIC, "first"));
+        final boolean[] firstDone = new boolean[1];
+        CompletableFuture<Void> broken = queue.enqueue(
+                new GattOperationQueue.Operation<Void>(GattOperationQueue.OP_WRITE_DESCRIPTOR) {
+                    @Override
+                    protected boolean start() {
+                        firstDone[0] = first.isDone();
+                        throw new NullPointerException("descriptor");
+                    }
+                });
+        CompletableFuture<byte[]> read = queue.enqueue(
+                new FakeOperation<byte[]>(GattOperationQueue.OP_READ_CHARACTERISTIC, "read"));
+
+        Assert.assertTrue(queue.onComplete(GattOperationQueue.OP_WRITE_CHARACTERISTIC, 0, null));
+        // The finished operation completes before the next one starts
+        Assert.assertTrue(firstDone[0]);
+        try {
+            broken.get();
+            Assert.fail();
+        } catch (ExecutionException e) {
+            Assert.assertEquals(GattException.STATUS_REJECTED, ((GattException) e.getCause()).getStatus());
+            Assert.assertTrue(e.getCause().getCause() instanceof NullPointerException);
+        }
+        Assert.assertEquals("[first, read]", started.toString());
+        Assert.assertTrue(queue.onComplete(GattOperationQueue.OP_READ_CHARACTERISTIC, 0, new byte[]{1}));
+        Assert.assertEquals(1, read.get()[0]);
+        Assert.assertEquals(0, queue.size());
+    }
+
+    @Test
+    public void testClear() {
+        CompletableFuture<Void> a = queue.enqueue(
+                new FakeOperation<Void>(GattOperationQueue.OP_WRITE_CHARACTERISTIC, "a"));
+        CompletableFuture<Void> b = queue.enqueue(
+                new FakeOperation<Void>(GattOperationQueue.OP_WRITE_CHARACTERISTIC, "b"));
+        queue.clear(new GattException("Disconnected", 257));
+        Assert.assertTrue(a.isCompletedExceptionally());
+        Assert.assertTrue(b.isCompletedExceptionally());
+        Assert.assertEquals(0, queue.size());
+        Assert.assertFalse(queue.onComplete(GattOperationQueue.OP_WRITE_CHARACTERISTIC, 0, null));
+        Assert.assertEquals("[a]", started.toString());
+    }
+}
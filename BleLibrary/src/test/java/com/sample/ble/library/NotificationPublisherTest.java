@@ -0,0 +1,231 @@
+package com.sample.ble.library;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+public class NotificationPublisherTest {
+
+    /**
+     * Runs tasks only when the test pumps it, like a busy main looper.
+     */
+    private static class ManualExecutor implements Executor {
+        final Queue<Runnable> tasks = new ArrayDeque<>();
+
+        @Override
+        public synchronized void execute(Runnable command) {
+            tasks.add(command);
+        }
+
+        void runAll() {
+            while (true) {
+                Runnable task;
+                synchronized (this) {
+                    task = tasks.poll();
+                }
+                if (task == null) {
+                    return;
+                }
+                task.run();
+            }
+        }
+    }
+
+    private static class RecordingSubscriber implements NotificationFlow.Subscriber<byte[]> {
+        final List<String> events = Collections.synchronizedList(new ArrayList<String>());
+        final long initialRequest;
+        NotificationFlow.Subscription subscription;
+
+        RecordingSubscriber(long initialRequest) {
+            this.initialRequest = initialRequest;
+        }
+
+        @Override
+        public void onSubscribe(NotificationFlow.Subscription subscription) {
+            this.subscription = subscription;
+            if (initialRequest > 0) {
+                subscription.request(initialRequest);
+            }
+        }
+
+        @Override
+        public void onNext(byte[] item) {
+            events.add(String.valueOf(item[0]));
+        }
+
+        @Override
+        public void onError(Throwable error) {
+            events.add("error " + error.getClass().getSimpleName());
+        }
+
+        @Override
+        public void onComplete() {
+            events.add("complete");
+        }
+    }
+
+    private final ManualExecutor looper = new ManualExecutor();
+    private final NotificationPublisher publisher = new NotificationPublisher(looper);
+
+    @Test
+    public void testDeliversOnlyRequestedValues() {
+        RecordingSubscriber subscriber = new RecordingSubscriber(2);
+        publisher.subscribe(subscriber);
+        looper.runAll();
+        for (int i = 0; i < 3; i++) {
+            publisher.publish(new byte[]{(byte) i});
+        }
+        looper.runAll();
+        Assert.assertEquals(2, subscriber.events.size());
+
+        subscriber.subscription.request(5);
+        looper.runAll();
+        Assert.assertEquals(Arrays.asList("0", "1", "2"), subscriber.events);
+    }
+
+    @Test
+    public void testCopiesPublishedValue() {
+        RecordingSubscriber subscriber = new RecordingSubscriber(Long.MAX_VALUE);
+        publisher.subscribe(subscriber);
+        looper.runAll();
+        byte[] value = {7};
+        publisher.publish(value);
+        value[0] = 8;
+        looper.runAll();
+        Assert.assertEquals(Collections.singletonList("7"), subscriber.events);
+    }
+
+    @Test
+    public void testDropOldestKeepsNewest() {
+        RecordingSubscriber subscriber = new RecordingSubscriber(0);
+        publisher.subscribe(subscriber, NotificationPublisher.Strategy.DROP_OLDEST, 3, looper);
+        looper.runAll();
+        for (int i = 0; i < 10; i++) {
+            publisher.publish(new byte[]{(byte) i});
+        }
+        // One drain task at most, however many values arrived.
+        Assert.assertTrue(looper.tasks.size() <= 1);
+        subscriber.subscription.request(Long.MAX_VALUE);
+        looper.runAll();
+        Assert.assertEquals(Arrays.asList("7", "8", "9"), subscriber.events);
+        Assert.assertEquals(7, publisher.getDroppedCount());
+    }
+
+    @Test
+    public void testLatestOnly() {
+        RecordingSubscriber subscriber = new RecordingSubscriber(0);
+        publisher.subscribe(subscriber, NotificationPublisher.Strategy.LATEST_ONLY, 8, looper);
+        looper.runAll();
+        for (int i = 0; i < 5; i++) {
+            publisher.publish(new byte[]{(byte) i});
+        }
+        subscriber.subscription.request(10);
+        looper.runAll();
+        Assert.assertEquals(Collections.singletonList("4"), subscriber.events);
+    }
+
+    @Test
+    public void testBlockWaitsForDemand() throws Exception {
+        ExecutorService consumer = Executors.newSingleThreadExecutor();
+        ExecutorService producer = Executors.newSingleThreadExecutor();
+        final RecordingSubscriber subscriber = new RecordingSubscriber(0);
+        final CountDownLatch subscribed = new CountDownLatch(1);
+        publisher.subscribe(new NotificationFlow.Subscriber<byte[]>() {
+            @Override
+            public void onSubscribe(NotificationFlow.Subscription subscription) {
+                subscriber.onSubscribe(subscription);
+                subscribed.countDown();
+            }
+
+            @Override
+            public void onNext(byte[] item) {
+                subscriber.onNext(item);
+            }
+
+            @Override
+            public void onError(Throwable error) {
+                subscriber.onError(error);
+            }
+
+            @Override
+            public void onComplete() {
+                subscriber.onComplete();
+            }
+        }, NotificationPublisher.Strategy.BLOCK, 2, consumer);
+        Assert.assertTrue(subscribed.await(5, TimeUnit.SECONDS));
+
+        final CountDownLatch published = new CountDownLatch(1);
+        producer.execute(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < 5; i++) {
+                    publisher.publish(new byte[]{(byte) i});
+                }
+                published.countDown();
+            }
+        });
+        Assert.assertFalse(published.await(200, TimeUnit.MILLISECONDS));
+        subscriber.subscription.request(Long.MAX_VALUE);
+        Assert.assertTrue(published.await(5, TimeUnit.SECONDS));
+        publisher.complete();
+        consumer.shutdown();
+        Assert.assertTrue(consumer.awaitTermination(5, TimeUnit.SECONDS));
+        producer.shutdown();
+        Assert.assertEquals(Arrays.asList("0", "1", "2", "3", "4", "complete"), subscriber.events);
+        Assert.assertEquals(0, publisher.getDroppedCount());
+    }
+
+    @Test
+    public void testCompleteAfterBufferedValues() {
+        RecordingSubscriber subscriber = new RecordingSubscriber(0);
+        publisher.subscribe(subscriber);
+        looper.runAll();
+        publisher.publish(new byte[]{1});
+        publisher.complete();
+        looper.runAll();
+        Assert.assertTrue(subscriber.events.isEmpty());
+        subscriber.subscription.request(1);
+        looper.runAll();
+        Assert.assertEquals(Arrays.asList("1", "complete"), subscriber.events);
+        Assert.assertFalse(publisher.hasSubscribers());
+
+        RecordingSubscriber late = new RecordingSubscriber(1);
+        publisher.subscribe(late);
+        looper.runAll();
+        Assert.assertEquals(Collections.singletonList("complete"), late.events);
+    }
+
+    @Test
+    public void testCancelStopsDelivery() {
+        RecordingSubscriber subscriber = new RecordingSubscriber(Long.MAX_VALUE);
+        publisher.subscribe(subscriber);
+        looper.runAll();
+        publisher.publish(new byte[]{1});
+        subscriber.subscription.cancel();
+        looper.runAll();
+        Assert.assertTrue(subscriber.events.isEmpty());
+        Assert.assertFalse(publisher.hasSubscribers());
+    }
+
+    @Test
+    public void testBadRequestFails() {
+        RecordingSubscriber subscriber = new RecordingSubscriber(0);
+        publisher.subscribe(subscriber);
+        looper.runAll();
+        publisher.publish(new byte[]{1});
+        subscriber.subscription.request(0);
+        looper.runAll();
+        Assert.assertEquals(Collections.singletonList("error IllegalArgumentException"), subscriber.events);
+    }
+}
@@ -0,0 +1,125 @@
+package com.sample.ble.library;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+public class NotificationRingTest {
+
+    private static class Recorder implements NotificationRing.Reader {
+        final List<String> records = new ArrayList<>();
+
+        @Override
+        public void onRecord(long timestampNanos, int characteristicId, byte[] data, int offset, int length) {
+            records.add(timestampNanos + "/" + characteristicId + "/"
+                    + Arrays.toString(Arrays.copyOfRange(data, offset, offset + length)));
+        }
+    }
+
+    @Test
+    public void testDrainsInOrder() {
+        NotificationRing ring = new NotificationRing(4, 8);
+        Assert.assertTrue(ring.offer(1, 0, new byte[]{1, 2}));
+        Assert.assertTrue(ring.offer(2, 3, new byte[]{3}));
+        Assert.assertEquals(2, ring.size());
+
+        Recorder recorder = new Recorder();
+        Assert.assertEquals(2, ring.drain(recorder, Integer.MAX_VALUE));
+        Assert.assertEquals(Arrays.asList("1/0/[1, 2]", "2/3/[3]"), recorder.records);
+        Assert.assertEquals(0, ring.size());
+        Assert.assertEquals(0, ring.drain(recorder, Integer.MAX_VALUE));
+    }
+
+    @Test
+    public void testDropsWhenFull() {
+        NotificationRing ring = new NotificationRing(2, 8);
+        Assert.assertTrue(ring.offer(1, 0, new byte[]{1}));
+        Assert.assertTrue(ring.offer(2, 0, new byte[]{2}));
+        Assert.assertFalse(ring.offer(3, 0, new byte[]{3}));
+        Assert.assertEquals(1, ring.getDroppedCount());
+
+        Recorder recorder = new Recorder();
+        Assert.assertEquals(1, ring.drain(recorder, 1));
+        Assert.assertTrue(ring.offer(4, 0, new byte[]{4}));
+        ring.drain(recorder, Integer.MAX_VALUE);
+        Assert.assertEquals(Arrays.asList("1/0/[1]", "2/0/[2]", "4/0/[4]"), recorder.records);
+    }
+
+    @Test
+    public void testTruncatesAndCopies() {
+        NotificationRing ring = new NotificationRing(2, 2);
+        byte[] value = {1, 2, 3};
+        ring.offer(1, 0, value);
+        value[0] = 9;
+        ring.offer(2, 0, null);
+
+        Recorder recorder = new Recorder();
+        ring.drain(recorder, Integer.MAX_VALUE);
+        Assert.assertEquals(Arrays.asList("1/0/[1, 2]", "2/0/[]"), recorder.records);
+    }
+
+    @Test
+    public void testClear() {
+        NotificationRing ring = new NotificationRing(4, 4);
+        ring.offer(1, 0, new byte[]{1});
+        ring.offer(2, 0, new byte[]{2});
+        ring.clear();
+        Assert.assertEquals(0, ring.size());
+        Assert.assertEquals(0, ring.drain(new Recorder(), Integer.MAX_VALUE));
+    }
+
+    @Test
+    public void testConcurrentProducer() throws Exception {
+        final int total = 200000;
+        final NotificationRing ring = new NotificationRing(64, 4);
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                byte[] value = new byte[4];
+                for (int i = 0; i < total; ) {
+                    value[0] = (byte) (i >>> 24);
+                    value[1] = (byte) (i >>> 16);
+                    value[2] = (byte) (i >>> 8);
+                    value[3] = (byte) i;
+                    if (ring.offer(i, i & 0xFF, value)) {
+                        i++;
+                    } else {
+                        Thread.yield();
+                    }
+                }
+            }
+        });
+        producer.start();
+
+        final int[] next = {0};
+        final boolean[] ok = {true};
+        NotificationRing.Reader reader = new NotificationRing.Reader() {
+            @Override
+            public void onRecord(long timestampNanos, int characteristicId, byte[] data, int offset, int length) {
+                int value = (data[offset] & 0xFF) << 24 | (data[offset + 1] & 0xFF) << 16
+                        | (data[offset + 2] & 0xFF) << 8 | data[offset + 3] & 0xFF;
+                int expected = next[0]++;
+                ok[0] &= value == expected && timestampNanos == expected && characteristicId == (expected & 0xFF)
+                        && length == 4;
+            }
+        };
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (next[0] < total && System.nanoTime() < deadline) {
+            if (ring.drain(reader, 16) == 0) {
+                Thread.yield();
+            }
+        }
+        producer.join(TimeUnit.SECONDS.toMillis(5));
+        Assert.assertEquals(total, next[0]);
+        Assert.assertTrue(ok[0]);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRejectsCapacityNotPowerOfTwo() {
+        new NotificationRing(100, 8);
+    }
+}
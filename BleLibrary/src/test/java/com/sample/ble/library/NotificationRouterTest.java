@@ -0,0 +1,65 @@
+package com.sample.ble.library;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Executor;
+
+public class NotificationRouterTest {
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+    private static final UUID HEART_RATE = UuidRegistry.fromShort(0x2A37);
+    private static final UUID BATTERY = UuidRegistry.fromShort(0x2A19);
+
+    private final List<String> events = new ArrayList<>();
+
+    private NotificationFlow.Subscriber<byte[]> recorder(final String name) {
+        return new NotificationFlow.Subscriber<byte[]>() {
+            @Override
+            public void onSubscribe(NotificationFlow.Subscription subscription) {
+                subscription.request(Long.MAX_VALUE);
+            }
+
+            @Override
+            public void onNext(byte[] item) {
+                events.add(name + item[0]);
+            }
+
+            @Override
+            public void onError(Throwable error) {
+                events.add(name + " error");
+            }
+
+            @Override
+            public void onComplete() {
+                events.add(name + " complete");
+            }
+        };
+    }
+
+    @Test
+    public void testRoutesByCharacteristic() {
+        UuidRegistry uuids = new UuidRegistry();
+        uuids.register(UUID.randomUUID());
+        NotificationRouter router = new NotificationRouter(uuids, DIRECT);
+        router.publish(HEART_RATE, new byte[]{0});
+
+        router.get(HEART_RATE).subscribe(recorder("hr"));
+        router.get(BATTERY).subscribe(recorder("bat"));
+        Assert.assertSame(router.get(HEART_RATE), router.get(HEART_RATE));
+
+        router.publish(HEART_RATE, new byte[]{1});
+        router.publish(BATTERY, new byte[]{2});
+        router.publish(UuidRegistry.fromShort(0x2A00), new byte[]{3});
+        router.complete();
+        Assert.assertEquals(Arrays.asList("hr1", "bat2", "hr complete", "bat complete"), events);
+    }
+}
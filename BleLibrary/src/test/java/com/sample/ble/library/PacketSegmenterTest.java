@@ -0,0 +1,74 @@
+package com.sample.ble.library;
+
+import com.sample.ble.library.utils.DigestEncodingUtils;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class PacketSegmenterTest {
+    private static final String ADDRESS = "00:11:22:33:44:55";
+
+    @Test
+    public void testDefaultMtu() {
+        PacketSegmenter segmenter = new PacketSegmenter();
+        Assert.assertEquals(PacketSegmenter.DEFAULT_ATT_MTU, segmenter.getMtu(ADDRESS));
+        List<byte[]> segments = segmenter.segment(ADDRESS, CustomPacket.HEAD_CHANNEL_WATCH_TO_SBM, new byte[50]);
+        // 56 bytes framed, 20 bytes per write
+        Assert.assertEquals(3, segments.size());
+        Assert.assertEquals(20, segments.get(0).length);
+        Assert.assertEquals(20, segments.get(1).length);
+        Assert.assertEquals(16, segments.get(2).length);
+    }
+
+    @Test
+    public void testNegotiatedMtu() {
+        PacketSegmenter segmenter = new PacketSegmenter();
+        segmenter.onMtuChanged(ADDRESS, 247);
+        Assert.assertEquals(244, segmenter.getMaxSegmentLength(ADDRESS));
+        List<byte[]> segments = segmenter.segment(ADDRESS, CustomPacket.HEAD_CHANNEL_WATCH_TO_SBM, new byte[1000]);
+        Assert.assertEquals(5, segments.size());
+        Assert.assertEquals(244, segments.get(3).length);
+        Assert.assertEquals(1006 - 4 * 244, segments.get(4).length);
+
+        segmenter.remove(ADDRESS);
+        Assert.assertEquals(PacketSegmenter.DEFAULT_ATT_MTU, segmenter.getMtu(ADDRESS));
+    }
+
+    @Test
+    public void testSegmentsReassemble() {
+        PacketSegmenter segmenter = new PacketSegmenter();
+        segmenter.onMtuChanged(ADDRESS, 185);
+        final byte[] payload = new byte[70000];
+        for (int i = 0; i < payload.length; i++) {
+            payload[i] = (byte) (i * 31);
+        }
+        final ByteArrayOutputStream received = new ByteArrayOutputStream();
+        final List<Byte> msgNumbers = new ArrayList<>();
+        final CustomPacketDecoder decoder = new CustomPacketDecoder(new CustomPacketDecoder.Listener() {
+            @Override
+            public void onFrame(byte[] frame, int offset, int length) {
+                Assert.assertEquals(CustomPacket.HEAD_CHANNEL_SBM_TO_WATCH, frame[offset]);
+                msgNumbers.add(frame[offset + 1]);
+                received.write(frame, offset + CustomPacketEncoder.HEAD_LENGTH,
+                        length - CustomPacketEncoder.HEAD_LENGTH);
+            }
+        }, CustomPacketEncoder.encodedLength(CustomPacketEncoder.MAX_PAYLOAD_LENGTH));
+        segmenter.segment(ADDRESS, CustomPacket.HEAD_CHANNEL_SBM_TO_WATCH, payload, new PacketSegmenter.Sink() {
+            @Override
+            public void onSegment(byte[] segment, int offset, int length) {
+                Assert.assertTrue(length <= 182);
+                decoder.feed(segment, offset, length);
+            }
+        });
+        Assert.assertEquals(DigestEncodingUtils.encodeWithHex(payload),
+                DigestEncodingUtils.encodeWithHex(received.toByteArray()));
+        // Two frames of one message: the first marked as a fragment, the last as a message.
+        Assert.assertEquals(Arrays.asList((byte) CustomPacket.HEAD_MSG_FRAGMENT, (byte) CustomPacket.HEAD_MSG_NUMBER),
+                msgNumbers);
+    }
+}
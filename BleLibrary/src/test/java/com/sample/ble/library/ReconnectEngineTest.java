@@ -0,0 +1,117 @@
+package com.sample.ble.library;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+public class ReconnectEngineTest {
+    private static final String ADDRESS = "00:11:22:33:44:55";
+
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+    private final LinkedBlockingQueue<String> connects = new LinkedBlockingQueue<>();
+    private final List<Long> delays = Collections.synchronizedList(new ArrayList<Long>());
+    private final List<String> reconnected = Collections.synchronizedList(new ArrayList<String>());
+
+    private final ReconnectEngine.Connector connector = new ReconnectEngine.Connector() {
+        @Override
+        public void connect(String address, boolean autoConnect) {
+            connects.add(address + (autoConnect ? " auto" : " direct"));
+        }
+    };
+
+    private final ReconnectEngine.Listener listener = new ReconnectEngine.Listener() {
+        @Override
+        public void onReconnectScheduled(String address, int attempt, long delayMs, boolean autoConnect) {
+            delays.add(delayMs);
+        }
+
+        @Override
+        public void onReconnected(String address, int attempts, long downtimeMs) {
+            reconnected.add(address + " " + attempts);
+        }
+    };
+
+    @After
+    public void tearDown() {
+        timer.shutdownNow();
+    }
+
+    @Test
+    public void testBackoffDelay() {
+        Assert.assertEquals(50, ReconnectEngine.backoffDelay(0, 100, 1000, 0));
+        Assert.assertEquals(99, ReconnectEngine.backoffDelay(0, 100, 1000, 0.999));
+        Assert.assertEquals(200, ReconnectEngine.backoffDelay(2, 100, 1000, 0));
+        Assert.assertEquals(500, ReconnectEngine.backoffDelay(4, 100, 1000, 0));
+        Assert.assertEquals(750, ReconnectEngine.backoffDelay(10, 100, 1000, 0.5));
+        Assert.assertEquals(500, ReconnectEngine.backoffDelay(62, 100, 1000, 0));
+        Assert.assertEquals(500, ReconnectEngine.backoffDelay(Integer.MAX_VALUE, 100, 1000, 0));
+    }
+
+    @Test
+    public void testRetriesWithGrowingDelay() throws Exception {
+        ReconnectEngine engine = new ReconnectEngine(connector, listener, timer, 10, 40, 60000);
+        engine.onDisconnected(ADDRESS, 8);
+        Assert.assertEquals(ADDRESS + " direct", connects.poll(5, TimeUnit.SECONDS));
+        engine.onDisconnected(ADDRESS, ReconnectEngine.STATUS_GATT_ERROR);
+        Assert.assertEquals(ADDRESS + " direct", connects.poll(5, TimeUnit.SECONDS));
+        engine.onDisconnected(ADDRESS, ReconnectEngine.STATUS_GATT_ERROR);
+        Assert.assertEquals(ADDRESS + " direct", connects.poll(5, TimeUnit.SECONDS));
+
+        Assert.assertTrue(delays.get(0) >= 5 && delays.get(0) < 10);
+        Assert.assertTrue(delays.get(1) >= 10 && delays.get(1) < 20);
+        Assert.assertTrue(delays.get(2) >= 20 && delays.get(2) < 40);
+
+        Assert.assertTrue(engine.isReconnecting(ADDRESS));
+        Assert.assertTrue(engine.onConnected(ADDRESS));
+        Assert.assertFalse(engine.isReconnecting(ADDRESS));
+        Assert.assertEquals(Collections.singletonList(ADDRESS + " 3"), reconnected);
+
+        ReconnectEngine.Metrics metrics = engine.getMetrics();
+        Assert.assertEquals(1, metrics.reconnects());
+        Assert.assertEquals(3, metrics.attempts());
+        Assert.assertEquals(2, metrics.gattErrors());
+        Assert.assertTrue(metrics.lastTimeToReconnectMs() >= 35);
+        Assert.assertEquals(metrics.lastTimeToReconnectMs(), metrics.maxTimeToReconnectMs());
+    }
+
+    @Test
+    public void testFallsBackToAutoConnect() throws Exception {
+        ReconnectEngine engine = new ReconnectEngine(connector, listener, timer, 10, 10, 0);
+        engine.onDisconnected(ADDRESS, 8);
+        Assert.assertEquals(ADDRESS + " auto", connects.poll(5, TimeUnit.SECONDS));
+        Assert.assertTrue(engine.isAutoConnect(ADDRESS));
+    }
+
+    @Test
+    public void testSecondDisconnectWhileWaitingIsIgnored() throws Exception {
+        ReconnectEngine engine = new ReconnectEngine(connector, listener, timer, 200, 200, 60000);
+        engine.onDisconnected(ADDRESS, 8);
+        engine.onDisconnected(ADDRESS, 8);
+        Assert.assertEquals(1, delays.size());
+        Assert.assertNotNull(connects.poll(5, TimeUnit.SECONDS));
+        Assert.assertNull(connects.poll(300, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testCancelStopsRetries() throws Exception {
+        ReconnectEngine engine = new ReconnectEngine(connector, listener, timer, 50, 50, 60000);
+        engine.onDisconnected(ADDRESS, 8);
+        engine.cancel(ADDRESS);
+        Assert.assertNull(connects.poll(200, TimeUnit.MILLISECONDS));
+        Assert.assertFalse(engine.onConnected(ADDRESS));
+        Assert.assertEquals(0, engine.getMetrics().reconnects());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRejectsBadDelays() {
+        new ReconnectEngine(connector, listener, timer, 100, 50, 0);
+    }
+}
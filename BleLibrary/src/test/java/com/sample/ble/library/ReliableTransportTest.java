@@ -0,0 +1,99 @@
+package com.sample.ble.library;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+import java.util.Random;
+
+public class ReliableTransportTest {
+    private static final int WINDOW = 8;
+    private static final int MAX_PAYLOAD = 16;
+
+    /**
+     * In-memory link that drops a share of the frames and delivers the rest later, in order.
+     */
+    private static class LossyLink implements FrameSink {
+        private final Queue<byte[]> queue = new ArrayDeque<>();
+        private final Random random;
+        private final double loss;
+        int sent;
+
+        LossyLink(long seed, double loss) {
+            this.random = new Random(seed);
+            this.loss = loss;
+        }
+
+        @Override
+        public void send(byte[] frame, int offset, int length) {
+            sent++;
+            if (random.nextDouble() >= loss) {
+                queue.add(Arrays.copyOfRange(frame, offset, offset + length));
+            }
+        }
+
+        boolean deliverTo(CustomPacketDecoder.Listener listener) {
+            boolean any = !queue.isEmpty();
+            while (!queue.isEmpty()) {
+                byte[] frame = queue.poll();
+                listener.onFrame(frame, 0, frame.length);
+            }
+            return any;
+        }
+    }
+
+    @Test
+    public void testLosslessInOrder() {
+        List<Integer> delivered = run(0, 0, 200);
+        Assert.assertEquals(200, delivered.size());
+    }
+
+    @Test
+    public void testLossyLinkDeliversEverythingOnce() {
+        // Enough payloads to wrap the 16 bit sequence space once.
+        List<Integer> delivered = run(42, 0.3, 70000);
+        Assert.assertEquals(70000, delivered.size());
+        for (int i = 0; i < delivered.size(); i++) {
+            Assert.assertEquals(i, (int) delivered.get(i));
+        }
+    }
+
+    private List<Integer> run(long seed, double loss, int count) {
+        LossyLink data = new LossyLink(seed, loss);
+        LossyLink acks = new LossyLink(seed + 1, loss);
+        final List<Integer> delivered = new ArrayList<>();
+        ReliableSender sender = new ReliableSender(data, WINDOW, MAX_PAYLOAD, 50);
+        ReliableReceiver receiver = new ReliableReceiver(acks, WINDOW, MAX_PAYLOAD,
+                new ReliableReceiver.Listener() {
+                    @Override
+                    public void onPayload(byte[] payload, int offset, int length) {
+                        Assert.assertEquals(4, length);
+                        delivered.add(((payload[offset] & 0xFF) << 24) | ((payload[offset + 1] & 0xFF) << 16)
+                                | ((payload[offset + 2] & 0xFF) << 8) | (payload[offset + 3] & 0xFF));
+                    }
+                });
+
+        long now = 0;
+        for (int i = 0; i < count; i++) {
+            sender.send(new byte[]{(byte) (i >> 24), (byte) (i >> 16), (byte) (i >> 8), (byte) i}, now);
+        }
+        int rounds = 0;
+        while (!sender.isIdle()) {
+            Assert.assertTrue("no progress: " + sender, rounds++ < count * 50);
+            data.deliverTo(receiver);
+            acks.deliverTo(sender);
+            now += 10;
+            sender.onTimer(now);
+        }
+        if (loss > 0) {
+            Assert.assertTrue(sender.retransmissions() > 0);
+        } else {
+            Assert.assertEquals(count, data.sent);
+        }
+        return delivered;
+    }
+}
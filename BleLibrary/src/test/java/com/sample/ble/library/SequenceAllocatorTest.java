@@ -0,0 +1,54 @@
+package com.sample.ble.library;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+public class SequenceAllocatorTest {
+    @Test
+    public void testWrap() {
+        SequenceAllocator sequence = new SequenceAllocator(CustomPacket.MAX_SEQ_NUMBER);
+        Assert.assertEquals(CustomPacket.MAX_SEQ_NUMBER, sequence.next());
+        Assert.assertEquals(0, sequence.next());
+        Assert.assertEquals(1, sequence.peek());
+    }
+
+    @Test
+    public void testConcurrentNoDuplicates() throws InterruptedException {
+        final SequenceAllocator sequence = new SequenceAllocator();
+        final AtomicIntegerArray seen = new AtomicIntegerArray(CustomPacket.MAX_SEQ_NUMBER + 1);
+        final int threads = 4;
+        final int perThread = (CustomPacket.MAX_SEQ_NUMBER + 1) / threads;
+        final CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < perThread; i++) {
+                        seen.incrementAndGet(sequence.next());
+                    }
+                    done.countDown();
+                }
+            }).start();
+        }
+        done.await();
+        for (int i = 0; i < seen.length(); i++) {
+            Assert.assertEquals(1, seen.get(i));
+        }
+    }
+
+    @Test
+    public void testBuilderBoundToChannel() {
+        SequenceAllocator a = new SequenceAllocator(0x1234);
+        SequenceAllocator b = new SequenceAllocator();
+        byte[] frameA = CustomPacket.newPacket(new byte[1]).sequence(a).build().getPacket();
+        byte[] frameB = CustomPacket.newPacket(new byte[1]).sequence(b).build().getPacket();
+        Assert.assertEquals(0x12, frameA[4]);
+        Assert.assertEquals(0x34, frameA[5]);
+        Assert.assertEquals(0, frameB[4]);
+        Assert.assertEquals(0, frameB[5]);
+        Assert.assertEquals(0x1235, a.peek());
+    }
+}
@@ -0,0 +1,116 @@
+package com.sample.ble.library;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+public class StreamWriterTest {
+    private final ByteArrayOutputStream received = new ByteArrayOutputStream();
+    private final Queue<CompletableFuture<Void>> inFlight = new ArrayDeque<>();
+    private int maxInFlight;
+
+    private final StreamWriter.SegmentWriter pending = new StreamWriter.SegmentWriter() {
+        @Override
+        public CompletableFuture<?> write(byte[] segment) {
+            received.write(segment, 0, segment.length);
+            CompletableFuture<Void> future = new CompletableFuture<>();
+            inFlight.add(future);
+            maxInFlight = Math.max(maxInFlight, inFlight.size());
+            return future;
+        }
+    };
+
+    private static byte[] random(int length) {
+        byte[] data = new byte[length];
+        new Random(length).nextBytes(data);
+        return data;
+    }
+
+    @Test
+    public void testCreditsBoundInFlight() throws Exception {
+        byte[] data = random(20 * 10 + 7);
+        CompletableFuture<StreamWriter.Stats> done = new StreamWriter(pending, 20, 3).write(ByteBuffer.wrap(data));
+        Assert.assertEquals(3, inFlight.size());
+        Assert.assertEquals(60, received.size());
+        while (!inFlight.isEmpty()) {
+            inFlight.poll().complete(null);
+        }
+        Assert.assertEquals(3, maxInFlight);
+        Assert.assertArrayEquals(data, received.toByteArray());
+        StreamWriter.Stats stats = done.get();
+        Assert.assertEquals(data.length, stats.bytes());
+        Assert.assertEquals(11, stats.segments());
+        Assert.assertTrue(stats.bytesPerSecond() > 0);
+    }
+
+    @Test
+    public void testSynchronousCompletionInputStream() throws Exception {
+        byte[] data = random(2 * 1024 * 1024);
+        // Reads return at most 7 bytes, segments must still be full
+        InputStream source = new ByteArrayInputStream(data) {
+            @Override
+            public synchronized int read(byte[] b, int off, int len) {
+                return super.read(b, off, Math.min(len, 7));
+            }
+        };
+        final int[] shortSegments = new int[1];
+        StreamWriter writer = new StreamWriter(new StreamWriter.SegmentWriter() {
+            @Override
+            public CompletableFuture<?> write(byte[] segment) {
+                if (segment.length != 244) {
+                    shortSegments[0]++;
+                }
+                received.write(segment, 0, segment.length);
+                return CompletableFuture.completedFuture(null);
+            }
+        }, 244);
+        StreamWriter.Stats stats = writer.write(source).get();
+        Assert.assertEquals(data.length, stats.bytes());
+        Assert.assertEquals(1, shortSegments[0]);
+        Assert.assertArrayEquals(data, received.toByteArray());
+    }
+
+    @Test
+    public void testEmptySource() throws Exception {
+        Assert.assertEquals(0, new StreamWriter(pending, 20).write(ByteBuffer.allocate(0)).get().segments());
+        Assert.assertTrue(inFlight.isEmpty());
+    }
+
+    @Test
+    public void testWriteFailureStops() {
+        CompletableFuture<StreamWriter.Stats> done = new StreamWriter(pending, 20, 2).write(ByteBuffer.wrap(random(200)));
+        inFlight.poll().completeExceptionally(new GattException("Disconnected", 8));
+        inFlight.poll().complete(null);
+        Assert.assertTrue(done.isCompletedExceptionally());
+        Assert.assertTrue(inFlight.isEmpty());
+        Assert.assertEquals(40, received.size());
+    }
+
+    @Test
+    public void testReadFailure() {
+        InputStream broken = new InputStream() {
+            @Override
+            public int read() throws IOException {
+                throw new IOException("broken");
+            }
+        };
+        try {
+            new StreamWriter(pending, 20).write(broken).get();
+            Assert.fail();
+        } catch (ExecutionException e) {
+            Assert.assertEquals("broken", e.getCause().getMessage());
+        } catch (InterruptedException e) {
+            Assert.fail();
+        }
+    }
+}
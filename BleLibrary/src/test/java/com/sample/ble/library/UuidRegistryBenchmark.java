@@ -0,0 +1,78 @@
+package com.sample.ble.library;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.UUID;
+
+/**
+ * Compares matching a discovered characteristic the old way, {@code toString()} then
+ * {@code String.equals}, and {@code UUID.fromString} on every send, with {@link UuidRegistry}
+ * lookups, for a SIG short form and a vendor specific UUID.
+ */
+public class UuidRegistryBenchmark {
+    private static final int ITERATIONS = 2000000;
+    private static final String CHARACTER_UUID = "0000fff2-0000-1000-8000-00805f9b34fb";
+    private static final String VENDOR_UUID = "6e400002-b5a3-f393-e0a9-e50e24dcca9e";
+
+    private long sink;
+
+    @Test
+    public void benchmarkLookup() {
+        final UuidRegistry registry = new UuidRegistry();
+        final int character = registry.register(UUID.fromString(CHARACTER_UUID));
+        final int vendor = registry.register(UUID.fromString(VENDOR_UUID));
+        for (int i = 0; i < 32; i++) {
+            registry.register(UUID.randomUUID());
+            registry.registerShort(0x2A00 + i);
+        }
+        // Fresh instances, as BluetoothGattCharacteristic.getUuid() returns.
+        final UUID discoveredShort = UUID.fromString(CHARACTER_UUID);
+        final UUID discoveredVendor = UUID.fromString(VENDOR_UUID);
+        Assert.assertEquals(character, registry.indexOf(discoveredShort));
+        Assert.assertEquals(vendor, registry.indexOf(discoveredVendor));
+
+        run("toString().equals()", new Runnable() {
+            @Override
+            public void run() {
+                sink += discoveredShort.toString().equals(CHARACTER_UUID) ? 1 : 0;
+            }
+        });
+        run("UUID.fromString()", new Runnable() {
+            @Override
+            public void run() {
+                sink += UUID.fromString(CHARACTER_UUID).getLeastSignificantBits();
+            }
+        });
+        run("indexOf 16-bit SIG", new Runnable() {
+            @Override
+            public void run() {
+                sink += registry.indexOf(discoveredShort);
+            }
+        });
+        run("indexOf 128-bit", new Runnable() {
+            @Override
+            public void run() {
+                sink += registry.indexOf(discoveredVendor);
+            }
+        });
+        run("get(id)", new Runnable() {
+            @Override
+            public void run() {
+                sink += registry.get(character).getLeastSignificantBits();
+            }
+        });
+    }
+
+    private void run(String name, Runnable lookup) {
+        for (int i = 0; i < ITERATIONS / 4; i++) {
+            lookup.run();
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            lookup.run();
+        }
+        long elapsed = System.nanoTime() - start;
+        System.out.println(String.format("%-22s %8.1f ns/op", name, (double) elapsed / ITERATIONS));
+    }
+}
@@ -0,0 +1,77 @@
+package com.sample.ble.library;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+public class UuidRegistryTest {
+    private static final UUID CCCD = UUID.fromString("00002902-0000-1000-8000-00805f9b34fb");
+    private static final UUID CUSTOM = UUID.fromString("6e400002-b5a3-f393-e0a9-e50e24dcca9e");
+
+    @Test
+    public void testShortForm() {
+        Assert.assertEquals(CCCD, UuidRegistry.fromShort(0x2902));
+        Assert.assertEquals(0x2902, UuidRegistry.toShort(CCCD));
+        Assert.assertEquals(0xFFF1, UuidRegistry.toShort(UUID.fromString("0000fff1-0000-1000-8000-00805f9b34fb")));
+        Assert.assertEquals(UuidRegistry.NOT_FOUND, UuidRegistry.toShort(CUSTOM));
+        // 32-bit short forms are not on the fast path.
+        Assert.assertEquals(UuidRegistry.NOT_FOUND,
+                UuidRegistry.toShort(UUID.fromString("12342902-0000-1000-8000-00805f9b34fb")));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRejectsBadShortForm() {
+        UuidRegistry.fromShort(0x10000);
+    }
+
+    @Test
+    public void testRegisterAndLookup() {
+        UuidRegistry registry = new UuidRegistry();
+        int custom = registry.register(CUSTOM);
+        int cccd = registry.registerShort(0x2902);
+        Assert.assertEquals(0, custom);
+        Assert.assertEquals(1, cccd);
+        Assert.assertEquals(2, registry.size());
+
+        Assert.assertEquals(custom, registry.indexOf(UUID.fromString(CUSTOM.toString())));
+        Assert.assertEquals(cccd, registry.indexOf(CCCD));
+        Assert.assertEquals(cccd, registry.indexOfShort(0x2902));
+        Assert.assertEquals(UuidRegistry.NOT_FOUND, registry.indexOfShort(0x2A37));
+        Assert.assertEquals(UuidRegistry.NOT_FOUND, registry.indexOf(UUID.randomUUID()));
+        Assert.assertSame(CUSTOM, registry.get(custom));
+        Assert.assertEquals(CCCD, registry.get(cccd));
+    }
+
+    @Test
+    public void testRegisterTwiceKeepsId() {
+        UuidRegistry registry = new UuidRegistry();
+        int id = registry.register(CUSTOM);
+        Assert.assertEquals(id, registry.register(UUID.fromString(CUSTOM.toString())));
+        Assert.assertEquals(registry.registerShort(0x180D), registry.register(UuidRegistry.fromShort(0x180D)));
+        Assert.assertEquals(2, registry.size());
+    }
+
+    @Test
+    public void testGrowsPastInitialCapacity() {
+        UuidRegistry registry = new UuidRegistry();
+        Random random = new Random(1);
+        List<UUID> uuids = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            UUID uuid = i % 2 == 0 ? new UUID(random.nextLong(), random.nextLong()) : UuidRegistry.fromShort(i);
+            uuids.add(uuid);
+            Assert.assertEquals(i, registry.register(uuid));
+        }
+        for (int i = 0; i < uuids.size(); i++) {
+            Assert.assertEquals(i, registry.indexOf(uuids.get(i)));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRejectsBadId() {
+        new UuidRegistry().get(0);
+    }
+}
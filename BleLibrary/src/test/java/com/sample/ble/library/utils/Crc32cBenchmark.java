@@ -0,0 +1,91 @@
+package com.sample.ble.library.utils;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.zip.Checksum;
+
+/**
+ * Compares {@link DigestEncodingUtils#computeCrc32} (fresh CRC32 per call) with the portable
+ * {@link Crc32c}, with {@link Crc32c#create()} and with the JDK's intrinsic
+ * {@code java.util.zip.CRC32C} when the host JVM has it (Java 9+, Android API 34+).
+ */
+public class Crc32cBenchmark {
+    private static final int[] SIZES = {20, 244, 4096};
+    private static final long BYTES_PER_RUN = 64L * 1024 * 1024;
+
+    private long sink;
+
+    @Test
+    public void benchmarkChecksums() throws Exception {
+        Checksum jdkCrc32c = null;
+        try {
+            jdkCrc32c = (Checksum) Class.forName("java.util.zip.CRC32C").getDeclaredConstructor().newInstance();
+        } catch (ClassNotFoundException e) {
+            System.out.println("java.util.zip.CRC32C unavailable");
+        }
+        Random random = new Random(1);
+        for (int size : SIZES) {
+            final byte[] data = new byte[size];
+            random.nextBytes(data);
+            if (jdkCrc32c != null) {
+                jdkCrc32c.reset();
+                jdkCrc32c.update(data, 0, data.length);
+                Assert.assertEquals(jdkCrc32c.getValue(), DigestEncodingUtils.computeCrc32c(data, 0, size));
+            }
+
+            final Checksum created = Crc32c.create();
+            run("Crc32c.create() reused", data, new Runnable() {
+                @Override
+                public void run() {
+                    created.reset();
+                    created.update(data, 0, data.length);
+                    sink += created.getValue();
+                }
+            });
+            run("CRC32 computeCrc32", data, new Runnable() {
+                @Override
+                public void run() {
+                    sink += DigestEncodingUtils.computeCrc32(data);
+                }
+            });
+            final Crc32c crc32c = new Crc32c();
+            run("Crc32c reused", data, new Runnable() {
+                @Override
+                public void run() {
+                    crc32c.reset();
+                    crc32c.update(data, 0, data.length);
+                    sink += crc32c.getValue();
+                }
+            });
+            if (jdkCrc32c != null) {
+                final Checksum jdk = jdkCrc32c;
+                run("JDK CRC32C reused", data, new Runnable() {
+                    @Override
+                    public void run() {
+                        jdk.reset();
+                        jdk.update(data, 0, data.length);
+                        sink += jdk.getValue();
+                    }
+                });
+            }
+        }
+        // Consumes every checksum, so none of the timed loops is dead code.
+        System.out.println("checksum sink " + Long.toHexString(sink));
+    }
+
+    private void run(String name, byte[] data, Runnable checksum) {
+        long iterations = BYTES_PER_RUN / data.length;
+        for (long i = 0; i < iterations / 4; i++) {
+            checksum.run();
+        }
+        long start = System.nanoTime();
+        for (long i = 0; i < iterations; i++) {
+            checksum.run();
+        }
+        long elapsed = System.nanoTime() - start;
+        System.out.println(String.format("%-24s %5d B %8.1f ns/op %8.1f MB/s", name, data.length,
+                (double) elapsed / iterations, BYTES_PER_RUN * 1e3 / elapsed));
+    }
+}
@@ -0,0 +1,32 @@
+package com.sample.ble.library.utils;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.charset.Charset;
+
+public class Crc32cTest {
+    @Test
+    public void testCheckValue() {
+        byte[] data = "123456789".getBytes(Charset.forName("US-ASCII"));
+        Assert.assertEquals(0xE3069283L, DigestEncodingUtils.computeCrc32c(data, 0, data.length));
+    }
+
+    @Test
+    public void testIncremental() {
+        byte[] data = new byte[1000];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) (i * 7 + 3);
+        }
+        long whole = DigestEncodingUtils.computeCrc32c(data, 0, data.length);
+        Crc32c crc = new Crc32c();
+        crc.update(data, 0, 13);
+        crc.update(data[13]);
+        crc.update(data, 14, 500);
+        crc.update(data, 514, data.length - 514);
+        Assert.assertEquals(whole, crc.getValue());
+        crc.reset();
+        crc.update(data);
+        Assert.assertEquals(whole, crc.getValue());
+    }
+}
@@ -0,0 +1,91 @@
+package com.sample.ble.library.utils;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.util.Random;
+
+/**
+ * Compares {@link DigestEncodingUtils#md5(InputStream)} as it was (1 KB buffer, new
+ * MessageDigest) with {@link FileDigest} on a 16 MB image, for MD5 alone and for MD5, SHA-1 and
+ * CRC32 in one pass.
+ */
+public class FileDigestBenchmark {
+    private static final int SIZE = 16 * 1024 * 1024;
+    private static final int RUNS = 5;
+
+    @Test
+    public void benchmarkFileDigest() throws Exception {
+        final File file = File.createTempFile("ota", ".bin");
+        try {
+            byte[] data = new byte[SIZE];
+            new Random(1).nextBytes(data);
+            OutputStream out = new FileOutputStream(file);
+            try {
+                out.write(data);
+            } finally {
+                out.close();
+            }
+            final String[] md5 = new String[1];
+            run("md5 stream 1 KB buffer", new Task() {
+                @Override
+                public void run() throws Exception {
+                    InputStream in = new FileInputStream(file);
+                    try {
+                        md5[0] = legacyMd5(in);
+                    } finally {
+                        in.close();
+                    }
+                }
+            });
+            run("FileDigest MD5", new Task() {
+                @Override
+                public void run() throws Exception {
+                    Assert.assertEquals(md5[0], FileDigest.compute(file, FileDigest.MD5).md5Hex());
+                }
+            });
+            run("FileDigest MD5+SHA1+CRC32", new Task() {
+                @Override
+                public void run() throws Exception {
+                    FileDigest.compute(file, FileDigest.MD5 | FileDigest.SHA1 | FileDigest.CRC32);
+                }
+            });
+        } finally {
+            file.delete();
+        }
+    }
+
+    private interface Task {
+        void run() throws Exception;
+    }
+
+    private void run(String name, Task task) throws Exception {
+        task.run();
+        long start = System.nanoTime();
+        for (int i = 0; i < RUNS; i++) {
+            task.run();
+        }
+        long elapsed = (System.nanoTime() - start) / RUNS;
+        System.out.println(String.format("%-28s %8.1f ms/file %8.1f MB/s", name, elapsed / 1e6,
+                SIZE * 1e3 / elapsed));
+    }
+
+    private static String legacyMd5(InputStream stream) throws Exception {
+        byte[] buffer = new byte[1024];
+        MessageDigest complete = MessageDigest.getInstance("MD5");
+        int numRead;
+        do {
+            numRead = stream.read(buffer);
+            if (numRead > 0) {
+                complete.update(buffer, 0, numRead);
+            }
+        } while (numRead != -1);
+        return DigestEncodingUtils.encodeWithHex(complete.digest(), false);
+    }
+}
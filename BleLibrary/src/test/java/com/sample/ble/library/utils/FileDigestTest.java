@@ -0,0 +1,78 @@
+package com.sample.ble.library.utils;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.zip.CRC32;
+
+public class FileDigestTest {
+    private final byte[] data = new byte[3 * FileDigest.BLOCK_SIZE + 1234];
+    private File file;
+
+    @Before
+    public void setUp() throws Exception {
+        new Random(7).nextBytes(data);
+        file = File.createTempFile("image", ".bin");
+        OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(data);
+        } finally {
+            out.close();
+        }
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void testMatchesSinglePassDigests() throws Exception {
+        CRC32 crc32 = new CRC32();
+        crc32.update(data);
+        String md5;
+        InputStream in = new FileInputStream(file);
+        try {
+            md5 = DigestEncodingUtils.md5(in);
+        } finally {
+            in.close();
+        }
+        // Chunks that do not line up with blocks, and one chunk for the whole file
+        for (int chunkSize : new int[]{100000, FileDigest.DEFAULT_CHUNK_SIZE}) {
+            FileDigest digest = FileDigest.compute(file,
+                    FileDigest.MD5 | FileDigest.SHA1 | FileDigest.CRC32, chunkSize);
+            Assert.assertEquals(data.length, digest.length());
+            Assert.assertEquals(md5, digest.md5Hex());
+            Assert.assertEquals(DigestEncodingUtils.sha1(data), digest.sha1Hex());
+            Assert.assertEquals(crc32.getValue(), digest.crc32());
+        }
+    }
+
+    @Test
+    public void testSingleAlgorithm() throws Exception {
+        FileDigest digest = FileDigest.compute(file, FileDigest.SHA1);
+        Assert.assertNull(digest.md5());
+        Assert.assertEquals(0, digest.crc32());
+        Assert.assertEquals(DigestEncodingUtils.sha1(data), digest.sha1Hex());
+    }
+
+    @Test
+    public void testEmptyFile() throws Exception {
+        new FileOutputStream(file).close();
+        Assert.assertEquals(DigestEncodingUtils.hash(new byte[0], "MD5"),
+                FileDigest.compute(file, FileDigest.MD5).md5Hex());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNoAlgorithm() throws Exception {
+        FileDigest.compute(file, 0);
+    }
+}
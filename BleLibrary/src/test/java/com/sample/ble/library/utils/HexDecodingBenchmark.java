@@ -0,0 +1,102 @@
+package com.sample.ble.library.utils;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+/**
+ * Compares the previous {@code fromHexString} (replace spaces, then branch per char) with the
+ * table driven {@link DigestEncodingUtils#fromHexString} and
+ * {@link DigestEncodingUtils#decodeHex} into reused buffers, on a space separated 4 KB test vector.
+ */
+public class HexDecodingBenchmark {
+    private static final int SIZE = 4096;
+    private static final long CHARS_PER_RUN = 64L * 1024 * 1024;
+
+    private long sink;
+
+    @Test
+    public void benchmarkDecode() {
+        byte[] data = new byte[SIZE];
+        new Random(1).nextBytes(data);
+        StringBuilder sb = new StringBuilder(SIZE * 3);
+        for (int i = 0; i < SIZE; i++) {
+            DigestEncodingUtils.appendHex(sb, data, i, i + 1, true).append(' ');
+        }
+        final String hex = sb.toString();
+        final char[] chars = hex.toCharArray();
+        final byte[] dst = new byte[SIZE];
+        final ByteBuffer direct = ByteBuffer.allocateDirect(SIZE);
+        Assert.assertArrayEquals(data, legacyFromHexString(hex));
+        Assert.assertArrayEquals(data, DigestEncodingUtils.fromHexString(hex));
+
+        run("legacy fromHexString", hex.length(), new Runnable() {
+            @Override
+            public void run() {
+                sink += legacyFromHexString(hex).length;
+            }
+        });
+        run("fromHexString", hex.length(), new Runnable() {
+            @Override
+            public void run() {
+                sink += DigestEncodingUtils.fromHexString(hex).length;
+            }
+        });
+        run("decodeHex char[] -> byte[]", hex.length(), new Runnable() {
+            @Override
+            public void run() {
+                sink += DigestEncodingUtils.decodeHex(chars, 0, chars.length, dst, 0);
+            }
+        });
+        run("decodeHex -> direct buffer", hex.length(), new Runnable() {
+            @Override
+            public void run() {
+                direct.clear();
+                sink += DigestEncodingUtils.decodeHex(hex, 0, hex.length(), direct);
+            }
+        });
+    }
+
+    private void run(String name, int length, Runnable decode) {
+        long iterations = CHARS_PER_RUN / length;
+        for (long i = 0; i < iterations / 4; i++) {
+            decode.run();
+        }
+        long start = System.nanoTime();
+        for (long i = 0; i < iterations; i++) {
+            decode.run();
+        }
+        long elapsed = System.nanoTime() - start;
+        System.out.println(String.format("%-28s %10.1f ns/op %8.1f MB/s", name,
+                (double) elapsed / iterations, CHARS_PER_RUN * 1e3 / elapsed));
+    }
+
+    private static byte[] legacyFromHexString(String hexStr) {
+        hexStr = hexStr.replace(" ", "");
+        if (hexStr.length() % 2 != 0) {
+            throw new IllegalArgumentException("Bad length: " + hexStr);
+        }
+        byte[] result = new byte[hexStr.length() / 2];
+        for (int i = 0; i < result.length; i++) {
+            int high = legacyFromHexChar(hexStr, i * 2) << 4;
+            int low = legacyFromHexChar(hexStr, i * 2 + 1);
+            result[i] = (byte) ((high | low) & 0xFF);
+        }
+        return result;
+    }
+
+    private static int legacyFromHexChar(String hexStr, int index) {
+        char ch = hexStr.charAt(index);
+        if (ch >= '0' && ch <= '9') {
+            return ch - '0';
+        } else if (ch >= 'a' && ch <= 'f') {
+            return 10 + (ch - 'a');
+        } else if (ch >= 'A' && ch <= 'F') {
+            return 10 + (ch - 'A');
+        } else {
+            throw new IllegalArgumentException("Not hex string: " + hexStr);
+        }
+    }
+}
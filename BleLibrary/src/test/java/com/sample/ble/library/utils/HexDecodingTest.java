@@ -0,0 +1,82 @@
+package com.sample.ble.library.utils;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+public class HexDecodingTest {
+
+    @Test
+    public void testFromHexString() {
+        Assert.assertArrayEquals(new byte[]{0x00, 0x1F, (byte) 0xA0, (byte) 0xFF},
+                DigestEncodingUtils.fromHexString("00 1f\tA0\r\nFf"));
+        Assert.assertArrayEquals(new byte[0], DigestEncodingUtils.fromHexString(" "));
+    }
+
+    @Test
+    public void testFromHexStringErrors() {
+        try {
+            DigestEncodingUtils.fromHexString("A B C");
+            Assert.fail();
+        } catch (IllegalArgumentException e) {
+            Assert.assertEquals("Bad length: A B C", e.getMessage());
+        }
+        try {
+            DigestEncodingUtils.fromHexString("0G");
+            Assert.fail();
+        } catch (IllegalArgumentException e) {
+            Assert.assertEquals("Not hex string: 0G", e.getMessage());
+        }
+    }
+
+    @Test
+    public void testDecodeRange() {
+        byte[] dst = new byte[4];
+        Assert.assertEquals(2, DigestEncodingUtils.decodeHex("xx0102 yy", 2, 7, dst, 1));
+        Assert.assertArrayEquals(new byte[]{0, 1, 2, 0}, dst);
+        Assert.assertEquals(2, DigestEncodingUtils.decodeHex("xxA0B1".toCharArray(), 2, 6, dst, 2));
+        Assert.assertArrayEquals(new byte[]{0, 1, (byte) 0xA0, (byte) 0xB1}, dst);
+    }
+
+    @Test
+    public void testDecodeErrorIndex() {
+        byte[] dst = new byte[2];
+        Assert.assertEquals(~3, DigestEncodingUtils.decodeHex("01 z2", 0, 5, dst, 0));
+        Assert.assertEquals(~3, DigestEncodingUtils.decodeHex("012", 0, 3, dst, 0));
+        Assert.assertEquals(~5, DigestEncodingUtils.decodeHex("010203", 0, 6, dst, 0));
+        Assert.assertEquals(~1, DigestEncodingUtils.decodeHex("0é".toCharArray(), 0, 2, dst, 0));
+    }
+
+    @Test
+    public void testDecodeByteBuffer() {
+        ByteBuffer heap = ByteBuffer.allocate(8);
+        heap.position(1);
+        ByteBuffer slice = heap.slice();
+        slice.limit(2);
+        Assert.assertEquals(~5, DigestEncodingUtils.decodeHex("010203", 0, 6, slice));
+        Assert.assertEquals(0, slice.position());
+        Assert.assertEquals(0, heap.get(3));
+        Assert.assertEquals(2, DigestEncodingUtils.decodeHex("0102", 0, 4, slice));
+        Assert.assertEquals(2, heap.get(2));
+
+        ByteBuffer direct = ByteBuffer.allocateDirect(4);
+        Assert.assertEquals(~4, DigestEncodingUtils.decodeHex("0102z", 0, 5, direct));
+        Assert.assertEquals(0, direct.position());
+        Assert.assertEquals(3, DigestEncodingUtils.decodeHex("01 02 03", 0, 8, direct));
+        Assert.assertEquals(3, direct.get(2));
+
+        ByteBuffer chars = ByteBuffer.allocateDirect(4);
+        Assert.assertEquals(2, DigestEncodingUtils.decodeHex("xxA0B1".toCharArray(), 2, 6, chars));
+        Assert.assertEquals((byte) 0xB1, chars.get(1));
+        Assert.assertEquals(2, chars.position());
+    }
+
+    @Test
+    public void testDecodeReadOnlyBuffer() {
+        ByteBuffer readOnly = ByteBuffer.allocate(4).asReadOnlyBuffer();
+        Assert.assertEquals(~1, DigestEncodingUtils.decodeHex("0102", 0, 4, readOnly));
+        Assert.assertEquals(0, readOnly.position());
+        Assert.assertEquals(0, DigestEncodingUtils.decodeHex(" \n", 0, 2, readOnly));
+    }
+}
@@ -0,0 +1,102 @@
+package com.sample.ble.library.utils;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.CharBuffer;
+import java.util.Formatter;
+import java.util.Random;
+
+/**
+ * Compares {@link DigestEncodingUtils#encodeWithHex(byte[])} with the reusable sink overloads and
+ * the lazy wrapper, measuring time and heap allocated per call on the current thread.
+ */
+public class HexEncodingBenchmark {
+    private static final int WARMUP = 20000;
+    private static final int CALLS = 200000;
+
+    private final byte[] data = new byte[20];
+    private final char[] chars = new char[data.length * 2];
+    private final StringBuilder builder = new StringBuilder(64);
+    private final CharBuffer buffer = CharBuffer.allocate(data.length * 2);
+    private final Formatter formatter = new Formatter(builder);
+    private long sink;
+
+    @Test
+    public void benchmarkHex() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+            System.out.println("Allocation counters unavailable, skip");
+            return;
+        }
+        com.sun.management.ThreadMXBean mx = (com.sun.management.ThreadMXBean) bean;
+        new Random(1).nextBytes(data);
+
+        run(mx, "encodeWithHex String", new Runnable() {
+            @Override
+            public void run() {
+                sink += DigestEncodingUtils.encodeWithHex(data).length();
+            }
+        });
+        double array = run(mx, "encodeWithHex char[]", new Runnable() {
+            @Override
+            public void run() {
+                sink += DigestEncodingUtils.encodeWithHex(data, 0, data.length, true, chars, 0);
+            }
+        });
+        double sb = run(mx, "appendHex StringBuilder", new Runnable() {
+            @Override
+            public void run() {
+                builder.setLength(0);
+                sink += DigestEncodingUtils.appendHex(builder, data).length();
+            }
+        });
+        double cb = run(mx, "encodeWithHex CharBuffer", new Runnable() {
+            @Override
+            public void run() {
+                buffer.clear();
+                DigestEncodingUtils.encodeWithHex(data, 0, data.length, true, buffer);
+                sink += buffer.position();
+            }
+        });
+        final Object lazy = DigestEncodingUtils.lazyHex(data);
+        run(mx, "format %s encodeWithHex", new Runnable() {
+            @Override
+            public void run() {
+                builder.setLength(0);
+                formatter.format("v=%s", DigestEncodingUtils.encodeWithHex(data));
+                sink += builder.length();
+            }
+        });
+        run(mx, "format %s lazyHex", new Runnable() {
+            @Override
+            public void run() {
+                builder.setLength(0);
+                formatter.format("v=%s", lazy);
+                sink += builder.length();
+            }
+        });
+        Assert.assertTrue("char[] allocates " + array + " B/call", array < 1);
+        Assert.assertTrue("StringBuilder allocates " + sb + " B/call", sb < 1);
+        Assert.assertTrue("CharBuffer allocates " + cb + " B/call", cb < 1);
+    }
+
+    private double run(com.sun.management.ThreadMXBean mx, String name, Runnable call) {
+        for (int i = 0; i < WARMUP; i++) {
+            call.run();
+        }
+        long tid = Thread.currentThread().getId();
+        long bytesBefore = mx.getThreadAllocatedBytes(tid);
+        long start = System.nanoTime();
+        for (int i = 0; i < CALLS; i++) {
+            call.run();
+        }
+        long elapsed = System.nanoTime() - start;
+        double bytesPerCall = (double) (mx.getThreadAllocatedBytes(tid) - bytesBefore) / CALLS;
+        System.out.println(String.format("%-26s %8.1f ns/call %8.2f B/call",
+                name, (double) elapsed / CALLS, bytesPerCall));
+        return bytesPerCall;
+    }
+}
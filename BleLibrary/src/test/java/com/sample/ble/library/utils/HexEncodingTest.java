@@ -0,0 +1,65 @@
+package com.sample.ble.library.utils;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.StringWriter;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+
+public class HexEncodingTest {
+    private final byte[] data = {0x00, 0x1F, (byte) 0xA0, (byte) 0xFF};
+
+    @Test
+    public void testCharArray() {
+        char[] dst = new char[10];
+        dst[0] = '[';
+        Assert.assertEquals(8, DigestEncodingUtils.encodeWithHex(data, 0, data.length, false, dst, 1));
+        Assert.assertEquals("[001fa0ff", new String(dst, 0, 9));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testCharArrayTooSmall() {
+        DigestEncodingUtils.encodeWithHex(data, 0, data.length, true, new char[7], 0);
+    }
+
+    @Test
+    public void testAppendable() throws Exception {
+        StringBuilder sb = new StringBuilder("v=");
+        Assert.assertEquals("v=001FA0FF", DigestEncodingUtils.appendHex(sb, data).toString());
+        Assert.assertEquals("null", DigestEncodingUtils.appendHex(new StringBuilder(), null).toString());
+        StringWriter writer = new StringWriter();
+        DigestEncodingUtils.appendHex(writer, data, 1, 3, false);
+        Assert.assertEquals("1fa0", writer.toString());
+    }
+
+    @Test
+    public void testCharBuffer() {
+        CharBuffer heap = CharBuffer.allocate(8);
+        DigestEncodingUtils.encodeWithHex(data, 0, data.length, true, heap);
+        heap.flip();
+        Assert.assertEquals("001FA0FF", heap.toString());
+
+        // A view over a ByteBuffer has no backing char[]
+        CharBuffer view = ByteBuffer.allocate(16).asCharBuffer();
+        view.put('x');
+        DigestEncodingUtils.encodeWithHex(data, 2, 4, true, view);
+        view.flip();
+        Assert.assertEquals("xA0FF", view.toString());
+    }
+
+    @Test(expected = BufferOverflowException.class)
+    public void testCharBufferOverflow() {
+        DigestEncodingUtils.encodeWithHex(data, 0, data.length, true, CharBuffer.allocate(7));
+    }
+
+    @Test
+    public void testLazyHex() {
+        Object lazy = DigestEncodingUtils.lazyHex(data);
+        Assert.assertEquals("001FA0FF", lazy.toString());
+        Assert.assertEquals("value=001FA0FF.", String.format("value=%s.", lazy));
+        Assert.assertEquals("[001F      ]", String.format("[%-10.4s]", lazy));
+        Assert.assertEquals("null", String.format("%s", DigestEncodingUtils.lazyHex(null)));
+    }
+}
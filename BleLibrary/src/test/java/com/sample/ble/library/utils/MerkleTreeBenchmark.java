@@ -0,0 +1,57 @@
+package com.sample.ble.library.utils;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Hashes a 32 MB image into a {@link MerkleTree} of 4 KB blocks on pools of growing parallelism.
+ */
+public class MerkleTreeBenchmark {
+    private static final int SIZE = 32 * 1024 * 1024;
+    private static final int RUNS = 3;
+
+    @Test
+    public void benchmarkMerkleTree() throws Exception {
+        File file = File.createTempFile("ota", ".bin");
+        try {
+            byte[] data = new byte[SIZE];
+            new Random(1).nextBytes(data);
+            OutputStream out = new FileOutputStream(file);
+            try {
+                out.write(data);
+            } finally {
+                out.close();
+            }
+            byte[] root = null;
+            int cores = Runtime.getRuntime().availableProcessors();
+            for (int parallelism = 1; ; parallelism = Math.min(cores, parallelism * 2)) {
+                ForkJoinPool pool = new ForkJoinPool(parallelism);
+                MerkleTree.compute(file, MerkleTree.DEFAULT_BLOCK_SIZE, MerkleTree.DEFAULT_ALGORITHM, pool);
+                long start = System.nanoTime();
+                for (int i = 0; i < RUNS; i++) {
+                    MerkleTree tree = MerkleTree.compute(file, MerkleTree.DEFAULT_BLOCK_SIZE,
+                            MerkleTree.DEFAULT_ALGORITHM, pool);
+                    if (root == null) {
+                        root = tree.root();
+                    }
+                    Assert.assertArrayEquals(root, tree.root());
+                }
+                long elapsed = (System.nanoTime() - start) / RUNS;
+                pool.shutdown();
+                System.out.println(String.format("MerkleTree %2d threads %8.1f ms/file %8.1f MB/s",
+                        parallelism, elapsed / 1e6, SIZE * 1e3 / elapsed));
+                if (parallelism == cores) {
+                    break;
+                }
+            }
+        } finally {
+            file.delete();
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package com.sample.ble.library.utils;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+public class MerkleTreeTest {
+    private static final int BLOCK = 244;
+
+    private static byte[] hash(int prefix, byte[]... parts) throws Exception {
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        digest.update((byte) prefix);
+        for (byte[] part : parts) {
+            digest.update(part);
+        }
+        return digest.digest();
+    }
+
+    @Test
+    public void testRootLayout() throws Exception {
+        byte[] data = new byte[2 * BLOCK + 10];
+        new Random(3).nextBytes(data);
+        MerkleTree tree = MerkleTree.compute(data, BLOCK, "SHA-256", ForkJoinPool.commonPool());
+        Assert.assertEquals(3, tree.blockCount());
+        byte[] l0 = hash(0, Arrays.copyOfRange(data, 0, BLOCK));
+        byte[] l1 = hash(0, Arrays.copyOfRange(data, BLOCK, 2 * BLOCK));
+        byte[] l2 = hash(0, Arrays.copyOfRange(data, 2 * BLOCK, data.length));
+        Assert.assertArrayEquals(l2, tree.blockDigest(2));
+        // The third leaf has no sibling and moves up unchanged
+        Assert.assertArrayEquals(hash(1, hash(1, l0, l1), l2), tree.root());
+    }
+
+    @Test
+    public void testFileMatchesMemoryAndParallelism() throws Exception {
+        byte[] data = new byte[4 * 1024 * 1024 + 77];
+        new Random(5).nextBytes(data);
+        File file = File.createTempFile("image", ".bin");
+        try {
+            OutputStream out = new FileOutputStream(file);
+            try {
+                out.write(data);
+            } finally {
+                out.close();
+            }
+            ForkJoinPool single = new ForkJoinPool(1);
+            MerkleTree sequential = MerkleTree.compute(data, BLOCK, "SHA-256", single);
+            MerkleTree parallel = MerkleTree.compute(file, BLOCK);
+            single.shutdown();
+            Assert.assertEquals(sequential.blockCount(), parallel.blockCount());
+            Assert.assertArrayEquals(sequential.root(), parallel.root());
+            Assert.assertTrue(parallel.diff(sequential).isEmpty());
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testFindsCorruptChunks() {
+        byte[] data = new byte[10 * BLOCK];
+        new Random(9).nextBytes(data);
+        MerkleTree sent = MerkleTree.compute(data, BLOCK, "SHA-256", ForkJoinPool.commonPool());
+        byte[] received = data.clone();
+        received[3 * BLOCK + 5] ^= 1;
+        received[9 * BLOCK] ^= 1;
+        MerkleTree got = MerkleTree.compute(received, BLOCK, "SHA-256", ForkJoinPool.commonPool());
+        Assert.assertEquals(Arrays.asList(3, 9), sent.diff(got));
+        Assert.assertFalse(Arrays.equals(sent.root(), got.root()));
+
+        Assert.assertTrue(sent.verifyBlock(2, received, 2 * BLOCK, BLOCK));
+        Assert.assertFalse(sent.verifyBlock(3, received, 3 * BLOCK, BLOCK));
+        Assert.assertFalse(sent.verifyBlock(2, received, 2 * BLOCK, BLOCK - 1));
+        Assert.assertFalse(sent.verifyBlock(10, received, 0, BLOCK));
+    }
+
+    @Test
+    public void testEmptyAndLayoutMismatch() {
+        MerkleTree empty = MerkleTree.compute(new byte[0], BLOCK, "MD5", ForkJoinPool.commonPool());
+        Assert.assertEquals(1, empty.blockCount());
+        Assert.assertTrue(empty.verifyBlock(0, new byte[0], 0, 0));
+        MerkleTree other = MerkleTree.compute(new byte[0], BLOCK, "SHA-1", ForkJoinPool.commonPool());
+        Assert.assertEquals(Collections.singletonList(0), empty.diff(other));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownAlgorithm() {
+        MerkleTree.compute(new byte[1], BLOCK, "NOPE", ForkJoinPool.commonPool());
+    }
+}
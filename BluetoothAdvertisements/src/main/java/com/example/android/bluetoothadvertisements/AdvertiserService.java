@@ -14,6 +14,7 @@ import android.bluetooth.BluetoothGattServer;
 import android.bluetooth.BluetoothGattServerCallback;
 import android.bluetooth.BluetoothGattService;
 import android.bluetooth.BluetoothManager;
+import android.bluetooth.BluetoothProfile;
 import android.bluetooth.le.AdvertiseCallback;
 import android.bluetooth.le.AdvertiseData;
 import android.bluetooth.le.AdvertiseSettings;
@@ -31,12 +32,17 @@ import android.widget.Toast;
 
 import androidx.annotation.WorkerThread;
 
+import com.sample.ble.library.CustomPacket;
+import com.sample.ble.library.PacketSegmenter;
+import com.sample.ble.library.UuidRegistry;
 import com.sample.ble.library.common.Constants;
 import com.sample.ble.library.utils.DigestEncodingUtils;
 
 import java.util.Arrays;
 import java.util.Random;
 import java.util.UUID;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 
 import static com.sample.ble.library.common.Constants.SBM_READ_CHARACTERISTIC_UUID;
 import static com.sample.ble.library.common.Constants.SBM_Service_UUID;
@@ -65,6 +71,18 @@ public class AdvertiserService extends Service {
 
     public static final int ADVERTISING_TIMED_OUT = 6;
 
+    private static final long NOTIFICATION_SENT_TIMEOUT_MS = 1000;
+
+    /**
+     * The UUIDs of the served attributes, parsed once instead of on every send.
+     */
+    private static final UuidRegistry UUIDS = new UuidRegistry();
+    private static final int SERVICE = UUIDS.register(UUID.fromString(SBM_Service_UUID));
+    private static final int WRITE_CHARACTERISTIC = UUIDS.register(
+            UUID.fromString(Constants.SBM_WRITE_CHARACTERISTIC_UUID));
+    private static final int READ_CHARACTERISTIC = UUIDS.register(UUID.fromString(SBM_READ_CHARACTERISTIC_UUID));
+    private static final int CLIENT_CHARACTERISTIC_CONFIG = UUIDS.registerShort(0x2902);
+
     private BluetoothLeAdvertiser mBluetoothLeAdvertiser;
     private BluetoothGattServer mGattServer;
     private BluetoothGattServerCallback mGattServerCallback;
@@ -76,6 +94,12 @@ public class AdvertiserService extends Service {
 
     private Runnable timeoutRunnable;
 
+    private final PacketSegmenter mSegmenter = new PacketSegmenter();
+    /**
+     * Only one notification may be outstanding, released from onNotificationSent.
+     */
+    private final Semaphore mNotificationSent = new Semaphore(1);
+
     @Override
     public void onCreate() {
         running = true;
@@ -170,19 +194,19 @@ public class AdvertiserService extends Service {
                 Log.d(TAG, "prepare gatt server");
                 try {
                     BluetoothGattService service = new BluetoothGattService(
-                            UUID.fromString(SBM_Service_UUID),
+                            UUIDS.get(SERVICE),
                             BluetoothGattService.SERVICE_TYPE_PRIMARY);
                     service.addCharacteristic(new BluetoothGattCharacteristic(
-                            UUID.fromString(Constants.SBM_WRITE_CHARACTERISTIC_UUID),
+                            UUIDS.get(WRITE_CHARACTERISTIC),
                             BluetoothGattCharacteristic.PROPERTY_WRITE,
                             BluetoothGattCharacteristic.PERMISSION_WRITE_ENCRYPTED));
                     BluetoothGattCharacteristic readCharacteristic = new BluetoothGattCharacteristic(
-                            UUID.fromString(SBM_READ_CHARACTERISTIC_UUID),
+                            UUIDS.get(READ_CHARACTERISTIC),
                             BluetoothGattCharacteristic.PROPERTY_NOTIFY
                                     | BluetoothGattCharacteristic.PROPERTY_READ,
                             BluetoothGattCharacteristic.PERMISSION_READ_ENCRYPTED);
                     readCharacteristic.addDescriptor(
-                            new BluetoothGattDescriptor(UUID.fromString("00002902-0000-1000-8000-00805F9B34FB"),
+                            new BluetoothGattDescriptor(UUIDS.get(CLIENT_CHARACTERISTIC_CONFIG),
                                     BluetoothGattDescriptor.PERMISSION_READ_ENCRYPTED
                                             | BluetoothGattDescriptor.PERMISSION_WRITE_ENCRYPTED));
                     service.addCharacteristic(readCharacteristic);
@@ -324,13 +348,46 @@ public class AdvertiserService extends Service {
     @WorkerThread
     public void sendData(String data) {
         BluetoothGattCharacteristic characteristic = mGattServer
-                .getService(UUID.fromString(SBM_Service_UUID))
-                .getCharacteristic(UUID.fromString(SBM_READ_CHARACTERISTIC_UUID));
+                .getService(UUIDS.get(SERVICE))
+                .getCharacteristic(UUIDS.get(READ_CHARACTERISTIC));
         characteristic.setValue((data));
         mGattServer.notifyCharacteristicChanged(mDevice, characteristic, false);
 
     }
 
+    /**
+     * Frames {@code data} as {@link CustomPacket}s and notifies it in segments as large as the MTU
+     * negotiated with the current device allows.
+     *
+     * @return false if a segment could not be sent. The transfer stops there: skipping a segment
+     * would corrupt the frame it belongs to and every frame the receiver decodes after it.
+     */
+    @WorkerThread
+    public boolean sendData(byte[] data) {
+        BluetoothGattCharacteristic characteristic = mGattServer
+                .getService(UUIDS.get(SERVICE))
+                .getCharacteristic(UUIDS.get(READ_CHARACTERISTIC));
+        for (byte[] segment : mSegmenter.segment(mDevice.getAddress(),
+                CustomPacket.HEAD_CHANNEL_SBM_TO_WATCH, data)) {
+            try {
+                if (!mNotificationSent.tryAcquire(NOTIFICATION_SENT_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                    Log.w(TAG, "onNotificationSent timed out, transfer aborted");
+                    return false;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+            characteristic.setValue(segment);
+            if (!mGattServer.notifyCharacteristicChanged(mDevice, characteristic, false)) {
+                mNotificationSent.release();
+                Log.w(TAG, "notifyCharacteristicChanged failed, transfer aborted");
+                return false;
+            }
+        }
+        return true;
+    }
+
 
     private class BluetoothGattServerCallbackImpl extends BluetoothGattServerCallback {
         public BluetoothGattServerCallbackImpl() {
@@ -339,6 +396,12 @@ public class AdvertiserService extends Service {
 
         @Override
         public void onConnectionStateChange(BluetoothDevice device, int status, int newState) {
+            if (newState == BluetoothProfile.STATE_DISCONNECTED) {
+                mSegmenter.remove(device.getAddress());
+                // A notification outstanding on the dropped link never gets its onNotificationSent.
+                mNotificationSent.drainPermits();
+                mNotificationSent.release();
+            }
             super.onConnectionStateChange(device, status, newState);
         }
 
@@ -354,7 +417,7 @@ public class AdvertiserService extends Service {
                             "characteristic=%s " +
                             "  offset=%d  value=%s ",
                     requestId, characteristic.getUuid().toString(),
-                    offset, "" + DigestEncodingUtils.encodeWithHex(characteristic.getValue())));
+                    offset, DigestEncodingUtils.lazyHex(characteristic.getValue())));
             byte[] b = new byte[8];
             new Random().nextBytes(b);
             mGattServer.sendResponse(device, requestId, BluetoothGatt.GATT_SUCCESS, 0, b);
@@ -368,7 +431,7 @@ public class AdvertiserService extends Service {
                             "characteristic=%s " +
                             "preparedWrite=%b responseNeeded=%b offset=%d byte=%s",
                     requestId, characteristic.getUuid().toString(), preparedWrite, responseNeeded,
-                    offset, DigestEncodingUtils.encodeWithHex(value)));
+                    offset, DigestEncodingUtils.lazyHex(value)));
             if (responseNeeded) {
                 mGattServer.sendResponse(device, requestId, BluetoothGatt.GATT_SUCCESS, 0,
                         value);
@@ -410,11 +473,16 @@ public class AdvertiserService extends Service {
 
         @Override
         public void onNotificationSent(BluetoothDevice device, int status) {
+            if (mNotificationSent.availablePermits() == 0) {
+                mNotificationSent.release();
+            }
             super.onNotificationSent(device, status);
         }
 
         @Override
         public void onMtuChanged(BluetoothDevice device, int mtu) {
+            Log.d(TAG, "onMtuChanged " + device.getAddress() + " mtu=" + mtu);
+            mSegmenter.onMtuChanged(device.getAddress(), mtu);
             super.onMtuChanged(device, mtu);
         }
     }
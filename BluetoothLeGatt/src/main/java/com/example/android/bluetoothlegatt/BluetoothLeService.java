@@ -29,13 +29,26 @@ import android.bluetooth.BluetoothProfile;
 import android.content.Context;
 import android.content.Intent;
 import android.os.Binder;
+import android.os.Handler;
 import android.os.IBinder;
+import android.os.Looper;
 import android.util.Log;
 
+import com.sample.ble.library.GattException;
+import com.sample.ble.library.GattOperationQueue;
+import com.sample.ble.library.NotificationPublisher;
+import com.sample.ble.library.NotificationRing;
+import com.sample.ble.library.NotificationRouter;
+import com.sample.ble.library.ReconnectEngine;
+import com.sample.ble.library.UuidRegistry;
+import com.sample.ble.library.utils.ConnectionTuner;
 import com.sample.ble.library.utils.DigestEncodingUtils;
 
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 
 /**
  * Service for managing connection and data communication with a GATT server hosted on a
@@ -47,8 +60,12 @@ public class BluetoothLeService extends Service {
     private BluetoothManager mBluetoothManager;
     private BluetoothAdapter mBluetoothAdapter;
     private String mBluetoothDeviceAddress;
-    private BluetoothGatt mBluetoothGatt;
+    private volatile BluetoothGatt mBluetoothGatt;
     private int mConnectionState = STATE_DISCONNECTED;
+    // Set by disconnect() and close(), a drop without it is retried by mReconnect once the
+    // device has been connected.
+    private volatile boolean mUserDisconnect;
+    private volatile boolean mWasConnected;
 
     private static final int STATE_DISCONNECTED = 0;
     private static final int STATE_CONNECTING = 1;
@@ -60,40 +77,126 @@ public class BluetoothLeService extends Service {
             "com.example.bluetooth.le.ACTION_GATT_DISCONNECTED";
     public final static String ACTION_GATT_SERVICES_DISCOVERED =
             "com.example.bluetooth.le.ACTION_GATT_SERVICES_DISCOVERED";
-    public final static String ACTION_DATA_AVAILABLE =
-            "com.example.bluetooth.le.ACTION_DATA_AVAILABLE";
-    public final static String EXTRA_DATA =
-            "com.example.bluetooth.le.EXTRA_DATA";
+    public final static String ACTION_GATT_PARAMETERS_CHANGED =
+            "com.example.bluetooth.le.ACTION_GATT_PARAMETERS_CHANGED";
+    public final static String EXTRA_MTU =
+            "com.example.bluetooth.le.EXTRA_MTU";
+    public final static String EXTRA_TX_PHY =
+            "com.example.bluetooth.le.EXTRA_TX_PHY";
+    public final static String EXTRA_RX_PHY =
+            "com.example.bluetooth.le.EXTRA_RX_PHY";
 
     public final static UUID UUID_HEART_RATE_MEASUREMENT =
             UUID.fromString(SampleGattAttributes.HEART_RATE_MEASUREMENT);
 
+    // Characteristics this service handles specially, matched by id on every notification
+    // instead of comparing UUIDs or parsing strings.
+    private static final UuidRegistry UUIDS = new UuidRegistry();
+    private static final int HEART_RATE_MEASUREMENT = UUIDS.register(UUID_HEART_RATE_MEASUREMENT);
+    private static final int CLIENT_CHARACTERISTIC_CONFIG = UUIDS.register(
+            UUID.fromString(SampleGattAttributes.CLIENT_CHARACTERISTIC_CONFIG));
+
+    // MTU and PHY requests are GATT operations, the queue keeps them from colliding with the
+    // service discovery.
+    private final ScheduledExecutorService mGattTimer = Executors.newSingleThreadScheduledExecutor();
+    private final GattOperationQueue mGattQueue = new GattOperationQueue(mGattTimer);
+    private final ConnectionTuner mTuner = new ConnectionTuner(mGattQueue, new ConnectionTuner.Listener() {
+        @Override
+        public void onParametersChanged(BluetoothGatt gatt, ConnectionTuner.Parameters parameters) {
+            final Intent intent = new Intent(ACTION_GATT_PARAMETERS_CHANGED);
+            intent.putExtra(EXTRA_MTU, parameters.getMtu());
+            intent.putExtra(EXTRA_TX_PHY, parameters.getTxPhy());
+            intent.putExtra(EXTRA_RX_PHY, parameters.getRxPhy());
+            sendBroadcast(intent);
+        }
+    });
+    private volatile ConnectionTuner.Policy mConnectionPolicy = ConnectionTuner.Policy.INTERACTIVE;
+
+    // Notification streams with backpressure, see getNotifications().
+    private final NotificationRouter mNotifications = new NotificationRouter(UUIDS, new Executor() {
+        private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+        @Override
+        public void execute(Runnable command) {
+            mMainHandler.post(command);
+        }
+    });
+
+    // Read and notified values for the bound UI, see LocalBinder.getNotificationRing(). At
+    // 50-100 Hz an Intent per value, formatted and sent through system_server, cost more than
+    // the radio work, broadcasts are left to connection state changes.
+    private final NotificationRing mNotificationRing = new NotificationRing();
+
+    // Reconnects after unexpected drops, each attempt on a new BluetoothGatt.
+    private final ReconnectEngine mReconnect = new ReconnectEngine(new ReconnectEngine.Connector() {
+        @Override
+        public void connect(String address, boolean autoConnect) {
+            if (!address.equals(mBluetoothDeviceAddress) || mUserDisconnect) {
+                return;
+            }
+            connectGatt(address, autoConnect);
+        }
+    }, new ReconnectEngine.Listener() {
+        @Override
+        public void onReconnectScheduled(String address, int attempt, long delayMs, boolean autoConnect) {
+            Log.i(TAG, "Reconnect attempt " + attempt + " in " + delayMs + " ms"
+                    + (autoConnect ? " with autoConnect." : "."));
+        }
+
+        @Override
+        public void onReconnected(String address, int attempts, long downtimeMs) {
+            Log.i(TAG, "Reconnected after " + downtimeMs + " ms and " + attempts + " attempts, "
+                    + mReconnect.getMetrics());
+        }
+    }, mGattTimer);
+
     // Implements callback methods for GATT events that the app cares about.  For example,
     // connection change and services discovered.
     private final BluetoothGattCallback mGattCallback = new BluetoothGattCallback() {
         @Override
         public void onConnectionStateChange(BluetoothGatt gatt, int status, int newState) {
+            if (isStale(gatt)) {
+                return;
+            }
             String intentAction;
             if (newState == BluetoothProfile.STATE_CONNECTED) {
                 intentAction = ACTION_GATT_CONNECTED;
                 mConnectionState = STATE_CONNECTED;
+                mWasConnected = true;
+                mReconnect.onConnected(mBluetoothDeviceAddress);
                 broadcastUpdate(intentAction);
                 Log.i(TAG, "Connected to GATT server.");
-                // Attempts to discover services after successful connection.
-                Log.i(TAG, "Attempting to start service discovery:" +
-                        mBluetoothGatt.discoverServices());
+                mTuner.tune(gatt, mConnectionPolicy);
+                // Attempts to discover services after successful connection, queued behind the
+                // MTU and PHY requests.
+                discoverServices(gatt);
 
             } else if (newState == BluetoothProfile.STATE_DISCONNECTED) {
                 intentAction = ACTION_GATT_DISCONNECTED;
                 mConnectionState = STATE_DISCONNECTED;
                 Log.i(TAG, "Disconnected from GATT server.");
+                mGattQueue.clear(new GattException("Disconnected", status));
+                mTuner.reset();
+                if (!mUserDisconnect && mWasConnected) {
+                    mReconnect.onDisconnected(mBluetoothDeviceAddress, status);
+                }
                 broadcastUpdate(intentAction);
             }
         }
 
         @Override
         public void onServicesDiscovered(BluetoothGatt gatt, int status) {
+            if (isStale(gatt)) {
+                return;
+            }
+            mGattQueue.onComplete(GattOperationQueue.OP_DISCOVER_SERVICES, status, null);
             if (status == BluetoothGatt.GATT_SUCCESS) {
+                // Ids for the ring records, registered once instead of on the first value.
+                for (BluetoothGattService service : gatt.getServices()) {
+                    for (BluetoothGattCharacteristic characteristic : service.getCharacteristics()) {
+                        UUIDS.register(characteristic.getUuid());
+                    }
+                }
                 broadcastUpdate(ACTION_GATT_SERVICES_DISCOVERED);
             } else {
                 Log.w(TAG, "onServicesDiscovered received: " + status);
@@ -104,57 +207,136 @@ public class BluetoothLeService extends Service {
         public void onCharacteristicRead(BluetoothGatt gatt,
                                          BluetoothGattCharacteristic characteristic,
                                          int status) {
+            if (isStale(gatt)) {
+                return;
+            }
+            mGattQueue.onComplete(GattOperationQueue.OP_READ_CHARACTERISTIC, status, characteristic.getValue());
             if (status == BluetoothGatt.GATT_SUCCESS) {
-                broadcastUpdate(ACTION_DATA_AVAILABLE, characteristic);
+                record(characteristic);
+            }
+        }
+
+        @Override
+        public void onCharacteristicWrite(BluetoothGatt gatt,
+                                          BluetoothGattCharacteristic characteristic,
+                                          int status) {
+            if (isStale(gatt)) {
+                return;
             }
+            mGattQueue.onComplete(GattOperationQueue.OP_WRITE_CHARACTERISTIC, status, null);
+        }
+
+        @Override
+        public void onDescriptorWrite(BluetoothGatt gatt, BluetoothGattDescriptor descriptor, int status) {
+            if (isStale(gatt)) {
+                return;
+            }
+            mGattQueue.onComplete(GattOperationQueue.OP_WRITE_DESCRIPTOR, status, null);
         }
 
         @Override
         public void onCharacteristicChanged(BluetoothGatt gatt,
                                             BluetoothGattCharacteristic characteristic) {
-            broadcastUpdate(ACTION_DATA_AVAILABLE, characteristic);
+            if (isStale(gatt)) {
+                return;
+            }
+            mNotifications.publish(characteristic.getUuid(), characteristic.getValue());
+            record(characteristic);
+        }
+
+        @Override
+        public void onMtuChanged(BluetoothGatt gatt, int mtu, int status) {
+            if (isStale(gatt)) {
+                return;
+            }
+            Log.i(TAG, "onMtuChanged: " + mtu + " status " + status);
+            mTuner.onMtuChanged(gatt, mtu, status);
+        }
+
+        @Override
+        public void onPhyUpdate(BluetoothGatt gatt, int txPhy, int rxPhy, int status) {
+            if (isStale(gatt)) {
+                return;
+            }
+            Log.i(TAG, "onPhyUpdate: " + txPhy + "/" + rxPhy + " status " + status);
+            mTuner.onPhyUpdate(gatt, txPhy, rxPhy, status);
         }
     };
 
+    // A late event of a client already replaced by a reconnect attempt, or closed.
+    private boolean isStale(BluetoothGatt gatt) {
+        return gatt != mBluetoothGatt;
+    }
+
+    private void discoverServices(final BluetoothGatt gatt) {
+        mGattQueue.enqueue(new GattOperationQueue.Operation<Void>(GattOperationQueue.OP_DISCOVER_SERVICES) {
+            @Override
+            protected boolean start() {
+                boolean started = gatt.discoverServices();
+                Log.i(TAG, "Attempting to start service discovery:" + started);
+                return started;
+            }
+        });
+    }
+
     private void broadcastUpdate(final String action) {
         final Intent intent = new Intent(action);
         sendBroadcast(intent);
     }
 
-    private void broadcastUpdate(final String action,
-                                 final BluetoothGattCharacteristic characteristic) {
-        final Intent intent = new Intent(action);
+    private void record(BluetoothGattCharacteristic characteristic) {
+        int id = UUIDS.indexOf(characteristic.getUuid());
+        if (id == UuidRegistry.NOT_FOUND) {
+            id = UUIDS.register(characteristic.getUuid());
+        }
+        mNotificationRing.offer(System.nanoTime(), id, characteristic.getValue());
+    }
 
+    /**
+     * Formats a value drained from the {@link NotificationRing} for display.
+     *
+     * @param characteristicId the record's id, see {@link #getCharacteristicUuid}.
+     */
+    public static String formatValue(int characteristicId, byte[] data, int offset, int length) {
+        if (length <= 0) {
+            return null;
+        }
         // This is special handling for the Heart Rate Measurement profile.  Data parsing is
         // carried out as per profile specifications:
         // http://developer.bluetooth.org/gatt/characteristics/Pages/CharacteristicViewer.aspx?u=org.bluetooth.characteristic.heart_rate_measurement.xml
-        if (UUID_HEART_RATE_MEASUREMENT.equals(characteristic.getUuid())) {
-            int flag = characteristic.getProperties();
-            int format = -1;
-            if ((flag & 0x01) != 0) {
-                format = BluetoothGattCharacteristic.FORMAT_UINT16;
-                Log.d(TAG, "Heart rate format UINT16.");
+        if (characteristicId == HEART_RATE_MEASUREMENT && length >= 2) {
+            int heartRate;
+            if ((data[offset] & 0x01) != 0 && length >= 3) {
+                heartRate = (data[offset + 1] & 0xFF) | (data[offset + 2] & 0xFF) << 8;
             } else {
-                format = BluetoothGattCharacteristic.FORMAT_UINT8;
-                Log.d(TAG, "Heart rate format UINT8.");
-            }
-            final int heartRate = characteristic.getIntValue(format, 1);
-            Log.d(TAG, String.format("Received heart rate: %d", heartRate));
-            intent.putExtra(EXTRA_DATA, String.valueOf(heartRate));
-        } else {
-            // For all other profiles, writes the data formatted in HEX.
-            final byte[] data = characteristic.getValue();
-            if (data != null && data.length > 0) {
-                intent.putExtra(EXTRA_DATA, new String(data) + "\n" + DigestEncodingUtils.encodeWithHex(data));
+                heartRate = data[offset + 1] & 0xFF;
             }
+            return String.valueOf(heartRate);
         }
-        sendBroadcast(intent);
+        // For all other profiles, writes the data formatted in HEX.
+        StringBuilder text = new StringBuilder(length * 3 + 1).append(new String(data, offset, length)).append('\n');
+        return DigestEncodingUtils.appendHex(text, data, offset, offset + length, true).toString();
+    }
+
+    /**
+     * The characteristic of a ring record's id.
+     */
+    public static UUID getCharacteristicUuid(int characteristicId) {
+        return UUIDS.get(characteristicId);
     }
 
     public class LocalBinder extends Binder {
         BluetoothLeService getService() {
             return BluetoothLeService.this;
         }
+
+        /**
+         * Read and notified values, in process. A single consumer, e.g. the main thread,
+         * drains it; records not drained in time are dropped.
+         */
+        NotificationRing getNotificationRing() {
+            return mNotificationRing;
+        }
     }
 
     @Override
@@ -173,6 +355,33 @@ public class BluetoothLeService extends Service {
 
     private final IBinder mBinder = new LocalBinder();
 
+    @Override
+    public void onDestroy() {
+        mReconnect.cancelAll();
+        mNotifications.complete();
+        mGattTimer.shutdownNow();
+        super.onDestroy();
+    }
+
+    /**
+     * Selects the connection parameters requested after the next connection, or right away if
+     * connected: {@code ConnectionTuner.Policy.BULK}, {@code INTERACTIVE} (the default) or
+     * {@code LOW_POWER}. The outcome is broadcast as {@link #ACTION_GATT_PARAMETERS_CHANGED}.
+     */
+    public void setConnectionPolicy(ConnectionTuner.Policy policy) {
+        mConnectionPolicy = policy;
+        if (mBluetoothGatt != null && mConnectionState == STATE_CONNECTED) {
+            mTuner.tune(mBluetoothGatt, policy);
+        }
+    }
+
+    /**
+     * The MTU and PHY in effect, the defaults until the connection is tuned.
+     */
+    public ConnectionTuner.Parameters getConnectionParameters() {
+        return mTuner.getParameters();
+    }
+
     /**
      * Initializes a reference to the local Bluetooth adapter.
      *
@@ -212,30 +421,63 @@ public class BluetoothLeService extends Service {
             return false;
         }
 
-        // Previously connected device.  Try to reconnect.
-        if (mBluetoothDeviceAddress != null && address.equals(mBluetoothDeviceAddress)
-                && mBluetoothGatt != null) {
-            Log.d(TAG, "Trying to use an existing mBluetoothGatt for connection.");
-            if (mBluetoothGatt.connect()) {
-                mConnectionState = STATE_CONNECTING;
-                return true;
-            } else {
-                return false;
+        // Already connected or connecting to this device, e.g. an activity resuming: keep the
+        // client, its queued operations and its tuning. A pending reconnect attempt also counts.
+        if (address.equals(mBluetoothDeviceAddress) && mBluetoothGatt != null && !mUserDisconnect
+                && mConnectionState != STATE_DISCONNECTED) {
+            Log.d(TAG, "Using the existing mBluetoothGatt connection.");
+            return true;
+        }
+
+        if (!address.equals(mBluetoothDeviceAddress)) {
+            if (mBluetoothDeviceAddress != null) {
+                mReconnect.cancel(mBluetoothDeviceAddress);
             }
+            mWasConnected = false;
         }
+        mReconnect.cancel(address);
+        mUserDisconnect = false;
+        mBluetoothDeviceAddress = address;
+        // We want to directly connect to the device, so we are setting the autoConnect
+        // parameter to false.
+        return connectGatt(address, false);
+    }
 
+    // A new client for every attempt: after a status 133 the previous one usually keeps failing
+    // BluetoothGatt.connect().
+    private boolean connectGatt(String address, boolean autoConnect) {
         final BluetoothDevice device = mBluetoothAdapter.getRemoteDevice(address);
         if (device == null) {
             Log.w(TAG, "Device not found.  Unable to connect.");
             return false;
         }
-        // We want to directly connect to the device, so we are setting the autoConnect
-        // parameter to false.
-        mBluetoothGatt = device.connectGatt(this, false, mGattCallback);
-        Log.d(TAG, "Trying to create a new connection.");
-        mBluetoothDeviceAddress = address;
+        BluetoothGatt previous = mBluetoothGatt;
+        if (previous != null) {
+            mBluetoothGatt = null;
+            previous.close();
+            dropClientState();
+        }
+        mBluetoothGatt = device.connectGatt(this, autoConnect, mGattCallback);
+        Log.d(TAG, "Trying to create a new connection" + (autoConnect ? " with autoConnect." : "."));
         mConnectionState = STATE_CONNECTING;
-        return true;
+        return mBluetoothGatt != null;
+    }
+
+    /**
+     * The notifications of {@code characteristic} as a stream: subscribers request values and
+     * pick what happens when they fall behind, see {@link NotificationPublisher.Strategy}.
+     * Delivered on the main thread unless the subscriber passes its own executor. Notifications
+     * still have to be enabled with {@link #setCharacteristicNotification}.
+     */
+    public NotificationPublisher getNotifications(UUID characteristic) {
+        return mNotifications.get(characteristic);
+    }
+
+    /**
+     * Reconnections so far and how long they took.
+     */
+    public ReconnectEngine.Metrics getReconnectMetrics() {
+        return mReconnect.getMetrics();
     }
 
     /**
@@ -245,6 +487,10 @@ public class BluetoothLeService extends Service {
      * callback.
      */
     public void disconnect() {
+        mUserDisconnect = true;
+        if (mBluetoothDeviceAddress != null) {
+            mReconnect.cancel(mBluetoothDeviceAddress);
+        }
         if (mBluetoothAdapter == null || mBluetoothGatt == null) {
             Log.w(TAG, "BluetoothAdapter not initialized");
             return;
@@ -257,11 +503,23 @@ public class BluetoothLeService extends Service {
      * released properly.
      */
     public void close() {
+        mUserDisconnect = true;
+        if (mBluetoothDeviceAddress != null) {
+            mReconnect.cancel(mBluetoothDeviceAddress);
+        }
         if (mBluetoothGatt == null) {
             return;
         }
         mBluetoothGatt.close();
         mBluetoothGatt = null;
+        dropClientState();
+    }
+
+    // The operations outstanding on a closed client never get their callback, they would hold
+    // up the next client's queue until they time out.
+    private void dropClientState() {
+        mGattQueue.clear(new GattException("Client closed", BluetoothGatt.GATT_FAILURE));
+        mTuner.reset();
     }
 
     /**
@@ -271,12 +529,19 @@ public class BluetoothLeService extends Service {
      *
      * @param characteristic The characteristic to read from.
      */
-    public void readCharacteristic(BluetoothGattCharacteristic characteristic) {
+    public void readCharacteristic(final BluetoothGattCharacteristic characteristic) {
         if (mBluetoothAdapter == null || mBluetoothGatt == null) {
             Log.w(TAG, "BluetoothAdapter not initialized");
             return;
         }
-        mBluetoothGatt.readCharacteristic(characteristic);
+        // Queued, a read issued while the tuning or the discovery is outstanding would be dropped.
+        mGattQueue.enqueue(new GattOperationQueue.Operation<byte[]>(GattOperationQueue.OP_READ_CHARACTERISTIC) {
+            @Override
+            protected boolean start() {
+                BluetoothGatt gatt = mBluetoothGatt;
+                return gatt != null && gatt.readCharacteristic(characteristic);
+            }
+        });
     }
 
     /**
@@ -294,23 +559,42 @@ public class BluetoothLeService extends Service {
         mBluetoothGatt.setCharacteristicNotification(characteristic, enabled);
 
         // This is specific to Heart Rate Measurement.
-        if (UUID_HEART_RATE_MEASUREMENT.equals(characteristic.getUuid())) {
-            BluetoothGattDescriptor descriptor = characteristic.getDescriptor(
-                    UUID.fromString(SampleGattAttributes.CLIENT_CHARACTERISTIC_CONFIG));
-            descriptor.setValue(BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE);
-            mBluetoothGatt.writeDescriptor(descriptor);
+        if (UUIDS.indexOf(characteristic.getUuid()) == HEART_RATE_MEASUREMENT) {
+            final BluetoothGattDescriptor descriptor = characteristic.getDescriptor(
+                    UUIDS.get(CLIENT_CHARACTERISTIC_CONFIG));
+            if (descriptor == null) {
+                Log.w(TAG, "No client characteristic configuration descriptor");
+                return;
+            }
+            mGattQueue.enqueue(new GattOperationQueue.Operation<Void>(GattOperationQueue.OP_WRITE_DESCRIPTOR) {
+                @Override
+                protected boolean start() {
+                    BluetoothGatt gatt = mBluetoothGatt;
+                    return gatt != null && descriptor.setValue(BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE)
+                            && gatt.writeDescriptor(descriptor);
+                }
+            });
         }
     }
 
 
-    public void setCharacteristicNotificationS(BluetoothGattCharacteristic characteristic,
+    public void setCharacteristicNotificationS(final BluetoothGattCharacteristic characteristic,
                                                boolean enabled) {
         Log.w(TAG, "setCharacteristicNotificationS not initialized");
         mBluetoothGatt.setCharacteristicNotification(characteristic, enabled);
         mBluetoothGatt.setCharacteristicNotification(characteristic, true); // 设置监听
-        characteristic.setWriteType(BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT);
-        characteristic.setValue(DigestEncodingUtils.fromHexString("12345567978970"));
-        mBluetoothGatt.writeCharacteristic(characteristic);
+        mGattQueue.enqueue(new GattOperationQueue.Operation<Void>(GattOperationQueue.OP_WRITE_CHARACTERISTIC) {
+            @Override
+            protected boolean start() {
+                BluetoothGatt gatt = mBluetoothGatt;
+                if (gatt == null) {
+                    return false;
+                }
+                characteristic.setWriteType(BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT);
+                characteristic.setValue(DigestEncodingUtils.fromHexString("12345567978970"));
+                return gatt.writeCharacteristic(characteristic);
+            }
+        });
     }
 
 
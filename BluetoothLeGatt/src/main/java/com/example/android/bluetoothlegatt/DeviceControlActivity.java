@@ -27,6 +27,7 @@ import android.content.Intent;
 import android.content.IntentFilter;
 import android.content.ServiceConnection;
 import android.os.Bundle;
+import android.os.Handler;
 import android.os.IBinder;
 import android.util.Log;
 import android.view.Menu;
@@ -36,6 +37,8 @@ import android.widget.ExpandableListView;
 import android.widget.SimpleExpandableListAdapter;
 import android.widget.TextView;
 
+import com.sample.ble.library.NotificationRing;
+
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -63,6 +66,34 @@ public class DeviceControlActivity extends Activity {
     private boolean mConnected = false;
     private BluetoothGattCharacteristic mNotifyCharacteristic;
 
+    // Values come through the service's ring, drained about 20 times a second; only the newest
+    // one of each drain is formatted and shown.
+    private static final long DRAIN_INTERVAL_MS = 50;
+    private final Handler mHandler = new Handler();
+    private NotificationRing mNotificationRing;
+    private final byte[] mLastValue = new byte[NotificationRing.MAX_VALUE_LENGTH];
+    private int mLastLength;
+    private int mLastCharacteristicId;
+
+    private final NotificationRing.Reader mLastValueReader = new NotificationRing.Reader() {
+        @Override
+        public void onRecord(long timestampNanos, int characteristicId, byte[] data, int offset, int length) {
+            System.arraycopy(data, offset, mLastValue, 0, length);
+            mLastLength = length;
+            mLastCharacteristicId = characteristicId;
+        }
+    };
+
+    private final Runnable mDrainTask = new Runnable() {
+        @Override
+        public void run() {
+            if (mNotificationRing != null && mNotificationRing.drain(mLastValueReader, Integer.MAX_VALUE) > 0) {
+                displayData(BluetoothLeService.formatValue(mLastCharacteristicId, mLastValue, 0, mLastLength));
+            }
+            mHandler.postDelayed(this, DRAIN_INTERVAL_MS);
+        }
+    };
+
     private final String LIST_NAME = "NAME";
     private final String LIST_UUID = "UUID";
 
@@ -71,7 +102,9 @@ public class DeviceControlActivity extends Activity {
 
         @Override
         public void onServiceConnected(ComponentName componentName, IBinder service) {
-            mBluetoothLeService = ((BluetoothLeService.LocalBinder) service).getService();
+            BluetoothLeService.LocalBinder binder = (BluetoothLeService.LocalBinder) service;
+            mBluetoothLeService = binder.getService();
+            mNotificationRing = binder.getNotificationRing();
             if (!mBluetoothLeService.initialize()) {
                 Log.e(TAG, "Unable to initialize Bluetooth");
                 finish();
@@ -83,6 +116,7 @@ public class DeviceControlActivity extends Activity {
         @Override
         public void onServiceDisconnected(ComponentName componentName) {
             mBluetoothLeService = null;
+            mNotificationRing = null;
         }
     };
 
@@ -90,8 +124,7 @@ public class DeviceControlActivity extends Activity {
     // ACTION_GATT_CONNECTED: connected to a GATT server.
     // ACTION_GATT_DISCONNECTED: disconnected from a GATT server.
     // ACTION_GATT_SERVICES_DISCOVERED: discovered GATT services.
-    // ACTION_DATA_AVAILABLE: received data from the device.  This can be a result of read
-    //                        or notification operations.
+    // Data read or notified by the device is drained from the service's ring, see mDrainTask.
     private final BroadcastReceiver mGattUpdateReceiver = new BroadcastReceiver() {
         @Override
         public void onReceive(Context context, Intent intent) {
@@ -108,8 +141,6 @@ public class DeviceControlActivity extends Activity {
             } else if (BluetoothLeService.ACTION_GATT_SERVICES_DISCOVERED.equals(action)) {
                 // Show all the supported services and characteristics on the user interface.
                 displayGattServices(mBluetoothLeService.getSupportedGattServices());
-            } else if (BluetoothLeService.ACTION_DATA_AVAILABLE.equals(action)) {
-                displayData(intent.getStringExtra(BluetoothLeService.EXTRA_DATA));
             }
         }
     };
@@ -180,6 +211,11 @@ public class DeviceControlActivity extends Activity {
     protected void onResume() {
         super.onResume();
         registerReceiver(mGattUpdateReceiver, makeGattUpdateIntentFilter());
+        if (mNotificationRing != null) {
+            // Values from while paused are stale.
+            mNotificationRing.clear();
+        }
+        mHandler.post(mDrainTask);
         if (mBluetoothLeService != null) {
             final boolean result = mBluetoothLeService.connect(mDeviceAddress);
             Log.d(TAG, "Connect request result=" + result);
@@ -190,6 +226,7 @@ public class DeviceControlActivity extends Activity {
     protected void onPause() {
         super.onPause();
         unregisterReceiver(mGattUpdateReceiver);
+        mHandler.removeCallbacks(mDrainTask);
     }
 
     @Override
@@ -307,7 +344,6 @@ public class DeviceControlActivity extends Activity {
         intentFilter.addAction(BluetoothLeService.ACTION_GATT_CONNECTED);
         intentFilter.addAction(BluetoothLeService.ACTION_GATT_DISCONNECTED);
         intentFilter.addAction(BluetoothLeService.ACTION_GATT_SERVICES_DISCOVERED);
-        intentFilter.addAction(BluetoothLeService.ACTION_DATA_AVAILABLE);
         return intentFilter;
     }
 }
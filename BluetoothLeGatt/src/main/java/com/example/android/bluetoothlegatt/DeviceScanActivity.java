@@ -263,10 +263,12 @@ public class DeviceScanActivity extends ListActivity {
             runOnUiThread(new Runnable() {
                 @Override
                 public void run() {
-                    Log.d(TAG, "mLeScanCallback mLeScanCallback " + result.getRssi()
-                            + DigestEncodingUtils.encodeWithHex(result.getScanRecord().getBytes())
-                            + DigestEncodingUtils.encodeWithHex(result.getScanRecord()
-                            .getServiceData(ParcelUuid.fromString("000ffa0-0000-1000-8000-00805f9b34fb"))));
+                    StringBuilder msg = new StringBuilder(160).append("mLeScanCallback mLeScanCallback ")
+                            .append(result.getRssi());
+                    DigestEncodingUtils.appendHex(msg, result.getScanRecord().getBytes());
+                    DigestEncodingUtils.appendHex(msg, result.getScanRecord()
+                            .getServiceData(ParcelUuid.fromString("000ffa0-0000-1000-8000-00805f9b34fb")));
+                    Log.d(TAG, msg.toString());
                     mLeDeviceListAdapter.addDevice(result.getDevice());
                     mLeDeviceListAdapter.notifyDataSetChanged();
                 }